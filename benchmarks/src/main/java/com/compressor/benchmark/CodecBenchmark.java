@@ -0,0 +1,79 @@
+package com.compressor.benchmark;
+
+import com.compressor.core.CodeTable;
+import com.compressor.io.BitInputStream;
+import com.compressor.io.BitOutputStream;
+import com.compressor.io.HuffmanDecoder;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the inner loops of the codec: writing codes with the bit writer and decoding them with the table decoder.
+ * Both run over a single in-memory payload, without container framing or I/O.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CodecBenchmark {
+
+    @State(Scope.Thread)
+    public static class PayloadState {
+
+        public byte[] payload;
+        public byte[] decoded;
+        public HuffmanDecoder decoder;
+
+        @Setup(Level.Trial)
+        public void setUp(CorpusState corpus) throws IOException {
+            CodeTable table = corpus.table;
+            payload = new byte[(int) ((table.encodedBits(corpus.histogram) + 7) / 8) + 8];
+            encode(corpus, payload);
+            decoded = new byte[corpus.data.length];
+            decoder = table.newDecoder();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode(CorpusState corpus, PayloadState state, Throughput throughput) throws IOException {
+        encode(corpus, state.payload);
+        throughput.bytes += corpus.data.length;
+        return state.payload;
+    }
+
+    @Benchmark
+    public byte[] decode(PayloadState state, Throughput throughput) throws IOException {
+        BitInputStream input = new BitInputStream(state.payload, 0, state.payload.length);
+        HuffmanDecoder decoder = state.decoder;
+        byte[] decoded = state.decoded;
+        for (int index = 0; index < decoded.length; index++) {
+            decoded[index] = (byte) decoder.decodeSymbol(input);
+        }
+        throughput.bytes += decoded.length;
+        return decoded;
+    }
+
+    private static void encode(CorpusState corpus, byte[] payload) throws IOException {
+        int[] codes = corpus.table.getCodes();
+        byte[] lengths = corpus.table.getLengths();
+        byte[] data = corpus.data;
+        try (BitOutputStream output = new BitOutputStream(payload)) {
+            for (int index = 0; index < data.length; index++) {
+                int symbol = data[index] & 0xFF;
+                output.write(codes[symbol], lengths[symbol]);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.compressor.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic inputs for the benchmarks.
+ * Every corpus is generated from a fixed seed, so runs are comparable.
+ */
+public final class Corpus {
+
+    /** Uniformly random bytes, the incompressible case. */
+    public static final String RANDOM = "random";
+
+    /** English-like text built from common words. */
+    public static final String ENGLISH = "english";
+
+    /** Application log lines with timestamps, levels and numbers. */
+    public static final String LOGS = "logs";
+
+    /** A single repeated byte value. */
+    public static final String SINGLE_SYMBOL = "single";
+
+    /** Skewed data that uses all 256 byte values. */
+    public static final String ALL_SYMBOLS = "all256";
+
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "a", "in", "is", "it", "you", "that", "he", "was", "for", "on", "are",
+        "with", "as", "his", "they", "be", "at", "one", "have", "this", "from", "or", "had", "by", "word",
+        "but", "what", "some", "we", "can", "out", "other", "were", "all", "there", "when", "up", "use",
+        "your", "how", "said", "an", "each", "she", "which", "do", "their", "time", "if", "will", "way",
+        "about", "many", "then", "them", "write", "would", "like", "so", "these", "her", "long", "make",
+        "thing", "see", "him", "two", "has", "look", "more", "day", "could", "go", "come", "did", "number",
+        "sound", "no", "most", "people", "my", "over", "know", "water", "than", "call", "first", "who"
+    };
+
+    private static final String[] LEVELS = { "INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR" };
+
+    private static final String[] PATHS = { "/api/v1/orders", "/api/v1/users", "/health", "/api/v2/search" };
+
+    private Corpus() {
+    }
+
+    /**
+     * Generates a corpus.
+     * 
+     * @param kind One of the corpus names defined in this class
+     * @param size Number of bytes to generate
+     * @return The generated bytes
+     */
+    public static byte[] generate(String kind, int size) {
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        switch (kind) {
+            case RANDOM:
+                random.nextBytes(data);
+                return data;
+            case SINGLE_SYMBOL:
+                Arrays.fill(data, (byte) 'a');
+                return data;
+            case ALL_SYMBOLS:
+                for (int i = 0; i < size; i++) {
+                    data[i] = (byte) Math.min(255, (int) (-Math.log(1 - random.nextDouble()) * 24));
+                }
+                return data;
+            case ENGLISH:
+                return fill(data, random, false);
+            case LOGS:
+                return fill(data, random, true);
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + kind);
+        }
+    }
+
+    /**
+     * Fills the array with generated text, repeating lines until it is full.
+     * 
+     * @param data The destination array
+     * @param random Source of randomness
+     * @param logs true for log lines, false for English sentences
+     * @return The filled array
+     */
+    private static byte[] fill(byte[] data, Random random, boolean logs) {
+        StringBuilder line = new StringBuilder(256);
+        int position = 0;
+        long timestamp = 1700000000000L;
+        while (position < data.length) {
+            line.setLength(0);
+            if (logs) {
+                timestamp += random.nextInt(50);
+                line.append(timestamp).append(' ').append(LEVELS[random.nextInt(LEVELS.length)])
+                    .append(" [worker-").append(random.nextInt(16)).append("] GET ")
+                    .append(PATHS[random.nextInt(PATHS.length)]).append(" status=")
+                    .append(random.nextInt(20) == 0 ? 500 : 200).append(" latency=")
+                    .append(random.nextInt(400)).append("ms id=").append(Long.toHexString(random.nextLong()))
+                    .append('\n');
+            } else {
+                int words = 5 + random.nextInt(15);
+                for (int i = 0; i < words; i++) {
+                    // Square the uniform draw so frequent words dominate, as in real text
+                    double draw = random.nextDouble();
+                    String word = WORDS[(int) (draw * draw * WORDS.length)];
+                    if (i == 0) {
+                        line.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+                    } else {
+                        line.append(' ').append(word);
+                    }
+                }
+                line.append(random.nextInt(4) == 0 ? ".\n" : ". ");
+            }
+            byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+            int count = Math.min(bytes.length, data.length - position);
+            System.arraycopy(bytes, 0, data, position, count);
+            position += count;
+        }
+        return data;
+    }
+}
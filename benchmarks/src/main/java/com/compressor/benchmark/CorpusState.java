@@ -0,0 +1,35 @@
+package com.compressor.benchmark;
+
+import com.compressor.core.CodeTable;
+import com.compressor.core.Histogram;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding one generated corpus with its histogram and code table.
+ * Sizes range from 1 KB to 1 GB; the largest size needs a heap of about 4 GB.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({ Corpus.RANDOM, Corpus.ENGLISH, Corpus.LOGS, Corpus.SINGLE_SYMBOL, Corpus.ALL_SYMBOLS })
+    public String corpus;
+
+    @Param({ "1024", "65536", "1048576", "67108864", "1073741824" })
+    public int size;
+
+    public byte[] data;
+    public long[] histogram;
+    public CodeTable table;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = Corpus.generate(corpus, size);
+        histogram = new long[256];
+        Histogram.count(data, 0, data.length, histogram);
+        table = CodeTable.build(histogram);
+    }
+}
@@ -0,0 +1,51 @@
+package com.compressor.benchmark;
+
+import com.compressor.core.Histogram;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the byte histogram pass of compression: the counting used by the compressor, which interleaves
+ * sub-histograms only on skewed data, the plain single-table loop, and the sampling of one chunk in 16
+ * that checks large blocks for storing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HistogramBenchmark {
+
+    @Benchmark
+    public long[] count(CorpusState state, Throughput throughput) {
+        long[] histogram = new long[256];
+        Histogram.count(state.data, 0, state.data.length, histogram);
+        throughput.bytes += state.data.length;
+        return histogram;
+    }
+
+    @Benchmark
+    public long[] singleTable(CorpusState state, Throughput throughput) {
+        long[] histogram = new long[256];
+        byte[] data = state.data;
+        for (int index = 0; index < data.length; index++) {
+            histogram[data[index] & 0xFF]++;
+        }
+        throughput.bytes += data.length;
+        return histogram;
+    }
+
+    @Benchmark
+    public long[] sample(CorpusState state, Throughput throughput) {
+        long[] histogram = new long[256];
+        Histogram.sample(state.data, 0, state.data.length, 16, histogram);
+        throughput.bytes += state.data.length;
+        return histogram;
+    }
+}
@@ -0,0 +1,396 @@
+package com.compressor.benchmark;
+
+import com.compressor.cli.HuffmanCli;
+import com.compressor.core.CompressionOptions;
+import com.compressor.core.DecoderContext;
+import com.compressor.core.EncoderContext;
+import com.compressor.core.HuffmanInputStream;
+import com.compressor.core.HuffmanOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Checks that files, streams and encoder and decoder contexts compress and decompress a large input within a
+ * memory budget.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.compressor.benchmark.MemoryBudgetCheck [options]
+ *
+ *   --size &lt;MB&gt;       Size of the generated input, 4096 by default
+ *   --api &lt;list&gt;      APIs to check, from file, stream and context, all by default
+ *   --budget &lt;list&gt;   Memory budgets to check, 4M,5M,8M by default
+ *   --heap &lt;n&gt;        Maximum heap of the child JVM, 24m by default
+ *   --max-peak &lt;MB&gt;   Highest heap use accepted, 16 by default
+ *   --dir &lt;dir&gt;       Working directory, a new temporary directory by default
+ *   --keep            Keep the generated files
+ * </pre>
+ *
+ * The input is generated from a fixed seed in 1 MB chunks: 70% text slices, 20% random bytes and 10% a
+ * single repeated byte. For every API and budget, compression and then decompression run in a child JVM started
+ * with the given heap, with the budget set on both sides:
+ * <ul>
+ * <li>{@code file}: the {@code compress} and {@code decompress} commands of the command line tool, with
+ * {@code -m}</li>
+ * <li>{@code stream}: a {@link HuffmanOutputStream} and a {@link HuffmanInputStream} created with the options</li>
+ * <li>{@code context}: one {@link EncoderContext} and one {@link DecoderContext} coding the input as arrays of
+ * 1 MB, each container preceded by its length</li>
+ * </ul>
+ * The child reports the peak heap use, summed over the heap pools, when it is done. The check fails, with exit
+ * status 1, when a step fails, the restored file differs from the input in any byte or a peak is above the bound.
+ */
+public final class MemoryBudgetCheck {
+
+    private static final int CHUNK = 1 << 20;
+
+    private static final String CHILD = "child";
+
+    private static final String PEAK = "peak-heap ";
+
+    private MemoryBudgetCheck() {
+    }
+
+    /**
+     * Runs the check, or one step of it when started as the child.
+     *
+     * @param args The options described in the class documentation
+     * @throws Exception If the files cannot be written or the child cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD)) {
+            int status = runStep(args[1], args[2], args[3], Paths.get(args[4]), Paths.get(args[5]));
+            System.out.println(PEAK + peakHeapUsed());
+            System.exit(status);
+        }
+
+        long size = 4096;
+        String[] apis = { "file", "stream", "context" };
+        String[] budgets = { "4M", "5M", "8M" };
+        String heap = "24m";
+        long maxPeak = 16;
+        Path dir = null;
+        boolean keep = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size":
+                    size = Long.parseLong(args[++i]);
+                    break;
+                case "--api":
+                    apis = args[++i].split(",");
+                    break;
+                case "--budget":
+                    budgets = args[++i].split(",");
+                    break;
+                case "--heap":
+                    heap = args[++i];
+                    break;
+                case "--max-peak":
+                    maxPeak = Long.parseLong(args[++i]);
+                    break;
+                case "--dir":
+                    dir = Paths.get(args[++i]);
+                    break;
+                case "--keep":
+                    keep = true;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        Path work = dir == null ? Files.createTempDirectory("budget-check") : Files.createDirectories(dir);
+        Path input = work.resolve("mixed.bin");
+        boolean passed = true;
+        try {
+            long start = System.nanoTime();
+            generate(input, size);
+            System.out.printf("Generated %d MB in %.1f s%n", size, (System.nanoTime() - start) / 1e9);
+
+            long limit = maxPeak << 20;
+            for (String api : apis) {
+                for (String budget : budgets) {
+                    Path run = work.resolve(api + "-" + budget);
+                    Path compressed = run.resolve("compressed").resolve("mixed.bin.huf");
+                    Path restored = run.resolve("restored").resolve("mixed.bin");
+                    Files.createDirectories(compressed.getParent());
+                    Files.createDirectories(restored.getParent());
+                    System.out.printf("%s API, %s budget%n", api, budget);
+                    boolean ok = runChild(heap, limit, api, "compress", budget, input, compressed)
+                            && runChild(heap, limit, api, "decompress", budget, compressed, restored);
+                    if (ok) {
+                        ok = sameContent(input, restored);
+                        System.out.println(ok ? "  Round trip is byte-exact"
+                                : "  FAILED: restored file differs from input");
+                    }
+                    passed &= ok;
+                    if (!keep) {
+                        delete(run);
+                    }
+                }
+            }
+        } finally {
+            if (!keep) {
+                delete(work);
+            }
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Writes the mixed input.
+     *
+     * @param file The file to write
+     * @param megabytes Its size in megabytes
+     * @throws IOException If the file cannot be written
+     */
+    private static void generate(Path file, long megabytes) throws IOException {
+        byte[] english = Corpus.generate(Corpus.ENGLISH, 8 * CHUNK);
+        byte[] logs = Corpus.generate(Corpus.LOGS, 8 * CHUNK);
+        byte[] constant = new byte[CHUNK];
+        Arrays.fill(constant, (byte) 'a');
+        byte[] chunk = new byte[CHUNK];
+        Random random = new Random(7);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long i = 0; i < megabytes; i++) {
+                int kind = random.nextInt(10);
+                if (kind < 7) {
+                    byte[] text = kind < 5 ? english : logs;
+                    out.write(text, random.nextInt(text.length - CHUNK), CHUNK);
+                } else if (kind < 9) {
+                    random.nextBytes(chunk);
+                    out.write(chunk);
+                } else {
+                    out.write(constant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one step of the check in a child JVM and checks its exit status and peak heap.
+     *
+     * @param heap The maximum heap of the child
+     * @param limit The highest peak heap use accepted, in bytes
+     * @param api The API to use: file, stream or context
+     * @param step compress or decompress
+     * @param budget The memory budget, with an optional K or M suffix
+     * @param input The file to read
+     * @param output The file to write
+     * @return Whether the step succeeded within the limit
+     * @throws IOException If the child cannot be started
+     * @throws InterruptedException If interrupted while waiting for the child
+     */
+    private static boolean runChild(String heap, long limit, String api, String step, String budget, Path input,
+            Path output) throws IOException, InterruptedException {
+        List<String> arguments = new ArrayList<>();
+        arguments.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        arguments.add("-Xmx" + heap);
+        arguments.add("-cp");
+        arguments.add(System.getProperty("java.class.path"));
+        arguments.add(MemoryBudgetCheck.class.getName());
+        arguments.addAll(Arrays.asList(CHILD, api, step, budget, input.toString(), output.toString()));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(arguments).redirectErrorStream(true).start();
+        long peak = -1;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PEAK)) {
+                    peak = Long.parseLong(line.substring(PEAK.length()));
+                } else {
+                    System.out.println("    " + line);
+                }
+            }
+        }
+        int status = process.waitFor();
+        System.out.printf("  %s with -Xmx%s: exit status %d, peak heap %.1f MB, %.1f s%n", step, heap, status,
+                peak / (double) (1 << 20), (System.nanoTime() - start) / 1e9);
+        if (status != 0 || peak < 0) {
+            System.out.println("  FAILED: " + step + " did not complete");
+            return false;
+        }
+        if (peak > limit) {
+            System.out.printf("  FAILED: peak heap is above %d MB%n", limit >> 20);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compresses or decompresses a file in the child JVM.
+     *
+     * @param api The API to use: file, stream or context
+     * @param step compress or decompress
+     * @param budget The memory budget, with an optional K or M suffix
+     * @param input The file to read
+     * @param output The file to write
+     * @return The exit status, 0 on success
+     * @throws IOException If a file cannot be read or written, or the data is corrupt
+     */
+    private static int runStep(String api, String step, String budget, Path input, Path output) throws IOException {
+        boolean compress = step.equals("compress");
+        if (api.equals("file")) {
+            String[] command = { step, "-m", budget, "-o", output.getParent().toString(), input.toString() };
+            return HuffmanCli.run(command, System.out, System.err);
+        }
+
+        CompressionOptions options = new CompressionOptions();
+        options.setMemoryBudget(parseSize(budget));
+        byte[] buffer = new byte[CHUNK];
+        try (InputStream in = Files.newInputStream(input); OutputStream out = Files.newOutputStream(output)) {
+            if (api.equals("stream")) {
+                InputStream source = compress ? in : new HuffmanInputStream(in, options);
+                OutputStream target = compress ? new HuffmanOutputStream(out, options) : out;
+                int read;
+                while ((read = source.read(buffer, 0, buffer.length)) >= 0) {
+                    target.write(buffer, 0, read);
+                }
+                target.close();
+                source.close();
+            } else if (compress) {
+                EncoderContext context = new EncoderContext(options);
+                byte[] container = new byte[context.maxCompressedLength(CHUNK)];
+                DataOutputStream target = new DataOutputStream(out);
+                int read;
+                while ((read = readFully(in, buffer)) > 0) {
+                    int length = context.compress(buffer, 0, read, container, 0);
+                    target.writeInt(length);
+                    target.write(container, 0, length);
+                }
+                target.flush();
+            } else {
+                DecoderContext context = new DecoderContext(options);
+                byte[] container = new byte[new EncoderContext(options).maxCompressedLength(CHUNK)];
+                DataInputStream source = new DataInputStream(in);
+                while (true) {
+                    int length;
+                    try {
+                        length = source.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    source.readFully(container, 0, length);
+                    out.write(buffer, 0, context.decompress(container, 0, length, buffer, 0));
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parses a size in bytes with an optional K or M suffix.
+     *
+     * @param size The size, such as 4M
+     * @return The size in bytes
+     */
+    private static long parseSize(String size) {
+        String upper = size.toUpperCase(Locale.ROOT);
+        if (upper.endsWith("M")) {
+            return Long.parseLong(upper.substring(0, upper.length() - 1)) << 20;
+        }
+        if (upper.endsWith("K")) {
+            return Long.parseLong(upper.substring(0, upper.length() - 1)) << 10;
+        }
+        return Long.parseLong(upper);
+    }
+
+    /**
+     * Returns the peak heap use of this JVM, summed over the heap pools.
+     * Each pool records its own peak, so the sum is an upper bound on the heap in use at any one time.
+     *
+     * @return The peak heap use in bytes
+     */
+    private static long peakHeapUsed() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Compares two files byte by byte.
+     *
+     * @param first The first file
+     * @param second The second file
+     * @return Whether both files have the same length and content
+     * @throws IOException If either file cannot be read
+     */
+    private static boolean sameContent(Path first, Path second) throws IOException {
+        if (Files.size(first) != Files.size(second)) {
+            return false;
+        }
+        byte[] a = new byte[CHUNK];
+        byte[] b = new byte[CHUNK];
+        try (InputStream in1 = Files.newInputStream(first); InputStream in2 = Files.newInputStream(second)) {
+            int n;
+            while ((n = readFully(in1, a)) > 0) {
+                if (readFully(in2, b) != n) {
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (a[i] != b[i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads until the buffer is full or the stream ends.
+     *
+     * @param in The stream to read
+     * @param buffer The destination buffer
+     * @return The number of bytes read, 0 at the end of the stream
+     * @throws IOException If the stream cannot be read
+     */
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int n;
+        while (total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Deletes a directory and everything under it.
+     *
+     * @param dir The directory to delete
+     * @throws IOException If a file cannot be deleted
+     */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
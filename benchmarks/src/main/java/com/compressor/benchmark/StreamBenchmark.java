@@ -0,0 +1,107 @@
+package com.compressor.benchmark;
+
+import com.compressor.core.CompressionOptions;
+import com.compressor.core.HuffmanInputStream;
+import com.compressor.core.HuffmanOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures end-to-end compression and decompression through the streaming API,
+ * including block framing, tables and checksums, with and without order-1 context tables.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StreamBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class OptionsState {
+
+        @Param({ "false", "true" })
+        public boolean contextModeling;
+
+        public CompressionOptions options;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            options = new CompressionOptions();
+            options.setContextModeling(contextModeling);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CompressedState {
+
+        public byte[] compressed;
+        public byte[] buffer;
+
+        @Setup(Level.Trial)
+        public void setUp(CorpusState corpus, OptionsState options) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (HuffmanOutputStream out = new HuffmanOutputStream(bytes, options.options)) {
+                out.write(corpus.data);
+            }
+            compressed = bytes.toByteArray();
+            buffer = new byte[1 << 16];
+        }
+    }
+
+    @Benchmark
+    public long compress(CorpusState corpus, OptionsState options, Throughput throughput) throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (HuffmanOutputStream out = new HuffmanOutputStream(sink, options.options)) {
+            out.write(corpus.data);
+        }
+        throughput.bytes += corpus.data.length;
+        return sink.count;
+    }
+
+    @Benchmark
+    public long decompress(CompressedState state, Throughput throughput) throws IOException {
+        long total = 0;
+        try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(state.compressed))) {
+            int read;
+            while ((read = in.read(state.buffer, 0, state.buffer.length)) > 0) {
+                total += read;
+            }
+        }
+        throughput.bytes += total;
+        return total;
+    }
+
+    /**
+     * Discards its output and counts the bytes written.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.compressor.benchmark;
+
+import com.compressor.core.CodeTable;
+import com.compressor.core.CodeTableCache;
+import com.compressor.core.CompressionOptions;
+import com.compressor.core.HuffmanCodeBuilder;
+import com.compressor.core.HuffmanTree;
+import com.compressor.core.Histogram;
+import com.compressor.core.TreeNode;
+import com.compressor.io.HuffmanDecoder;
+import com.compressor.util.CharFrequencyPair;
+import com.compressor.util.HuffmanPriorityQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building a code table from a histogram: the array-based builder used by the compressor,
+ * the priority queue, tree merges and code generation of the object-based tree, and taking tables
+ * and decoders from a warm {@link CodeTableCache} instead.
+ * The cost depends on the histogram only, so a 1 MB sample of each corpus is used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBuildBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HistogramState {
+
+        @Param({ Corpus.RANDOM, Corpus.ENGLISH, Corpus.LOGS, Corpus.SINGLE_SYMBOL, Corpus.ALL_SYMBOLS })
+        public String corpus;
+
+        public long[] histogram;
+        public HuffmanCodeBuilder builder;
+        public byte[] lengths;
+        public HuffmanTree tree;
+        public TreeNode root;
+        public CodeTableCache cache;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            byte[] data = Corpus.generate(corpus, 1 << 20);
+            histogram = new long[256];
+            Histogram.count(data, 0, data.length, histogram);
+
+            builder = new HuffmanCodeBuilder();
+            lengths = new byte[256];
+
+            // A finished tree for the code generation benchmark; a single symbol has no tree
+            HuffmanPriorityQueue queue = fillQueue(histogram);
+            tree = new HuffmanTree();
+            while (queue.size() > 2) {
+                queue.insert(tree.merge(queue.removeMin(), queue.removeMin()));
+            }
+            root = queue.size() == 2 ? tree.getRoot(queue.removeMin()) : null;
+
+            cache = new CodeTableCache();
+            cache.decoder(cache.table(histogram, CompressionOptions.DEFAULT_MAX_CODE_LENGTH).getLengths());
+        }
+    }
+
+    @Benchmark
+    public CodeTable buildCodeTable(HistogramState state) {
+        return CodeTable.build(state.histogram);
+    }
+
+    @Benchmark
+    public byte[] arrayBuilder(HistogramState state) {
+        state.builder.buildLengths(state.histogram, CompressionOptions.DEFAULT_MAX_CODE_LENGTH, state.lengths);
+        return state.lengths;
+    }
+
+    @Benchmark
+    public CodeTable cachedCodeTable(HistogramState state) {
+        return state.cache.table(state.histogram, CompressionOptions.DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    @Benchmark
+    public HuffmanDecoder buildDecoder(HistogramState state) {
+        return CodeTable.build(state.histogram).newDecoder();
+    }
+
+    @Benchmark
+    public HuffmanDecoder cachedDecoder(HistogramState state) {
+        return state.cache.decoder(state.cache.table(state.histogram, CompressionOptions.DEFAULT_MAX_CODE_LENGTH)
+                .getLengths());
+    }
+
+    @Benchmark
+    public CharFrequencyPair priorityQueue(HistogramState state) {
+        HuffmanPriorityQueue queue = fillQueue(state.histogram);
+        CharFrequencyPair last = null;
+        while (queue.size() > 1) {
+            last = queue.removeMin();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public byte[] generateCodes(HistogramState state) {
+        byte[] lengths = new byte[256];
+        if (state.root != null) {
+            state.tree.generateCodes(state.root, new int[256], lengths);
+        }
+        return lengths;
+    }
+
+    private static HuffmanPriorityQueue fillQueue(long[] histogram) {
+        HuffmanPriorityQueue queue = new HuffmanPriorityQueue();
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] != 0) {
+                queue.insert(new CharFrequencyPair(i, (int) histogram[i]));
+            }
+        }
+        return queue;
+    }
+}
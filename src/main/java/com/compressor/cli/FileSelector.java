@@ -0,0 +1,145 @@
+package com.compressor.cli;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Expands the paths named on the command line into the files to process.
+ * <p>
+ * A file is taken as is. A directory is walked recursively, keeping the files that pass a filter. An argument
+ * containing {@code *}, {@code ?}, {@code [} or {@code {}} is a glob in the syntax of
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}, matched against the files under the directory
+ * before its first wildcard, so that patterns quoted in cron jobs and CI scripts work without a shell.
+ * Every file is paired with the directory its output path is made relative to: the argument itself for a
+ * directory, the directory before the first wildcard for a glob, and the parent for a file.
+ */
+class FileSelector {
+
+    private FileSelector() {
+    }
+
+    /**
+     * Expands command line arguments into files, in argument order, each directory sorted by path.
+     *
+     * @param arguments The paths, directories and globs
+     * @param walkFilter Files found by walking a directory are kept if it accepts them; files named directly
+     *                   and glob matches are always kept
+     * @return The files, without duplicates
+     * @throws IOException If an argument names nothing, a glob matches nothing or a directory cannot be read
+     */
+    static List<Selection> select(List<String> arguments, Predicate<Path> walkFilter) throws IOException {
+        List<Selection> selections = new ArrayList<>();
+        Set<Path> seen = new HashSet<>();
+        for (String argument : arguments) {
+            List<Selection> found = isGlob(argument) ? expandGlob(argument) : expandPath(argument, walkFilter);
+            for (Selection selection : found) {
+                Path key = selection.getFile().toAbsolutePath().normalize();
+                if (seen.add(key)) {
+                    selections.add(selection);
+                }
+            }
+        }
+        return selections;
+    }
+
+    private static List<Selection> expandPath(String argument, Predicate<Path> walkFilter) throws IOException {
+        Path path = Paths.get(argument);
+        List<Selection> found = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            for (Path file : walk(path)) {
+                if (walkFilter.test(file)) {
+                    found.add(new Selection(file, path));
+                }
+            }
+        } else if (Files.exists(path)) {
+            Path parent = path.getParent();
+            found.add(new Selection(path, parent != null ? parent : Paths.get("")));
+        } else {
+            throw new NoSuchFileException(argument);
+        }
+        return found;
+    }
+
+    private static List<Selection> expandGlob(String argument) throws IOException {
+        // The base is the part of the pattern before the segment holding the first wildcard
+        String separator = FileSystems.getDefault().getSeparator();
+        int wildcard = firstWildcard(argument);
+        int end = Math.max(argument.lastIndexOf('/', wildcard), argument.lastIndexOf(separator, wildcard));
+        Path base = end >= 0 ? Paths.get(argument.substring(0, Math.max(end, 1))) : null;
+        Path start = base != null ? base : Paths.get(".");
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + argument);
+
+        List<Selection> found = new ArrayList<>();
+        if (Files.isDirectory(start)) {
+            for (Path file : walk(start)) {
+                // Without a base, paths are matched as the pattern writes them: relative, without "./"
+                Path candidate = base != null ? file : start.relativize(file);
+                if (matcher.matches(candidate)) {
+                    found.add(new Selection(candidate, base != null ? base : Paths.get("")));
+                }
+            }
+        }
+        if (found.isEmpty()) {
+            throw new NoSuchFileException(argument, null, "No file matches");
+        }
+        return found;
+    }
+
+    private static List<Path> walk(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isGlob(String argument) {
+        return firstWildcard(argument) < argument.length();
+    }
+
+    private static int firstWildcard(String argument) {
+        for (int index = 0; index < argument.length(); index++) {
+            if ("*?[{".indexOf(argument.charAt(index)) >= 0) {
+                return index;
+            }
+        }
+        return argument.length();
+    }
+
+    /**
+     * A selected file and the directory its output path is made relative to.
+     */
+    static class Selection {
+
+        private final Path file;
+        private final Path root;
+
+        Selection(Path file, Path root) {
+            this.file = file;
+            this.root = root;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the path of the file relative to its root, which is where it goes under an output directory.
+         *
+         * @return The relative path
+         */
+        Path getRelativePath() {
+            return root.toString().isEmpty() ? file : root.relativize(file);
+        }
+    }
+}
@@ -0,0 +1,760 @@
+package com.compressor.cli;
+
+import com.compressor.core.CompressionOptions;
+import com.compressor.core.HuffmanArchive;
+import com.compressor.core.HuffmanCompressor;
+import com.compressor.core.HuffmanDictionary;
+import com.compressor.core.HuffmanInputStream;
+import com.compressor.gui.HuffmanCompressorGUI;
+import com.compressor.io.ArchiveDirectory;
+import com.compressor.io.ArchiveEntry;
+import com.compressor.io.CorruptDataException;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Command line entry point, for servers without a display, cron jobs and CI pipelines.
+ *
+ * <pre>
+ * huffman compress   [options] &lt;file|directory|glob&gt;...
+ * huffman decompress [options] &lt;file|directory|glob&gt;...
+ * huffman verify     [options] &lt;file|directory|glob&gt;...
+ * huffman bench      [options] &lt;file|directory|glob&gt;...
+ * huffman archive    [options] &lt;archive&gt; &lt;file|directory|glob&gt;...
+ * huffman list       &lt;archive&gt;
+ * huffman extract    [options] &lt;archive&gt; [entry...]
+ * </pre>
+ *
+ * Arguments are expanded by {@link FileSelector}. Files are processed {@code --jobs} at a time, and the blocks
+ * of each file are coded on {@code --threads} workers of its own. A line is printed for every file, in argument
+ * order, followed by a summary with the aggregate throughput. The exit status is 0 when every file succeeded,
+ * 1 when any failed and 2 for a usage error. The archive commands work on a {@link HuffmanArchive} instead, which
+ * packs all the files into one. Started without arguments on a machine with a display, the
+ * {@link HuffmanCompressorGUI} opens instead, so the jar still starts the GUI when double-clicked.
+ */
+public class HuffmanCli {
+
+    /** Suffix of compressed files. */
+    public static final String SUFFIX = ".huf";
+
+    // Suffix of decompressed files whose name does not end in SUFFIX
+    private static final String DECOMPRESSED_SUFFIX = ".out";
+
+    private static final double MEGABYTE = 1 << 20;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: huffman <command> [options] <file|directory|glob>...",
+            "",
+            "Commands:",
+            "  compress     Compress files to <name>" + SUFFIX,
+            "  decompress   Decompress files, removing the " + SUFFIX + " suffix or adding " + DECOMPRESSED_SUFFIX,
+            "  verify       Decode compressed files and check every block checksum, writing nothing",
+            "  bench        Compress and decompress files in a temporary directory, one file at a time,",
+            "               and report the ratio and the best throughput of all iterations",
+            "  archive      Pack files into the archive named first, stored under their relative paths",
+            "  list         List the entries of an archive",
+            "  extract      Extract the named entries of an archive, or all of them, under --output",
+            "",
+            "Directories are walked recursively: compress and bench take every file not ending in " + SUFFIX + ",",
+            "decompress and verify every file ending in it. Quote globs such as 'logs/**/*.log' to",
+            "expand them without a shell.",
+            "",
+            "Options:",
+            "  -o, --output <dir>       Write outputs under this directory, at their path relative to the",
+            "                           argument they were found through (default: next to the input)",
+            "  -j, --jobs <n>           Files processed at once (default: number of processors)",
+            "  -t, --threads <n>        Block workers per file (default: number of processors)",
+            "  -b, --block-size <n>     Block size in bytes, with an optional K or M suffix (default: 1M)",
+            "  -c, --context            Use order-1 context tables where they are smaller",
+            "  -m, --memory <n>         Bound the buffers of every file being processed, with an optional K or",
+            "                           M suffix; files are then read once (default: no bound)",
+            "  -d, --dictionary <file>  Dictionary the files are written or read with",
+            "  -n, --iterations <n>     Runs of every file for bench (default: 3)",
+            "  -s, --share-table        Give the small files of an archive one shared code table",
+            "  -f, --force              Replace existing output files",
+            "  -q, --quiet              Print only the summary and errors",
+            "  -h, --help               Print this help");
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private String command;
+    private Path outputDirectory;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private int iterations = 3;
+    private boolean force = false;
+    private boolean quiet = false;
+    private boolean shareTable = false;
+    private Path dictionaryPath;
+    private CompressionOptions options = new CompressionOptions();
+    private List<String> inputs = new ArrayList<>();
+    private HuffmanDictionary dictionary;
+    private HuffmanCompressor compressor;
+
+    private HuffmanCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Main entry point.
+     *
+     * @param args The command, options and input paths; none to open the GUI on a machine with a display
+     */
+    public static void main(String[] args) {
+        if (args.length == 0 && !GraphicsEnvironment.isHeadless()) {
+            HuffmanCompressorGUI.main(args);
+            return;
+        }
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs a command without exiting the JVM.
+     *
+     * @param args The command, options and input paths
+     * @param out Stream for the per-file lines and the summary
+     * @param err Stream for errors and usage
+     * @return The exit status: 0 on success, 1 if any file failed, 2 for a usage error
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        HuffmanCli cli = new HuffmanCli(out, err);
+        try {
+            if (!cli.parse(args)) {
+                out.println(USAGE);
+                return 0;
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("huffman: " + e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        try {
+            return cli.execute();
+        } catch (IOException e) {
+            err.println("huffman: " + describe(e));
+            return 1;
+        }
+    }
+
+    /**
+     * Reads the command line into the settings of this instance.
+     *
+     * @param args The command line
+     * @return false if help was requested
+     * @throws IllegalArgumentException If the command line is invalid
+     */
+    private boolean parse(String[] args) {
+        for (int index = 0; index < args.length; index++) {
+            String arg = args[index];
+            if (!arg.startsWith("-") || arg.equals("-")) {
+                if (command == null) {
+                    command = arg;
+                } else {
+                    inputs.add(arg);
+                }
+                continue;
+            }
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    return false;
+                case "-o":
+                case "--output":
+                    outputDirectory = Paths.get(value(args, ++index, arg));
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = positive(value(args, ++index, arg), arg);
+                    break;
+                case "-t":
+                case "--threads":
+                    options.setParallelism(positive(value(args, ++index, arg), arg));
+                    break;
+                case "-b":
+                case "--block-size":
+                    options.setBlockSize(parseSize(value(args, ++index, arg), arg));
+                    break;
+                case "-c":
+                case "--context":
+                    options.setContextModeling(true);
+                    break;
+                case "-m":
+                case "--memory":
+                    options.setMemoryBudget(parseSize(value(args, ++index, arg), arg));
+                    break;
+                case "-d":
+                case "--dictionary":
+                    dictionaryPath = Paths.get(value(args, ++index, arg));
+                    break;
+                case "-n":
+                case "--iterations":
+                    iterations = positive(value(args, ++index, arg), arg);
+                    break;
+                case "-f":
+                case "--force":
+                    force = true;
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                case "-s":
+                case "--share-table":
+                    shareTable = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (command == null) {
+            return false;
+        }
+        if (!Arrays.asList("compress", "decompress", "verify", "bench", "archive", "list", "extract")
+                .contains(command)) {
+            throw new IllegalArgumentException("Unknown command " + command);
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException(isArchiveCommand() ? "No archive" : "No input files");
+        }
+        if (command.equals("archive") && inputs.size() < 2) {
+            throw new IllegalArgumentException("No input files");
+        }
+        if (command.equals("list") && inputs.size() > 1) {
+            throw new IllegalArgumentException("list takes one archive");
+        }
+        if (isArchiveCommand() && dictionaryPath != null) {
+            throw new IllegalArgumentException("Archives store their own shared table, --dictionary does not apply");
+        }
+        return true;
+    }
+
+    private boolean isArchiveCommand() {
+        return command.equals("archive") || command.equals("list") || command.equals("extract");
+    }
+
+    private int execute() throws IOException {
+        switch (command) {
+            case "archive":
+                return archive();
+            case "list":
+                return list();
+            case "extract":
+                return extract();
+            default:
+                break;
+        }
+        if (dictionaryPath != null) {
+            dictionary = HuffmanDictionary.fromByteArray(Files.readAllBytes(dictionaryPath));
+        }
+        compressor = new HuffmanCompressor(options);
+        boolean compressedInputs = command.equals("decompress") || command.equals("verify");
+        Predicate<Path> walkFilter = file -> file.getFileName().toString().endsWith(SUFFIX) == compressedInputs;
+        List<FileSelector.Selection> files = FileSelector.select(inputs, walkFilter);
+
+        Summary summary = command.equals("bench") ? bench(files) : processAll(files);
+        summary.print();
+        return summary.failures > 0 ? 1 : 0;
+    }
+
+    /**
+     * Compresses, decompresses or verifies files on {@code --jobs} threads.
+     *
+     * @param files The files
+     * @return The totals
+     * @throws IOException If the thread running the command is interrupted
+     */
+    private Summary processAll(List<FileSelector.Selection> files) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, Math.max(1, files.size())));
+        Summary summary = new Summary();
+        try {
+            List<Future<Result>> results = new ArrayList<>();
+            for (FileSelector.Selection selection : files) {
+                results.add(executor.submit(() -> process(selection)));
+            }
+            for (Future<Result> future : results) {
+                summary.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return summary;
+    }
+
+    /**
+     * Processes one file, catching its errors so that the other files go on.
+     *
+     * @param selection The file
+     * @return The outcome
+     */
+    private Result process(FileSelector.Selection selection) {
+        Path input = selection.getFile();
+        Result result = new Result(input);
+        try {
+            long start = System.nanoTime();
+            switch (command) {
+                case "compress":
+                    result.output = prepareOutput(selection, true);
+                    result.inputBytes = Files.size(input);
+                    result.outputBytes = compressor.compress(input, result.output, dictionary);
+                    result.uncompressedBytes = result.inputBytes;
+                    break;
+                case "decompress":
+                    result.output = prepareOutput(selection, false);
+                    result.inputBytes = Files.size(input);
+                    result.outputBytes = compressor.decompress(input, result.output, dictionary);
+                    result.uncompressedBytes = result.outputBytes;
+                    break;
+                default:
+                    result.inputBytes = Files.size(input);
+                    result.uncompressedBytes = verify(input);
+                    result.outputBytes = result.uncompressedBytes;
+                    break;
+            }
+            result.nanos = System.nanoTime() - start;
+        } catch (IOException e) {
+            result.error = describe(e);
+        } catch (RuntimeException e) {
+            result.error = e.toString();
+        }
+        return result;
+    }
+
+    /**
+     * Decodes a compressed file to its end, checking the checksum of every block.
+     *
+     * @param input The compressed file
+     * @return Number of bytes the file decompresses to
+     * @throws IOException If the file is corrupt or cannot be read
+     */
+    private long verify(Path input) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long total = 0;
+        try (InputStream in = new HuffmanInputStream(Files.newInputStream(input), options, dictionary)) {
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                total += read;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CorruptDataException("Malformed code table", e);
+        }
+        return total;
+    }
+
+    /**
+     * Compresses and decompresses every file, one at a time, into a temporary directory under the output
+     * directory or the system's temporary directory, and checks that the round trip is exact.
+     *
+     * @param files The files
+     * @return The totals, with the best compression and decompression time of every file
+     * @throws IOException If the temporary directory cannot be created
+     */
+    private Summary bench(List<FileSelector.Selection> files) throws IOException {
+        Path directory = outputDirectory != null
+                ? Files.createTempDirectory(Files.createDirectories(outputDirectory), "huffman-bench")
+                : Files.createTempDirectory("huffman-bench");
+        Summary summary = new Summary();
+        try {
+            for (FileSelector.Selection selection : files) {
+                Path input = selection.getFile();
+                Path compressed = directory.resolve("bench" + SUFFIX);
+                Path decompressed = directory.resolve("bench" + DECOMPRESSED_SUFFIX);
+                Result result = new Result(input);
+                try {
+                    result.inputBytes = Files.size(input);
+                    result.uncompressedBytes = result.inputBytes;
+                    result.nanos = Long.MAX_VALUE;
+                    result.decompressNanos = Long.MAX_VALUE;
+                    for (int iteration = 0; iteration < iterations; iteration++) {
+                        long start = System.nanoTime();
+                        result.outputBytes = compressor.compress(input, compressed, dictionary);
+                        long compressedAt = System.nanoTime();
+                        compressor.decompress(compressed, decompressed, dictionary);
+                        result.nanos = Math.min(result.nanos, compressedAt - start);
+                        result.decompressNanos = Math.min(result.decompressNanos, System.nanoTime() - compressedAt);
+                    }
+                    if (!sameContent(input, decompressed)) {
+                        result.error = "Decompressed data differs from the input";
+                    }
+                } catch (IOException e) {
+                    result.error = describe(e);
+                } finally {
+                    Files.deleteIfExists(compressed);
+                    Files.deleteIfExists(decompressed);
+                }
+                summary.add(result);
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+        return summary;
+    }
+
+    /**
+     * Packs the selected files into an archive, named by their paths relative to the argument they were found
+     * through.
+     *
+     * @return The exit status
+     * @throws IOException If a file cannot be read, two files have the same name or the archive cannot be written
+     */
+    private int archive() throws IOException {
+        Path archive = Paths.get(inputs.get(0));
+        if (Files.exists(archive) && !force) {
+            throw new FileAlreadyExistsException(archive.toString(), null, "Output exists, use --force to replace it");
+        }
+        Path archiveKey = archive.toAbsolutePath().normalize();
+        Map<String, Path> entries = new LinkedHashMap<>();
+        for (FileSelector.Selection selection : FileSelector.select(inputs.subList(1, inputs.size()), file -> true)) {
+            if (selection.getFile().toAbsolutePath().normalize().equals(archiveKey)) {
+                continue;
+            }
+            StringBuilder name = new StringBuilder();
+            for (Path part : selection.getRelativePath()) {
+                name.append(name.length() > 0 ? "/" : "").append(part);
+            }
+            if (entries.putIfAbsent(name.toString(), selection.getFile()) != null) {
+                throw new FileAlreadyExistsException(selection.getFile().toString(), null,
+                        "Duplicate entry name " + name);
+            }
+        }
+
+        long start = System.nanoTime();
+        ArchiveDirectory directory;
+        try {
+            directory = HuffmanArchive.create(archive, entries, options, shareTable);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        long nanos = System.nanoTime() - start;
+        long originalBytes = 0;
+        for (ArchiveEntry entry : directory.getEntries()) {
+            originalBytes += entry.getOriginalSize();
+            if (!quiet) {
+                out.printf("%s: %d -> %d bytes (%.1f%%)%n", entry.getName(), entry.getOriginalSize(),
+                        entry.getCompressedSize(), percent(entry.getCompressedSize(), entry.getOriginalSize()));
+            }
+        }
+        long archiveBytes = Files.size(archive);
+        out.printf("%d %s archived to %s, %d -> %d bytes (%.1f%%) in %.2f s, %.1f MB/s%n", entries.size(),
+                entries.size() == 1 ? "entry" : "entries", archive, originalBytes, archiveBytes,
+                percent(archiveBytes, originalBytes), nanos / 1e9, megabytesPerSecond(originalBytes, nanos));
+        return 0;
+    }
+
+    /**
+     * Prints the directory of an archive.
+     *
+     * @return The exit status
+     * @throws IOException If the archive cannot be read
+     */
+    private int list() throws IOException {
+        try (HuffmanArchive archive = new HuffmanArchive(Paths.get(inputs.get(0)), options)) {
+            long originalBytes = 0;
+            long compressedBytes = 0;
+            out.printf("%14s %14s %7s  %-6s  %s%n", "Original", "Compressed", "Ratio", "Table", "Name");
+            for (ArchiveEntry entry : archive.getEntries()) {
+                originalBytes += entry.getOriginalSize();
+                compressedBytes += entry.getCompressedSize();
+                out.printf("%14d %14d %6.1f%%  %-6s  %s%n", entry.getOriginalSize(), entry.getCompressedSize(),
+                        percent(entry.getCompressedSize(), entry.getOriginalSize()),
+                        entry.getTableReference() == ArchiveEntry.SHARED_TABLE ? "shared" : "own", entry.getName());
+            }
+            int count = archive.getEntries().size();
+            out.printf("%d %s, %d -> %d bytes (%.1f%%)%n", count, count == 1 ? "entry" : "entries", originalBytes,
+                    compressedBytes, percent(compressedBytes, originalBytes));
+        }
+        return 0;
+    }
+
+    /**
+     * Extracts the named entries of an archive, or all of them in parallel, under the output directory.
+     *
+     * @return The exit status
+     * @throws IOException If an entry does not exist or is corrupt, or an output cannot be written
+     */
+    private int extract() throws IOException {
+        Path root = outputDirectory != null ? outputDirectory : Paths.get("");
+        Path rootKey = root.toAbsolutePath().normalize();
+        try (HuffmanArchive archive = new HuffmanArchive(Paths.get(inputs.get(0)), options)) {
+            List<ArchiveEntry> entries = new ArrayList<>();
+            if (inputs.size() == 1) {
+                entries.addAll(archive.getEntries());
+            }
+            for (String name : inputs.subList(1, inputs.size())) {
+                ArchiveEntry entry = archive.getEntry(name);
+                if (entry == null) {
+                    throw new NoSuchFileException(name, null, "No such entry");
+                }
+                entries.add(entry);
+            }
+            List<Path> targets = new ArrayList<>();
+            for (ArchiveEntry entry : entries) {
+                Path target = root.resolve(entry.getName());
+                if (!target.toAbsolutePath().normalize().startsWith(rootKey)) {
+                    throw new IOException("Entry name leads outside the output directory: " + entry.getName());
+                }
+                if (Files.exists(target) && !force) {
+                    throw new FileAlreadyExistsException(target.toString(), null,
+                            "Output exists, use --force to replace it");
+                }
+                targets.add(target);
+            }
+
+            long start = System.nanoTime();
+            long totalBytes = 0;
+            if (inputs.size() == 1) {
+                totalBytes = archive.extractAll(root);
+            } else {
+                for (int index = 0; index < entries.size(); index++) {
+                    Path target = targets.get(index);
+                    if (target.getParent() != null) {
+                        Files.createDirectories(target.getParent());
+                    }
+                    totalBytes += archive.extract(entries.get(index), target);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            if (!quiet) {
+                for (int index = 0; index < entries.size(); index++) {
+                    out.printf("%s -> %s: %d bytes%n", entries.get(index).getName(), targets.get(index),
+                            entries.get(index).getOriginalSize());
+                }
+            }
+            out.printf("%d %s extracted, %d bytes in %.2f s, %.1f MB/s%n", entries.size(),
+                    entries.size() == 1 ? "entry" : "entries", totalBytes, nanos / 1e9,
+                    megabytesPerSecond(totalBytes, nanos));
+        }
+        return 0;
+    }
+
+    /**
+     * Works out where a file is written and makes sure it can be.
+     *
+     * @param selection The input file
+     * @param compressing true for a compressed output, false for a decompressed one
+     * @return The output path, with its parent directories created
+     * @throws FileAlreadyExistsException If the output exists and {@code --force} is not set, or it is the input
+     * @throws IOException If the parent directories cannot be created
+     */
+    private Path prepareOutput(FileSelector.Selection selection, boolean compressing) throws IOException {
+        Path base = outputDirectory != null ? outputDirectory.resolve(selection.getRelativePath()) : selection.getFile();
+        String name = base.getFileName().toString();
+        if (compressing) {
+            name += SUFFIX;
+        } else if (name.endsWith(SUFFIX) && name.length() > SUFFIX.length()) {
+            name = name.substring(0, name.length() - SUFFIX.length());
+        } else {
+            name += DECOMPRESSED_SUFFIX;
+        }
+        Path output = base.resolveSibling(name);
+        if (Files.exists(output) && (!force || Files.isSameFile(output, selection.getFile()))) {
+            throw new FileAlreadyExistsException(output.toString(), null, "Output exists, use --force to replace it");
+        }
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        return output;
+    }
+
+    private static boolean sameContent(Path first, Path second) throws IOException {
+        if (Files.size(first) != Files.size(second)) {
+            return false;
+        }
+        byte[] firstBuffer = new byte[1 << 16];
+        byte[] secondBuffer = new byte[1 << 16];
+        try (InputStream firstIn = Files.newInputStream(first); InputStream secondIn = Files.newInputStream(second)) {
+            int read;
+            while ((read = firstIn.read(firstBuffer)) > 0) {
+                int offset = 0;
+                while (offset < read) {
+                    int count = secondIn.read(secondBuffer, offset, read - offset);
+                    if (count < 0) {
+                        return false;
+                    }
+                    offset += count;
+                }
+                for (int index = 0; index < read; index++) {
+                    if (firstBuffer[index] != secondBuffer[index]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int positive(String value, String option) {
+        int number = parseSize(value, option);
+        if (number <= 0) {
+            throw new IllegalArgumentException(option + " must be at least 1");
+        }
+        return number;
+    }
+
+    /**
+     * Parses a number with an optional {@code K} or {@code M} suffix for kilobytes or megabytes.
+     *
+     * @param value The text
+     * @param option The option it belongs to, for the error message
+     * @return The number
+     * @throws IllegalArgumentException If the text is not a number that fits an int
+     */
+    private static int parseSize(String value, String option) {
+        String digits = value;
+        int shift = 0;
+        if (value.endsWith("K") || value.endsWith("k")) {
+            shift = 10;
+        } else if (value.endsWith("M") || value.endsWith("m")) {
+            shift = 20;
+        }
+        if (shift > 0) {
+            digits = value.substring(0, value.length() - 1);
+        }
+        try {
+            long number = Long.parseLong(digits) << shift;
+            if (number > Integer.MAX_VALUE) {
+                throw new NumberFormatException();
+            }
+            return (int) number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+    }
+
+    private static String describe(IOException error) {
+        if (error instanceof FileSystemException && !(error instanceof AccessDeniedException)) {
+            FileSystemException fileError = (FileSystemException) error;
+            String reason = fileError.getReason() != null ? fileError.getReason()
+                    : error instanceof NoSuchFileException ? "File not found" : error.getClass().getSimpleName();
+            return reason + ": " + fileError.getFile();
+        }
+        return error.getMessage() != null ? error.getMessage() : error.toString();
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos > 0 ? bytes / MEGABYTE / (nanos / 1e9) : 0;
+    }
+
+    private static double percent(long part, long whole) {
+        return whole > 0 ? 100.0 * part / whole : 0;
+    }
+
+    /**
+     * The outcome of one file.
+     */
+    private static class Result {
+
+        private final Path input;
+        private Path output;
+        private long inputBytes;
+        private long outputBytes;
+        // Bytes of original data, which throughput is measured in
+        private long uncompressedBytes;
+        private long nanos;
+        private long decompressNanos;
+        private String error;
+
+        Result(Path input) {
+            this.input = input;
+        }
+    }
+
+    /**
+     * Prints a line per file and adds up the totals.
+     */
+    private class Summary {
+
+        private final long startNanos = System.nanoTime();
+        private int files;
+        private int failures;
+        private long inputBytes;
+        private long outputBytes;
+        private long uncompressedBytes;
+        private long nanos;
+        private long decompressNanos;
+
+        void add(Result result) {
+            if (result.error != null) {
+                failures++;
+                err.println(result.input + ": FAILED: " + result.error);
+                return;
+            }
+            files++;
+            inputBytes += result.inputBytes;
+            outputBytes += result.outputBytes;
+            uncompressedBytes += result.uncompressedBytes;
+            nanos += result.nanos;
+            decompressNanos += result.decompressNanos;
+            if (quiet) {
+                return;
+            }
+            if (command.equals("verify")) {
+                out.printf("%s: OK, %d bytes, %.1f MB/s%n", result.input, result.uncompressedBytes,
+                        megabytesPerSecond(result.uncompressedBytes, result.nanos));
+            } else if (command.equals("bench")) {
+                out.printf("%s: %d -> %d bytes (%.1f%%), compress %.1f MB/s, decompress %.1f MB/s%n", result.input,
+                        result.inputBytes, result.outputBytes, percent(result.outputBytes, result.inputBytes),
+                        megabytesPerSecond(result.uncompressedBytes, result.nanos),
+                        megabytesPerSecond(result.uncompressedBytes, result.decompressNanos));
+            } else {
+                out.printf("%s -> %s: %d -> %d bytes (%.1f%%), %.1f MB/s%n", result.input, result.output,
+                        result.inputBytes, result.outputBytes, percent(result.outputBytes, result.inputBytes),
+                        megabytesPerSecond(result.uncompressedBytes, result.nanos));
+            }
+        }
+
+        void print() {
+            long wallNanos = System.nanoTime() - startNanos;
+            String failed = failures > 0 ? ", " + failures + " failed" : "";
+            if (command.equals("verify")) {
+                out.printf("%d %s verified, %d bytes in %.2f s, %.1f MB/s%s%n", files, noun(), uncompressedBytes,
+                        wallNanos / 1e9, megabytesPerSecond(uncompressedBytes, wallNanos), failed);
+            } else if (command.equals("bench")) {
+                out.printf("%d %s, %d -> %d bytes (%.1f%%), compress %.1f MB/s, decompress %.1f MB/s%s%n",
+                        files, noun(), inputBytes, outputBytes, percent(outputBytes, inputBytes),
+                        megabytesPerSecond(uncompressedBytes, nanos),
+                        megabytesPerSecond(uncompressedBytes, decompressNanos), failed);
+            } else {
+                out.printf("%d %s %s, %d -> %d bytes (%.1f%%) in %.2f s, %.1f MB/s%s%n", files, noun(), command + "ed",
+                        inputBytes, outputBytes, percent(outputBytes, inputBytes), wallNanos / 1e9,
+                        megabytesPerSecond(uncompressedBytes, wallNanos), failed);
+            }
+        }
+
+        private String noun() {
+            return files == 1 ? "file" : "files";
+        }
+    }
+}
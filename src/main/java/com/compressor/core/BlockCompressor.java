@@ -0,0 +1,1211 @@
+package com.compressor.core;
+
+import com.compressor.io.BitOutputStream;
+import com.compressor.io.BlockHeader;
+import com.compressor.io.BlockIndex;
+import com.compressor.io.ContainerHeader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * Compresses a file as a sequence of independently coded blocks on a {@link ForkJoinPool}.
+ * <p>
+ * Block histograms are counted in parallel and merged into a shared table. Every block then uses
+ * the shared table, the table of the last block that stored its own, a new table of its own or,
+ * when context modeling is on, order-1 context tables of its own, whichever gives the smallest block
+ * including its header. Blocks are encoded
+ * concurrently in waves and written in order, followed by a {@link BlockIndex}.
+ * <p>
+ * A block of one repeated byte value is written as a run, and a block that no choice makes smaller by
+ * 1/64 of its length is stored as is, so incompressible input grows only by its framing.
+ * When the entropy of a block's histogram already rules out that gain, as for JPEG or gzip data, the block
+ * builds no table, stays out of the shared table and is copied instead of encoded.
+ * <p>
+ * With a memory budget set in the options, the file is instead read once, a window of blocks at a time, into
+ * buffers allocated up front, and blocks do not share a table built from the whole file; see
+ * {@link CompressionOptions#setMemoryBudget(long)}.
+ * <p>
+ * A call that has a single worker, because the file fits in one block or the parallelism is 1, starts no pool:
+ * it codes its blocks on the calling thread.
+ * <p>
+ * Interrupting the calling thread stops compression: blocks that have not started are skipped, the ones in
+ * progress are finished, and the call throws an {@link InterruptedIOException}.
+ */
+public class BlockCompressor {
+
+    // Bytes of framing per block: block header without table plus its index entry
+    private static final int FRAME_OVERHEAD = 32;
+
+    // A coded block must save 1/STORED_MARGIN of its length over storing it: a smaller gain is not worth
+    // the decoding time
+    private static final int STORED_MARGIN = 64;
+
+    // Shorter blocks are coded as a single stream: sub-stream lengths and padding would outweigh the gain
+    private static final int MIN_INTERLEAVED_LENGTH = 1024;
+
+    // Memory a worker needs besides its block buffers: tables, decoders and the scratch arrays of context modeling
+    private static final int WORKER_MEMORY = 1 << 20;
+
+    // Blocks of at least 2 * SAMPLE_STRIDE sample chunks are first checked for storing on one chunk in SAMPLE_STRIDE
+    private static final int SAMPLE_STRIDE = 16;
+
+    private CompressionOptions options;
+    private int jobSlots;
+    private ThreadLocal<byte[]> readBuffers = new ThreadLocal<>();
+
+    /**
+     * Creates a new block compressor.
+     * 
+     * @param options The compression settings
+     */
+    public BlockCompressor(CompressionOptions options) {
+        this(options, 1);
+    }
+
+    /**
+     * Creates a block compressor for jobs that run alongside others and share the parallelism of the options
+     * with them, as those of a {@link CompressionService}.
+     * 
+     * @param options The compression settings
+     * @param jobSlots Number of jobs that may run at once, at least 1
+     */
+    BlockCompressor(CompressionOptions options, int jobSlots) {
+        this.options = options;
+        this.jobSlots = jobSlots;
+    }
+
+    /**
+     * Compresses the whole input file into the output stream.
+     * 
+     * @param input The file to compress
+     * @param output The stream that receives the container, at its start
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If an I/O error occurs
+     */
+    public void compress(FileChannel input, BitOutputStream output) throws IOException {
+        compress(input, output, null);
+    }
+
+    /**
+     * Compresses the whole input file into the output stream, using a dictionary's table as the shared table.
+     * The container stores the dictionary's ID instead of the table.
+     * 
+     * @param input The file to compress
+     * @param output The stream that receives the container, at its start
+     * @param dictionary The dictionary, or null to build and store a shared table
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If an I/O error occurs
+     */
+    public void compress(FileChannel input, BitOutputStream output, HuffmanDictionary dictionary) throws IOException {
+        try {
+            if (options.getMemoryBudget() > 0) {
+                compressBounded(input, output, dictionary);
+            } else {
+                compressBlocks(input, output, dictionary);
+            }
+        } catch (ClosedByInterruptException e) {
+            throw interrupted(e);
+        }
+    }
+
+    /**
+     * Compresses a file in two passes, with a shared table built from the histograms of all blocks.
+     * 
+     * @param input The file to compress
+     * @param output The stream that receives the container, at its start
+     * @param dictionary The dictionary, or null to build and store a shared table
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If an I/O error occurs
+     */
+    private void compressBlocks(FileChannel input, BitOutputStream output, HuffmanDictionary dictionary)
+            throws IOException {
+        long startNanos = options.getListener() != null ? System.nanoTime() : 0;
+        long startPosition = output.getPosition();
+        long size = input.size();
+        int blockSize = (int) Math.min(options.getBlockSize(), Math.max(1, size));
+        int blockCount = (int) ((size + blockSize - 1) / blockSize);
+
+        ForkJoinPool pool = newPool(Math.min(workers(options, jobSlots), blockCount));
+        try {
+            // First pass: block histograms
+            long[][] histograms = new long[blockCount][];
+            CodeTable[] ownTables = new CodeTable[blockCount];
+            countBlocks(pool, input, size, blockSize, histograms, ownTables);
+
+            // Runs and incompressible blocks are left out of the shared table
+            long[] total = new long[CanonicalCode.ALPHABET_SIZE];
+            long codedBytes = 0;
+            long uncodedBytes = 0;
+            for (int block = 0; block < blockCount; block++) {
+                if (ownTables[block] == null) {
+                    uncodedBytes += isRun(histograms[block]) ? 1 : blockLength(size, blockSize, block);
+                    continue;
+                }
+                codedBytes += blockLength(size, blockSize, block);
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += histograms[block][i];
+                }
+            }
+            CodeTable sharedTable = dictionary != null ? dictionary.getTable()
+                    : codedBytes > 0 ? CodeTableCache.table(options, total) : null;
+            int sharedTableSize = dictionary != null || sharedTable == null ? 0 : sharedTable.serializedSize();
+
+            // Merge neighbouring blocks while framing costs more than the accepted margin
+            long singleBlockBytes = sharedTableSize + uncodedBytes + FRAME_OVERHEAD
+                    + (sharedTable != null ? (sharedTable.encodedBits(total) + 7) / 8 : 0);
+            while (blockCount > 1 && blockSize <= CompressionOptions.MAX_BLOCK_SIZE / 2
+                    && estimateSize(histograms, ownTables, sharedTable, sharedTableSize, size, blockSize)
+                            > singleBlockBytes * (1 + options.getMaxRatioLoss())) {
+                blockSize *= 2;
+                blockCount = (blockCount + 1) / 2;
+                long[][] merged = new long[blockCount][];
+                for (int block = 0; block < blockCount; block++) {
+                    merged[block] = histograms[2 * block].clone();
+                    if (2 * block + 1 < histograms.length) {
+                        for (int i = 0; i < CanonicalCode.ALPHABET_SIZE; i++) {
+                            merged[block][i] += histograms[2 * block + 1][i];
+                        }
+                    }
+                }
+                histograms = merged;
+                ownTables = new CodeTable[blockCount];
+                for (int block = 0; block < blockCount; block++) {
+                    ownTables[block] = ownTable(histograms[block], blockLength(size, blockSize, block));
+                }
+            }
+
+            // Context models are built for the final block layout, in a pass of their own
+            int finalBlockSize = blockSize;
+            ContextModel[] models = new ContextModel[blockCount];
+            if (options.isContextModeling()) {
+                invoke(pool, (from, to) -> new ContextTask(input, size, finalBlockSize, models, from, to),
+                        0, blockCount);
+            }
+
+            // Pick the cheapest table for every block: the shared table, the table of the last block
+            // that stored its own, a new table of its own or context tables, counting the header bytes
+            // each choice costs. Runs, and blocks that no table makes small enough, are not coded.
+            CodeTable[] tables = new CodeTable[blockCount];
+            int[] types = new int[blockCount];
+            int[] tableDistances = new int[blockCount];
+            long[] bitLengths = new long[blockCount];
+            int tableBlock = -1;
+            for (int block = 0; block < blockCount; block++) {
+                int length = blockLength(size, blockSize, block);
+                long sharedBits = sharedTable != null ? sharedTable.encodedBits(histograms[block]) : -1;
+                long ownBits = ownTables[block] != null ? ownTables[block].encodedBits(histograms[block]) : -1;
+                long previousBits = tableBlock >= 0 ? tables[tableBlock].encodedBits(histograms[block]) : -1;
+                long previousCost = previousBits + 8L * ContainerHeader.varLongSize(block - tableBlock);
+                long ownCost = ownBits >= 0 ? ownBits + 8L * ownTables[block].serializedSize() : Long.MAX_VALUE;
+                long contextCost = models[block] != null
+                        ? models[block].getEncodedBits() + 8L * models[block].serializedSize() : Long.MAX_VALUE;
+
+                types[block] = BlockHeader.TYPE_STORED;
+                bitLengths[block] = 8L * length;
+                long cost = Long.MAX_VALUE;
+                if (sharedBits >= 0) {
+                    types[block] = BlockHeader.TYPE_SHARED_TABLE;
+                    tables[block] = sharedTable;
+                    bitLengths[block] = sharedBits;
+                    cost = sharedBits;
+                }
+                if (previousBits >= 0 && previousCost < cost) {
+                    types[block] = BlockHeader.TYPE_PREVIOUS_TABLE;
+                    tables[block] = tables[tableBlock];
+                    tableDistances[block] = block - tableBlock;
+                    bitLengths[block] = previousBits;
+                    cost = previousCost;
+                }
+                if (contextCost < Math.min(cost, ownCost)) {
+                    types[block] = BlockHeader.TYPE_CONTEXT_TABLES;
+                    tableDistances[block] = 0;
+                    bitLengths[block] = models[block].getEncodedBits();
+                    cost = contextCost;
+                } else if (ownCost < cost) {
+                    types[block] = BlockHeader.TYPE_OWN_TABLE;
+                    tables[block] = ownTables[block];
+                    tableDistances[block] = 0;
+                    bitLengths[block] = ownBits;
+                    cost = ownCost;
+                }
+                if (isRun(histograms[block]) || cost > maxCodedBits(length)) {
+                    types[block] = isRun(histograms[block]) ? BlockHeader.TYPE_RUN : BlockHeader.TYPE_STORED;
+                    tables[block] = null;
+                    tableDistances[block] = 0;
+                    bitLengths[block] = types[block] == BlockHeader.TYPE_RUN ? 8 : 8L * length;
+                } else if (types[block] == BlockHeader.TYPE_OWN_TABLE) {
+                    tableBlock = block;
+                }
+                if (types[block] != BlockHeader.TYPE_CONTEXT_TABLES) {
+                    models[block] = null;
+                }
+            }
+
+            CompressionListener listener = options.getListener();
+            if (dictionary != null) {
+                new ContainerHeader(size, blockSize, null, dictionary.getId()).write(output);
+            } else if (sharedTable == null) {
+                new ContainerHeader(size, blockSize, null).write(output);
+            } else {
+                new ContainerHeader(size, blockSize, sharedTable.getLengths()).write(output);
+                if (listener != null) {
+                    listener.tableStored(sharedTableSize);
+                }
+            }
+
+            // Second pass: encode waves of blocks in parallel, writing each wave while the next one is encoded
+            int waveSize = 2 * workers(options, jobSlots);
+            EncodedBlock[] encoded = new EncodedBlock[blockCount];
+            BlockIndex index = new BlockIndex();
+            RangeTasks encodeTasks = (from, to) -> new EncodeTask(input, size, finalBlockSize, types, tables, models,
+                    bitLengths, encoded, from, to);
+            ForkJoinTask<?> pending = pool != null
+                    ? pool.submit(encodeTasks.create(0, Math.min(waveSize, blockCount))) : null;
+            for (int waveStart = 0; waveStart < blockCount; waveStart += waveSize) {
+                int waveEnd = Math.min(waveStart + waveSize, blockCount);
+                if (pool == null) {
+                    invoke(null, encodeTasks, waveStart, waveEnd);
+                } else {
+                    join(pool, pending);
+                    if (waveEnd < blockCount) {
+                        pending = pool.submit(encodeTasks.create(waveEnd, Math.min(waveEnd + waveSize, blockCount)));
+                    }
+                }
+                for (int block = waveStart; block < waveEnd; block++) {
+                    int length = blockLength(size, blockSize, block);
+                    long start = listener != null ? System.nanoTime() : 0;
+                    long frameStart = output.getPosition();
+                    index.add(frameStart, bitLengths[block], length);
+                    EncodedBlock frame = encoded[block];
+                    if (models[block] != null) {
+                        new BlockHeader(length, frame.payloadLength, frame.checksum, models[block].getContextGroups(),
+                                models[block].getGroupCodeLengths(), frame.streamLengths).write(output);
+                    } else {
+                        new BlockHeader(types[block], length, frame.payloadLength, frame.checksum,
+                                tables[block] != null ? tables[block].getLengths() : null, tableDistances[block],
+                                frame.streamLengths).write(output);
+                    }
+                    output.writeBytes(frame.payload, 0, frame.payloadLength);
+                    encoded[block] = null;
+                    if (listener != null) {
+                        listener.phaseCompleted(CompressionListener.Phase.WRITE, System.nanoTime() - start,
+                                output.getPosition() - frameStart);
+                        if (types[block] == BlockHeader.TYPE_OWN_TABLE) {
+                            listener.tableStored(tables[block].serializedSize());
+                        } else if (models[block] != null) {
+                            listener.tableStored(models[block].serializedSize());
+                        }
+                    }
+                }
+            }
+            index.write(output);
+            if (listener != null) {
+                listener.compressed(size, output.getPosition() - startPosition, System.nanoTime() - startNanos);
+            }
+        } finally {
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Counts the histogram and builds the own table of every block of a file.
+     *
+     * @param pool The pool of the call, or null to run on the calling thread
+     * @param input The file to compress
+     * @param size Size of the file
+     * @param blockSize Uncompressed size of every block except the last
+     * @param histograms Receives the histogram of every block
+     * @param ownTables Receives the own table of every block, null for blocks that are not coded with one
+     * @throws IOException If an I/O error occurs or the calling thread is interrupted
+     */
+    private void countBlocks(ForkJoinPool pool, FileChannel input, long size, int blockSize, long[][] histograms,
+                             CodeTable[] ownTables) throws IOException {
+        invoke(pool, (from, to) -> new HistogramTask(input, size, blockSize, histograms, ownTables, from, to),
+                0, histograms.length);
+    }
+
+    /**
+     * Compresses a file in a single pass within the memory budget. Windows of consecutive blocks are read into a
+     * fixed set of slots, counted and coded in parallel and written in order. Every block is coded with its own
+     * table, the table of the last block that stored one, the dictionary's table or context tables, unless it is
+     * stored or written as a run.
+     *
+     * @param input The file to compress
+     * @param output The stream that receives the container, at its start
+     * @param dictionary The dictionary, or null if there is none
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If an I/O error occurs
+     */
+    private void compressBounded(FileChannel input, BitOutputStream output, HuffmanDictionary dictionary)
+            throws IOException {
+        CompressionListener listener = options.getListener();
+        long startNanos = listener != null ? System.nanoTime() : 0;
+        long startPosition = output.getPosition();
+        long size = input.size();
+
+        long available = options.getMemoryBudget() - BitOutputStream.BLOCK_SIZE;
+        int blockSize = blockSize(options, size);
+        int blockCount = (int) ((size + blockSize - 1) / blockSize);
+        int slots = (int) Math.max(1, Math.min(Math.min(workers(options, jobSlots), blockCount),
+                available / workerMemory(blockSize, frameCapacity(blockSize))));
+
+        Window window = new Window(input, size, blockSize, slots);
+        CodeTable sharedTable = dictionary != null ? dictionary.getTable() : null;
+        CodeTable previousTable = null;
+        int previousBlock = -1;
+        BlockIndex index = new BlockIndex();
+        new ContainerHeader(size, blockSize, null, dictionary != null ? dictionary.getId() : -1).write(output);
+
+        ForkJoinPool pool = newPool(slots);
+        try {
+            for (int first = 0; first < blockCount; first += slots) {
+                window.firstBlock = first;
+                window.blockCount = Math.min(slots, blockCount - first);
+                invoke(pool, (from, to) -> new WindowTask(window, false, from, to), 0, window.blockCount);
+
+                // Pick the table of every block in order, as the previous table carries over between windows
+                for (int slot = 0; slot < window.blockCount; slot++) {
+                    int block = first + slot;
+                    int length = window.lengths[slot];
+                    long[] histogram = window.histograms[slot];
+                    boolean sampled = window.stored[slot];
+                    CodeTable table = window.ownTables[slot];
+                    long bits = table != null ? table.encodedBits(histogram) : 8L * length;
+                    long cost = table != null ? bits + 8L * table.serializedSize() : Long.MAX_VALUE;
+                    int type = table != null ? BlockHeader.TYPE_OWN_TABLE : BlockHeader.TYPE_STORED;
+                    int tableDistance = 0;
+
+                    // The histogram of a block stored on its sample is only an estimate: it prices no table
+                    long previousBits = previousTable != null && !sampled ? previousTable.encodedBits(histogram) : -1;
+                    long previousCost = previousBits + 8L * ContainerHeader.varLongSize(block - previousBlock);
+                    if (previousBits >= 0 && previousCost <= cost) {
+                        type = BlockHeader.TYPE_PREVIOUS_TABLE;
+                        tableDistance = block - previousBlock;
+                        table = previousTable;
+                        bits = previousBits;
+                        cost = previousCost;
+                    }
+                    long sharedBits = sharedTable != null && !sampled ? sharedTable.encodedBits(histogram) : -1;
+                    if (sharedBits >= 0 && sharedBits <= cost) {
+                        type = BlockHeader.TYPE_SHARED_TABLE;
+                        tableDistance = 0;
+                        table = sharedTable;
+                        bits = sharedBits;
+                        cost = sharedBits;
+                    }
+                    ContextModel model = window.models[slot];
+                    if (model != null && model.getEncodedBits() + 8L * model.serializedSize() < cost) {
+                        type = BlockHeader.TYPE_CONTEXT_TABLES;
+                        bits = model.getEncodedBits();
+                        cost = model.getEncodedBits() + 8L * model.serializedSize();
+                    } else {
+                        window.models[slot] = null;
+                    }
+                    if (isRun(histogram) || cost > maxCodedBits(length)) {
+                        type = isRun(histogram) ? BlockHeader.TYPE_RUN : BlockHeader.TYPE_STORED;
+                        tableDistance = 0;
+                        table = null;
+                        window.models[slot] = null;
+                        bits = type == BlockHeader.TYPE_RUN ? 8 : 8L * length;
+                    } else if (type == BlockHeader.TYPE_OWN_TABLE) {
+                        previousTable = table;
+                        previousBlock = block;
+                    }
+                    window.types[slot] = type;
+                    window.tables[slot] = table;
+                    window.tableDistances[slot] = tableDistance;
+                    window.bitLengths[slot] = bits;
+                }
+
+                invoke(pool, (from, to) -> new WindowTask(window, true, from, to), 0, window.blockCount);
+                for (int slot = 0; slot < window.blockCount; slot++) {
+                    window.write(slot, output, index);
+                }
+            }
+        } finally {
+            shutdown(pool);
+        }
+        index.write(output);
+        if (listener != null) {
+            listener.compressed(size, output.getPosition() - startPosition, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Returns the size of the blocks to write for an input: the block size of the options, no larger than the input,
+     * and with a memory budget halved until one block can be coded, and decoded from a stream, within the budget.
+     *
+     * @param options The compression options
+     * @param size Number of bytes in the input, or {@link Long#MAX_VALUE} if it is not known
+     * @return The block size in bytes
+     */
+    static int blockSize(CompressionOptions options, long size) {
+        int blockSize = (int) Math.min(options.getBlockSize(), Math.max(1, size));
+        if (options.getMemoryBudget() > 0) {
+            long available = options.getMemoryBudget() - BitOutputStream.BLOCK_SIZE;
+            while (blockSize > 1 && workerMemory(blockSize, frameCapacity(blockSize)) > available) {
+                blockSize = (blockSize + 1) / 2;
+            }
+        }
+        return blockSize;
+    }
+
+    /**
+     * Returns the memory one worker needs to code or decode a block: the block itself, its frame and the copy of
+     * the payload that the sub-stream readers work on, plus tables and scratch arrays.
+     *
+     * @param blockLength Number of bytes in the block
+     * @param frameLength Number of bytes in the block frame
+     * @return The memory in bytes
+     */
+    static long workerMemory(int blockLength, long frameLength) {
+        return blockLength + 2 * frameLength + WORKER_MEMORY;
+    }
+
+    /**
+     * Returns the largest frame a block can take now that blocks that would grow are stored.
+     *
+     * @param blockLength Number of bytes in the block
+     * @return The frame length in bytes
+     */
+    static long frameCapacity(int blockLength) {
+        return (long) blockLength + BlockHeader.MAX_CONTEXT_HEADER_SIZE;
+    }
+
+    /**
+     * Estimates the container size for the current block layout.
+     * 
+     * @param histograms Histogram of every block
+     * @param ownTables Own table of every block
+     * @param sharedTable The shared table
+     * @param sharedTableSize Bytes the shared table takes in the container header
+     * @return The estimated size in bytes
+     */
+    private static long estimateSize(long[][] histograms, CodeTable[] ownTables, CodeTable sharedTable,
+                                     int sharedTableSize, long size, int blockSize) {
+        long bytes = sharedTableSize;
+        for (int block = 0; block < histograms.length; block++) {
+            long blockBytes = isRun(histograms[block]) ? 1 : blockLength(size, blockSize, block);
+            if (ownTables[block] != null) {
+                blockBytes = Math.min(blockBytes, ownTables[block].serializedSize()
+                        + (ownTables[block].encodedBits(histograms[block]) + 7) / 8);
+            }
+            long sharedBits = sharedTable != null ? sharedTable.encodedBits(histograms[block]) : -1;
+            if (sharedBits >= 0) {
+                blockBytes = Math.min(blockBytes, (sharedBits + 7) / 8);
+            }
+            bytes += blockBytes + FRAME_OVERHEAD;
+        }
+        return bytes;
+    }
+
+    /**
+     * Builds the own table of a block, unless the block is a run or cannot be coded in
+     * {@link #maxCodedBits(int)} by any single table.
+     * 
+     * @param histogram Histogram of the block
+     * @param length Number of bytes in the block
+     * @return The table, or null if the block is not Huffman coded with a table of its own
+     */
+    private CodeTable ownTable(long[] histogram, int length) {
+        if (isRun(histogram) || Histogram.entropyBits(histogram) > maxCodedBits(length)) {
+            return null;
+        }
+        return CodeTableCache.table(options, histogram);
+    }
+
+    /**
+     * Returns the largest coded size, tables included, at which a block is still coded instead of stored.
+     * 
+     * @param length Number of bytes in the block
+     * @return The size in bits
+     */
+    static long maxCodedBits(int length) {
+        return 8L * (length - length / STORED_MARGIN);
+    }
+
+    /**
+     * Tells from a sample of a block whether it is to be stored, so that incompressible blocks are not counted
+     * in full. The sample's entropy is checked against {@link #maxCodedBits(int)}; it tends to underestimate
+     * the block's, so compressible blocks are not stored by mistake. Context models can code below the
+     * order-0 entropy, so blocks are not sampled when they may be used, nor when they are short.
+     *
+     * @param options The compression options
+     * @param data Array holding the block
+     * @param offset Offset of the block in the array
+     * @param length Number of bytes in the block
+     * @param histogram Cleared array of 256 counters that receives the estimate, which must not be used to
+     * code the block
+     * @return true if the block is stored
+     */
+    static boolean isStoredBySample(CompressionOptions options, byte[] data, int offset, int length,
+            long[] histogram) {
+        if (options.isContextModeling() || length < 2L * SAMPLE_STRIDE * Histogram.SAMPLE_CHUNK) {
+            return false;
+        }
+        Histogram.sample(data, offset, length, SAMPLE_STRIDE, histogram);
+        return Histogram.entropyBits(histogram) > maxCodedBits(length);
+    }
+
+    /**
+     * Tells whether a block is made of one byte value repeated.
+     * 
+     * @param histogram Histogram of the block
+     * @return true if exactly one byte value occurs
+     */
+    static boolean isRun(long[] histogram) {
+        int symbols = 0;
+        for (long count : histogram) {
+            if (count != 0 && ++symbols > 1) {
+                return false;
+            }
+        }
+        return symbols == 1;
+    }
+
+    private static int blockLength(long size, int blockSize, int block) {
+        return (int) Math.min(blockSize, size - (long) block * blockSize);
+    }
+
+    /**
+     * Reads one block of the input into this thread's read buffer.
+     * 
+     * @param input The input file
+     * @param position File offset of the block
+     * @param length Number of bytes to read
+     * @return The buffer holding the block at its start
+     * @throws IOException If an I/O error occurs
+     */
+    private byte[] readBlock(FileChannel input, long position, int length) throws IOException {
+        byte[] buffer = readBuffers.get();
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[length];
+            readBuffers.set(buffer);
+        }
+        readFully(input, position, buffer, length);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel input, long position, byte[] buffer, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (input.read(target, position + target.position()) < 0) {
+                throw new IOException("File changed while compressing");
+            }
+        }
+    }
+
+    /**
+     * Decides whether a block is coded as interleaved sub-streams.
+     * 
+     * @param options The compression settings
+     * @param length Number of bytes in the block
+     * @return Array that receives the sub-stream lengths, or null to code a single stream
+     */
+    static int[] streamLengths(CompressionOptions options, int length) {
+        return isInterleaved(options, length) ? new int[BlockHeader.STREAM_COUNT] : null;
+    }
+
+    /**
+     * Tells whether a block is coded as interleaved sub-streams.
+     * 
+     * @param options The compression settings
+     * @param length Number of bytes in the block
+     * @return true for sub-streams, false for a single stream
+     */
+    static boolean isInterleaved(CompressionOptions options, int length) {
+        return options.isInterleaved() && length >= MIN_INTERLEAVED_LENGTH;
+    }
+
+    /**
+     * Returns the size of a payload array that can hold a coded block in any layout.
+     * 
+     * @param bits Coded size of the block in bits
+     * @return The capacity in bytes, allowing for the padding of every sub-stream
+     */
+    static int payloadCapacity(long bits) {
+        return (int) ((bits + 7) / 8) + BlockHeader.STREAM_COUNT - 1;
+    }
+
+    /**
+     * Huffman codes one block into a payload array, as a single stream or as interleaved sub-streams
+     * that code consecutive quarters of the block.
+     * 
+     * @param data The uncompressed block
+     * @param length Number of bytes in the block
+     * @param table The code table chosen for the block
+     * @param streamLengths Array that receives the byte length of every sub-stream, or null to code a single stream
+     * @param payload Destination array, at least {@link #payloadCapacity(long)} bytes long
+     * @return Number of bytes of the payload
+     * @throws IOException If the payload array is too small
+     */
+    static int encodePayload(byte[] data, int length, CodeTable table, int[] streamLengths, byte[] payload)
+            throws IOException {
+        return encodePayload(data, 0, length, table, streamLengths, payload, new BitOutputStream(payload));
+    }
+
+    /**
+     * Huffman codes one block into a payload array through a reusable bit stream.
+     * 
+     * @param data Array holding the uncompressed block
+     * @param offset Offset of the block in the array
+     * @param length Number of bytes in the block
+     * @param table The code table chosen for the block
+     * @param streamLengths Array that receives the byte length of every sub-stream, or null to code a single stream
+     * @param payload Destination array, at least {@link #payloadCapacity(long)} bytes long
+     * @param bitOutput Bit stream that is reset to write each stream into the payload array
+     * @return Number of bytes of the payload
+     * @throws IOException If the payload array is too small
+     */
+    static int encodePayload(byte[] data, int offset, int length, CodeTable table, int[] streamLengths,
+                             byte[] payload, BitOutputStream bitOutput) throws IOException {
+        if (streamLengths == null) {
+            return encodeStream(data, offset, offset + length, table, bitOutput, payload, 0);
+        }
+        int quarter = length / BlockHeader.STREAM_COUNT;
+        int position = 0;
+        for (int stream = 0; stream < BlockHeader.STREAM_COUNT; stream++) {
+            int start = offset + stream * quarter;
+            int end = stream == BlockHeader.STREAM_COUNT - 1 ? offset + length : start + quarter;
+            streamLengths[stream] = encodeStream(data, start, end, table, bitOutput, payload, position);
+            position += streamLengths[stream];
+        }
+        return position;
+    }
+
+    /**
+     * Huffman codes part of a block as one byte-aligned stream.
+     * 
+     * @param data Array holding the uncompressed block
+     * @param start Index of the first byte to code
+     * @param end Index after the last byte to code
+     * @param table The code table chosen for the block
+     * @param bitOutput Bit stream to reset onto the payload array at the offset
+     * @param payload Destination array
+     * @param offset Position in the payload array to start writing at
+     * @return Number of bytes written
+     * @throws IOException If the payload array is too small
+     */
+    private static int encodeStream(byte[] data, int start, int end, CodeTable table, BitOutputStream bitOutput,
+                                    byte[] payload, int offset) throws IOException {
+        int[] codes = table.getCodes();
+        byte[] lengths = table.getLengths();
+        bitOutput.reset(payload, offset);
+        for (int index = start; index < end; index++) {
+            int symbol = data[index] & 0xFF;
+            bitOutput.write(codes[symbol], lengths[symbol]);
+        }
+        bitOutput.close();
+        return (int) bitOutput.getPosition();
+    }
+
+    /**
+     * Returns the number of workers one call may run its blocks on: its share of the parallelism of the options
+     * when it is one of several jobs that may run at once. Once there are as many jobs as the parallelism, every
+     * job runs on its own thread and none starts a pool.
+     * 
+     * @param options The settings that provide the parallelism
+     * @param jobSlots Number of jobs that may run at once
+     * @return The number of workers, at least 1
+     */
+    static int workers(CompressionOptions options, int jobSlots) {
+        return Math.max(1, options.getParallelism() / jobSlots);
+    }
+
+    /**
+     * Creates the pool of a call that runs blocks on the given number of workers. A call with a single worker
+     * gets no pool: it runs its blocks on the calling thread instead of starting one.
+     * 
+     * @param workers Number of workers the call may use
+     * @return The pool, or null for a single worker
+     */
+    static ForkJoinPool newPool(int workers) {
+        return workers > 1 ? new ForkJoinPool(workers) : null;
+    }
+
+    /**
+     * Shuts down the pool of a call, if it has one.
+     * 
+     * @param pool The pool, or null
+     */
+    static void shutdown(ForkJoinPool pool) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the tasks of a range of blocks and waits for them: on the pool of the call when it has one, otherwise
+     * block after block on the calling thread, which checks for interruption before every block.
+     * 
+     * @param pool The pool of the call, or null to run on the calling thread
+     * @param tasks Creates the task of a range of blocks
+     * @param from Index of the first block
+     * @param to Index after the last block
+     * @throws InterruptedIOException If the calling thread is interrupted, which leaves it interrupted
+     * @throws IOException If a task failed with an I/O error
+     */
+    static void invoke(ForkJoinPool pool, RangeTasks tasks, int from, int to) throws IOException {
+        if (pool != null) {
+            join(pool, pool.submit(tasks.create(from, to)));
+            return;
+        }
+        for (int block = from; block < to; block++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted");
+            }
+            try {
+                tasks.create(block, block + 1).invoke();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Waits for a task on a pool that belongs to one call. If the calling thread is interrupted, the pool is
+     * shut down so that tasks skip the blocks they have not started, and the wait ends when the blocks in
+     * progress are done, so that no worker uses the files after the call returns.
+     * 
+     * @param pool The pool the task was submitted to
+     * @param task The task
+     * @throws InterruptedIOException If the calling thread is interrupted, which leaves it interrupted
+     * @throws IOException If the task failed with an I/O error
+     */
+    static void join(ForkJoinPool pool, ForkJoinTask<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            pool.shutdown();
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+
+    /**
+     * Reports the interrupt of a thread that was reading or writing a file on the calling thread, which closed
+     * the file, the same way as an interrupt noticed between blocks.
+     * 
+     * @param error The error of the interrupted file operation
+     * @return The exception to throw
+     */
+    static InterruptedIOException interrupted(ClosedByInterruptException error) {
+        InterruptedIOException interrupted = new InterruptedIOException("Interrupted");
+        interrupted.initCause(error);
+        return interrupted;
+    }
+
+    /**
+     * Tells a task whether the call it belongs to was interrupted, in which case its block is skipped.
+     * 
+     * @return true if the pool running the task has been shut down
+     */
+    static boolean isStopping() {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        return pool != null && pool.isShutdown();
+    }
+
+    /**
+     * Creates the task that processes a range of blocks.
+     */
+    interface RangeTasks {
+
+        ForkJoinTask<?> create(int from, int to);
+    }
+
+    /**
+     * Counts the byte histogram and builds the own table of a range of blocks.
+     */
+    @SuppressWarnings("serial")
+    private class HistogramTask extends RecursiveAction {
+
+        private FileChannel input;
+        private long size;
+        private int blockSize;
+        private long[][] histograms;
+        private CodeTable[] ownTables;
+        private int from;
+        private int to;
+
+        HistogramTask(FileChannel input, long size, int blockSize, long[][] histograms, CodeTable[] ownTables,
+                      int from, int to) {
+            this.input = input;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.histograms = histograms;
+            this.ownTables = ownTables;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HistogramTask(input, size, blockSize, histograms, ownTables, from, middle),
+                          new HistogramTask(input, size, blockSize, histograms, ownTables, middle, to));
+                return;
+            }
+            if (from == to || isStopping()) {
+                return;
+            }
+            try {
+                long position = (long) from * blockSize;
+                int length = (int) Math.min(blockSize, size - position);
+                byte[] data = readBlock(input, position, length);
+                CompressionListener listener = options.getListener();
+                long start = listener != null ? System.nanoTime() : 0;
+                long[] histogram = new long[CanonicalCode.ALPHABET_SIZE];
+                Histogram.count(data, 0, length, histogram);
+                if (listener != null) {
+                    listener.phaseCompleted(CompressionListener.Phase.HISTOGRAM, System.nanoTime() - start, length);
+                }
+                histograms[from] = histogram;
+                ownTables[from] = ownTable(histogram, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Builds the context model of a range of blocks.
+     */
+    @SuppressWarnings("serial")
+    private class ContextTask extends RecursiveAction {
+
+        private FileChannel input;
+        private long size;
+        private int blockSize;
+        private ContextModel[] models;
+        private int from;
+        private int to;
+
+        ContextTask(FileChannel input, long size, int blockSize, ContextModel[] models, int from, int to) {
+            this.input = input;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.models = models;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ContextTask(input, size, blockSize, models, from, middle),
+                          new ContextTask(input, size, blockSize, models, middle, to));
+                return;
+            }
+            if (from == to || isStopping()) {
+                return;
+            }
+            try {
+                long position = (long) from * blockSize;
+                int length = (int) Math.min(blockSize, size - position);
+                models[from] = ContextModel.build(readBlock(input, position, length), 0, length,
+                        isInterleaved(options, length), options);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Encodes a range of blocks into payload arrays.
+     */
+    @SuppressWarnings("serial")
+    private class EncodeTask extends RecursiveAction {
+
+        private FileChannel input;
+        private long size;
+        private int blockSize;
+        private int[] types;
+        private CodeTable[] tables;
+        private ContextModel[] models;
+        private long[] bitLengths;
+        private EncodedBlock[] encoded;
+        private int from;
+        private int to;
+
+        EncodeTask(FileChannel input, long size, int blockSize, int[] types, CodeTable[] tables, ContextModel[] models,
+                   long[] bitLengths, EncodedBlock[] encoded, int from, int to) {
+            this.input = input;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.types = types;
+            this.tables = tables;
+            this.models = models;
+            this.bitLengths = bitLengths;
+            this.encoded = encoded;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EncodeTask(input, size, blockSize, types, tables, models, bitLengths, encoded, from,
+                                middle),
+                          new EncodeTask(input, size, blockSize, types, tables, models, bitLengths, encoded, middle,
+                                to));
+                return;
+            }
+            if (from == to || isStopping()) {
+                return;
+            }
+            try {
+                long position = (long) from * blockSize;
+                int length = (int) Math.min(blockSize, size - position);
+                byte[] data = readBlock(input, position, length);
+                CompressionListener listener = options.getListener();
+                long start = listener != null ? System.nanoTime() : 0;
+                CRC32 checksum = new CRC32();
+                checksum.update(data, 0, length);
+
+                EncodedBlock frame = new EncodedBlock();
+                frame.checksum = (int) checksum.getValue();
+                if (types[from] == BlockHeader.TYPE_STORED) {
+                    frame.payload = Arrays.copyOf(data, length);
+                    frame.payloadLength = length;
+                } else if (types[from] == BlockHeader.TYPE_RUN) {
+                    frame.payload = new byte[] {data[0]};
+                    frame.payloadLength = 1;
+                } else if (models[from] != null) {
+                    frame.payload = new byte[payloadCapacity(bitLengths[from])];
+                    frame.streamLengths = streamLengths(options, length);
+                    frame.payloadLength = models[from].encode(data, 0, length, frame.streamLengths, frame.payload,
+                            new BitOutputStream(frame.payload));
+                } else {
+                    frame.payload = new byte[payloadCapacity(bitLengths[from])];
+                    frame.streamLengths = streamLengths(options, length);
+                    frame.payloadLength = encodePayload(data, length, tables[from], frame.streamLengths,
+                            frame.payload);
+                }
+                if (listener != null) {
+                    listener.phaseCompleted(CompressionListener.Phase.ENCODE, System.nanoTime() - start, length);
+                }
+                encoded[from] = frame;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * The buffers of a compression within a memory budget. Every slot holds one block of the current window,
+     * from its data to its coded payload, and is reused for the block in the same place of the next window.
+     */
+    private class Window {
+
+        private FileChannel input;
+        private long size;
+        private int blockSize;
+        private int firstBlock;
+        private int blockCount;
+        private byte[][] data;
+        private byte[][] payloads;
+        private int[] lengths;
+        private int[] checksums;
+        private long[][] histograms;
+        private boolean[] stored;
+        private CodeTable[] ownTables;
+        private ContextModel[] models;
+        private int[] types;
+        private CodeTable[] tables;
+        private int[] tableDistances;
+        private long[] bitLengths;
+        private int[][] streamLengths;
+        private int[] payloadLengths;
+
+        Window(FileChannel input, long size, int blockSize, int slots) {
+            this.input = input;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.data = new byte[slots][blockSize];
+            this.payloads = new byte[slots][payloadCapacity(maxCodedBits(blockSize))];
+            this.lengths = new int[slots];
+            this.checksums = new int[slots];
+            this.histograms = new long[slots][CanonicalCode.ALPHABET_SIZE];
+            this.stored = new boolean[slots];
+            this.ownTables = new CodeTable[slots];
+            this.models = new ContextModel[slots];
+            this.types = new int[slots];
+            this.tables = new CodeTable[slots];
+            this.tableDistances = new int[slots];
+            this.bitLengths = new long[slots];
+            this.streamLengths = new int[slots][BlockHeader.STREAM_COUNT];
+            this.payloadLengths = new int[slots];
+        }
+
+        /**
+         * Reads the block of a slot and counts it, building its own table and its context model.
+         *
+         * @param slot The slot
+         * @throws IOException If an I/O error occurs
+         */
+        void analyse(int slot) throws IOException {
+            int length = blockLength(size, blockSize, firstBlock + slot);
+            byte[] block = data[slot];
+            readFully(input, (long) (firstBlock + slot) * blockSize, block, length);
+            CompressionListener listener = options.getListener();
+            long start = listener != null ? System.nanoTime() : 0;
+            CRC32 checksum = new CRC32();
+            checksum.update(block, 0, length);
+            long[] histogram = histograms[slot];
+            Arrays.fill(histogram, 0);
+            stored[slot] = isStoredBySample(options, block, 0, length, histogram);
+            if (!stored[slot]) {
+                Arrays.fill(histogram, 0);
+                Histogram.count(block, 0, length, histogram);
+            }
+            if (listener != null) {
+                listener.phaseCompleted(CompressionListener.Phase.HISTOGRAM, System.nanoTime() - start, length);
+            }
+            lengths[slot] = length;
+            checksums[slot] = (int) checksum.getValue();
+            ownTables[slot] = stored[slot] ? null : ownTable(histogram, length);
+            models[slot] = options.isContextModeling() && !isRun(histogram)
+                    ? ContextModel.build(block, 0, length, isInterleaved(options, length), options) : null;
+        }
+
+        /**
+         * Codes the block of a slot into its payload buffer with the table picked for it.
+         *
+         * @param slot The slot
+         * @throws IOException If an I/O error occurs
+         */
+        void encode(int slot) throws IOException {
+            if (types[slot] == BlockHeader.TYPE_STORED || types[slot] == BlockHeader.TYPE_RUN) {
+                return;
+            }
+            CompressionListener listener = options.getListener();
+            long start = listener != null ? System.nanoTime() : 0;
+            int length = lengths[slot];
+            int[] blockStreamLengths = isInterleaved(options, length) ? streamLengths[slot] : null;
+            byte[] payload = payloads[slot];
+            payloadLengths[slot] = models[slot] != null
+                    ? models[slot].encode(data[slot], 0, length, blockStreamLengths, payload,
+                            new BitOutputStream(payload))
+                    : encodePayload(data[slot], length, tables[slot], blockStreamLengths, payload);
+            if (listener != null) {
+                listener.phaseCompleted(CompressionListener.Phase.ENCODE, System.nanoTime() - start, length);
+            }
+        }
+
+        /**
+         * Writes the frame of a slot's block.
+         *
+         * @param slot The slot
+         * @param output The stream that receives the container
+         * @param index The block index, which gets the block's entry
+         * @throws IOException If an I/O error occurs
+         */
+        void write(int slot, BitOutputStream output, BlockIndex index) throws IOException {
+            CompressionListener listener = options.getListener();
+            long start = listener != null ? System.nanoTime() : 0;
+            int length = lengths[slot];
+            int type = types[slot];
+            boolean coded = type != BlockHeader.TYPE_STORED && type != BlockHeader.TYPE_RUN;
+            int payloadLength = type == BlockHeader.TYPE_STORED ? length
+                    : type == BlockHeader.TYPE_RUN ? 1 : payloadLengths[slot];
+            int[] blockStreamLengths = coded && isInterleaved(options, length) ? streamLengths[slot] : null;
+            long frameStart = output.getPosition();
+            index.add(frameStart, bitLengths[slot], length);
+            if (models[slot] != null) {
+                new BlockHeader(length, payloadLength, checksums[slot], models[slot].getContextGroups(),
+                        models[slot].getGroupCodeLengths(), blockStreamLengths).write(output);
+            } else {
+                new BlockHeader(type, length, payloadLength, checksums[slot],
+                        tables[slot] != null ? tables[slot].getLengths() : null, tableDistances[slot],
+                        blockStreamLengths).write(output);
+            }
+            output.writeBytes(coded ? payloads[slot] : data[slot], 0, payloadLength);
+            if (listener != null) {
+                listener.phaseCompleted(CompressionListener.Phase.WRITE, System.nanoTime() - start,
+                        output.getPosition() - frameStart);
+                if (type == BlockHeader.TYPE_OWN_TABLE) {
+                    listener.tableStored(tables[slot].serializedSize());
+                } else if (models[slot] != null) {
+                    listener.tableStored(models[slot].serializedSize());
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyses or encodes a range of the slots of a {@link Window}.
+     */
+    @SuppressWarnings("serial")
+    private static class WindowTask extends RecursiveAction {
+
+        private Window window;
+        private boolean encode;
+        private int from;
+        private int to;
+
+        WindowTask(Window window, boolean encode, int from, int to) {
+            this.window = window;
+            this.encode = encode;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WindowTask(window, encode, from, middle), new WindowTask(window, encode, middle, to));
+                return;
+            }
+            if (from == to || isStopping()) {
+                return;
+            }
+            try {
+                if (encode) {
+                    window.encode(from);
+                } else {
+                    window.analyse(from);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * A block coded by an {@link EncodeTask}, waiting to be written.
+     */
+    private static class EncodedBlock {
+
+        private byte[] payload;
+        private int payloadLength;
+        private int checksum;
+        private int[] streamLengths;
+    }
+}
@@ -0,0 +1,756 @@
+package com.compressor.core;
+
+import com.compressor.io.BitInputStream;
+import com.compressor.io.BlockHeader;
+import com.compressor.io.BlockIndex;
+import com.compressor.io.ContainerHeader;
+import com.compressor.io.CorruptDataException;
+import com.compressor.io.HuffmanDecoder;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * Decompresses a block container written by {@link BlockCompressor}.
+ * <p>
+ * Containers can be decoded as a stream, block after block, or from a file through its {@link BlockIndex}.
+ * In the latter case worker threads on a {@link ForkJoinPool} decode blocks independently and write them
+ * straight to their final position in a pre-sized output file; a file of one block, or a parallelism of 1,
+ * is decoded on the calling thread. Every block is checked against its CRC32.
+ * With a memory budget set in the options, only as many workers run as the budget holds the buffers of, and
+ * containers whose blocks do not fit in it are rejected before anything is decoded.
+ * Interrupting the calling thread stops a parallel decompression after the blocks in progress.
+ */
+public class BlockDecompressor {
+
+    private CompressionOptions options;
+    private int jobSlots;
+    private ThreadLocal<byte[][]> workBuffers = new ThreadLocal<>();
+
+    // Per-thread copy of the payload of an interleaved or context block, read by its stream readers
+    private static final ThreadLocal<byte[]> payloadBuffers = new ThreadLocal<>();
+
+    /**
+     * Creates a decompressor with the default options.
+     */
+    public BlockDecompressor() {
+        this(new CompressionOptions());
+    }
+
+    /**
+     * Creates a new block decompressor.
+     * 
+     * @param options Settings that provide the parallelism
+     */
+    public BlockDecompressor(CompressionOptions options) {
+        this(options, 1);
+    }
+
+    /**
+     * Creates a block decompressor for jobs that run alongside others and share the parallelism of the options
+     * with them, as those of a {@link CompressionService}.
+     * 
+     * @param options Settings that provide the parallelism
+     * @param jobSlots Number of jobs that may run at once, at least 1
+     */
+    BlockDecompressor(CompressionOptions options, int jobSlots) {
+        this.options = options;
+        this.jobSlots = jobSlots;
+    }
+
+    /**
+     * Decompresses a whole container read as a stream.
+     * 
+     * @param input The bit stream positioned at the start of the container
+     * @param output The channel that receives the original data
+     * @return Number of bytes written
+     * @throws IOException If the data is corrupt or an I/O error occurs
+     * @throws IllegalArgumentException If a stored code table is malformed
+     */
+    public long decompress(BitInputStream input, WritableByteChannel output) throws IOException {
+        return decompress(input, output, null);
+    }
+
+    /**
+     * Decompresses a whole container read as a stream, written with or without a dictionary.
+     * 
+     * @param input The bit stream positioned at the start of the container
+     * @param output The channel that receives the original data
+     * @param dictionary The dictionary the container was written with, or null if there is none
+     * @return Number of bytes written
+     * @throws IOException If the data is corrupt, the dictionary is missing or an I/O error occurs
+     * @throws IllegalArgumentException If a stored code table is malformed
+     */
+    public long decompress(BitInputStream input, WritableByteChannel output, HuffmanDictionary dictionary)
+            throws IOException {
+        CompressionListener listener = options.getListener();
+        long startNanos = listener != null ? System.nanoTime() : 0;
+        long startPosition = input.getPosition();
+        ContainerHeader header = checkHeader(ContainerHeader.read(input));
+        HuffmanDecoder sharedDecoder = sharedDecoder(header, dictionary, options.getTableCache());
+
+        long expected = header.hasOriginalLength() ? header.getOriginalLength() : Long.MAX_VALUE;
+        byte[] buffer = new byte[0];
+        long written = 0;
+        int blockNumber = 0;
+        HuffmanDecoder tableDecoder = null;
+        int tableBlock = -1;
+        BlockHeader blockHeader;
+        while ((blockHeader = nextBlockHeader(input, header, written)) != null) {
+            int length = blockHeader.getUncompressedLength();
+            if (written + length > expected) {
+                throw new CorruptDataException("Corrupt block length");
+            }
+            if (buffer.length < length) {
+                checkBudget(options, length);
+                buffer = new byte[length];
+            }
+            long start = listener != null ? System.nanoTime() : 0;
+            HuffmanDecoder decoder = decodeBlock(blockHeader, input,
+                    referencedDecoder(blockHeader, sharedDecoder, tableDecoder, blockNumber - tableBlock),
+                    options.getTableCache(), buffer);
+            if (blockHeader.getType() == BlockHeader.TYPE_OWN_TABLE) {
+                tableDecoder = decoder;
+                tableBlock = blockNumber;
+            }
+            blockNumber++;
+            if (listener != null) {
+                long decoded = System.nanoTime();
+                listener.phaseCompleted(CompressionListener.Phase.DECODE, decoded - start, length);
+                start = decoded;
+            }
+            ByteBuffer block = ByteBuffer.wrap(buffer, 0, length);
+            while (block.hasRemaining()) {
+                output.write(block);
+            }
+            written += length;
+            if (listener != null) {
+                listener.phaseCompleted(CompressionListener.Phase.WRITE, System.nanoTime() - start, length);
+            }
+        }
+
+        if (header.hasOriginalLength() && written != expected) {
+            throw new CorruptDataException("Compressed data is truncated");
+        }
+        if (listener != null) {
+            listener.decompressed(input.getPosition() - startPosition, written, System.nanoTime() - startNanos);
+        }
+        return written;
+    }
+
+    /**
+     * Decompresses a container file in parallel, using its block index.
+     * 
+     * @param input The container file
+     * @param output The file that receives the original data, written at absolute positions
+     * @return Number of bytes written
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If the data is corrupt or an I/O error occurs
+     * @throws IllegalArgumentException If a stored code table is malformed
+     */
+    public long decompress(FileChannel input, FileChannel output) throws IOException {
+        return decompress(input, output, null);
+    }
+
+    /**
+     * Decompresses a container file in parallel, written with or without a dictionary.
+     * 
+     * @param input The container file
+     * @param output The file that receives the original data, written at absolute positions
+     * @param dictionary The dictionary the container was written with, or null if there is none
+     * @return Number of bytes written
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If the data is corrupt, the dictionary is missing or an I/O error occurs
+     * @throws IllegalArgumentException If a stored code table is malformed
+     */
+    public long decompress(FileChannel input, FileChannel output, HuffmanDictionary dictionary) throws IOException {
+        try {
+            return decompressFile(input, output, dictionary);
+        } catch (ClosedByInterruptException e) {
+            throw BlockCompressor.interrupted(e);
+        }
+    }
+
+    /**
+     * Decompresses a container file, through its block index unless it is a compact frame.
+     * 
+     * @param input The container file
+     * @param output The file that receives the original data
+     * @param dictionary The dictionary the container was written with, or null if there is none
+     * @return Number of bytes written
+     * @throws IOException If the data is corrupt, the dictionary is missing, an I/O error occurs or the calling
+     *                     thread is interrupted
+     */
+    private long decompressFile(FileChannel input, FileChannel output, HuffmanDictionary dictionary)
+            throws IOException {
+        long startNanos = options.getListener() != null ? System.nanoTime() : 0;
+        ContainerHeader header = readHeader(input);
+        if (header.isCompact()) {
+            // A compact frame has no index to decode from: it holds a single block, read in order
+            output.truncate(0);
+            output.position(0);
+            input.position(0);
+            return decompress(new BitInputStream(input), output, dictionary);
+        }
+        BlockIndex index = readIndex(input, header);
+        HuffmanDecoder sharedDecoder = sharedDecoder(header, dictionary, options.getTableCache());
+
+        // Pre-size the output so blocks can be written at their final position in any order
+        long size = index.getUncompressedLength();
+        output.truncate(size);
+        if (size > 0 && output.size() < size) {
+            output.write(ByteBuffer.allocate(1), size - 1);
+        }
+
+        int blockCount = index.getBlockCount();
+        int workers = Math.max(1, Math.min(BlockCompressor.workers(options, jobSlots), blockCount));
+        if (options.getMemoryBudget() > 0) {
+            workers = Math.min(workers, budgetWorkers(index));
+        }
+        ForkJoinPool pool = BlockCompressor.newPool(workers);
+        try {
+            BlockCompressor.invoke(pool,
+                    (from, to) -> new DecodeTask(input, output, header, index, sharedDecoder, from, to), 0, blockCount);
+        } finally {
+            BlockCompressor.shutdown(pool);
+        }
+        if (options.getListener() != null) {
+            options.getListener().decompressed(input.size(), size, System.nanoTime() - startNanos);
+        }
+        return size;
+    }
+
+    /**
+     * Reads the container header from the start of a file.
+     * 
+     * @param input The container file
+     * @return The header
+     * @throws IOException If the header is corrupt or an I/O error occurs
+     */
+    static ContainerHeader readHeader(FileChannel input) throws IOException {
+        byte[] bytes = new byte[(int) Math.min(ContainerHeader.MAX_HEADER_SIZE, input.size())];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        return checkHeader(ContainerHeader.read(new BitInputStream(bytes, 0, buffer.position())));
+    }
+
+    /**
+     * Returns how many blocks of a container file can be decoded at once within the memory budget.
+     * 
+     * @param index The block index of the file
+     * @return The number of workers, at least 1
+     * @throws IOException If the buffers for the largest block and frame do not fit in the budget
+     */
+    private int budgetWorkers(BlockIndex index) throws IOException {
+        int blockLength = 0;
+        int frameLength = 0;
+        for (int block = 0; block < index.getBlockCount(); block++) {
+            blockLength = Math.max(blockLength, index.getUncompressedLength(block));
+            frameLength = Math.max(frameLength, index.getFrameLength(block));
+        }
+        long workers = options.getMemoryBudget() / BlockCompressor.workerMemory(blockLength, frameLength);
+        if (workers == 0) {
+            throw new IOException("Blocks of " + blockLength + " bytes do not fit in the memory budget");
+        }
+        return (int) Math.min(workers, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rejects a block read from a stream that cannot be decoded within the memory budget of the options,
+     * counting the read buffer of the bit stream. Blocks are checked at their own length rather than the block
+     * size of the container, which only bounds them, so short data decodes whatever block size it was written with.
+     * 
+     * @param options The settings that provide the budget, 0 for none
+     * @param blockLength Number of bytes in the block
+     * @throws IOException If the block does not fit in the budget
+     */
+    static void checkBudget(CompressionOptions options, int blockLength) throws IOException {
+        long memory = BitInputStream.BUFFER_SIZE
+                + BlockCompressor.workerMemory(blockLength, BlockCompressor.frameCapacity(blockLength));
+        if (options.getMemoryBudget() > 0 && memory > options.getMemoryBudget()) {
+            throw new IOException("Blocks of " + blockLength + " bytes do not fit in the memory budget");
+        }
+    }
+
+    /**
+     * Reads the header of the next block of a container read as a stream. A compact frame ends after its single
+     * block, which must cover the whole original length.
+     * 
+     * @param input The bit stream positioned after the previous block
+     * @param header The container header
+     * @param decoded Number of bytes decoded so far
+     * @return The block header, or null at the end of the blocks
+     * @throws IOException If the block header is corrupt or an I/O error occurs
+     */
+    static BlockHeader nextBlockHeader(BitInputStream input, ContainerHeader header, long decoded)
+            throws IOException {
+        if (header.isCompact() && decoded == header.getOriginalLength()) {
+            return null;
+        }
+        BlockHeader blockHeader = BlockHeader.read(input);
+        if (header.isCompact() && blockHeader != null
+                && blockHeader.getUncompressedLength() != header.getOriginalLength()) {
+            throw new CorruptDataException("Corrupt block length");
+        }
+        return blockHeader;
+    }
+
+    /**
+     * Rejects headers with a block size this implementation never writes.
+     * 
+     * @param header The container header
+     * @return The same header
+     * @throws IOException If the block size is out of range
+     */
+    static ContainerHeader checkHeader(ContainerHeader header) throws IOException {
+        if (header.getBlockSize() > CompressionOptions.MAX_BLOCK_SIZE) {
+            throw new CorruptDataException("Corrupt block size");
+        }
+        return header;
+    }
+
+    /**
+     * Reads the block index of a container file and checks it against the header.
+     * 
+     * @param input The container file
+     * @param header The container header
+     * @return The index
+     * @throws IOException If the index is corrupt or an I/O error occurs
+     */
+    static BlockIndex readIndex(FileChannel input, ContainerHeader header) throws IOException {
+        if (header.isCompact()) {
+            throw new CorruptDataException("Compact frames have no block index");
+        }
+        BlockIndex index = BlockIndex.read(input);
+        if (header.hasOriginalLength() && index.getUncompressedLength() != header.getOriginalLength()) {
+            throw new CorruptDataException("Block index does not match the header");
+        }
+        for (int block = 0; block < index.getBlockCount(); block++) {
+            if (index.getUncompressedLength(block) > header.getBlockSize()) {
+                throw new CorruptDataException("Corrupt block length");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Loads the frame of one block from a container file.
+     * 
+     * @param input The container file
+     * @param index The block index of the file
+     * @param block The block number
+     * @param frame Destination array, at least {@link BlockIndex#getFrameLength(int)} bytes long
+     * @return A bit stream over the frame
+     * @throws IOException If an I/O error occurs
+     */
+    static BitInputStream readFrame(FileChannel input, BlockIndex index, int block, byte[] frame)
+            throws IOException {
+        int frameLength = index.getFrameLength(block);
+        ByteBuffer frameBuffer = ByteBuffer.wrap(frame, 0, frameLength);
+        while (frameBuffer.hasRemaining()) {
+            if (input.read(frameBuffer, index.getOffset(block) + frameBuffer.position()) < 0) {
+                throw new CorruptDataException("Unexpected end of compressed file");
+            }
+        }
+        return new BitInputStream(frame, 0, frameLength);
+    }
+
+    /**
+     * Reads a block header and checks it against the index.
+     * 
+     * @param input The bit stream positioned at the start of the frame
+     * @param index The block index of the file
+     * @param block The block number
+     * @return The block header
+     * @throws IOException If the header does not match the index
+     */
+    static BlockHeader readBlockHeader(BitInputStream input, BlockIndex index, int block) throws IOException {
+        BlockHeader blockHeader = BlockHeader.read(input);
+        if (blockHeader == null || blockHeader.getUncompressedLength() != index.getUncompressedLength(block)) {
+            throw new CorruptDataException("Block index does not match the block");
+        }
+        return blockHeader;
+    }
+
+    /**
+     * Creates the decoder for the shared table of a container.
+     * 
+     * @param header The container header
+     * @param dictionary The dictionary supplied by the caller, or null if there is none
+     * @param tableCache Cache of decoders, or null to build the decoder
+     * @return The decoder, or null if the container has no shared table
+     * @throws IOException If the container refers to a dictionary that was not supplied
+     */
+    static HuffmanDecoder sharedDecoder(ContainerHeader header, HuffmanDictionary dictionary,
+                                        CodeTableCache tableCache) throws IOException {
+        if (header.hasDictionary()) {
+            return HuffmanDictionary.decoderFor(header, dictionary);
+        }
+        if (header.getSharedCodeLengths() == null) {
+            return null;
+        }
+        return CodeTableCache.decoder(tableCache, header.getSharedCodeLengths());
+    }
+
+    /**
+     * Returns the decoder for the table a block refers to when the blocks are read in order.
+     * 
+     * @param blockHeader The header of the block
+     * @param sharedDecoder Decoder for the shared table, or null if there is none
+     * @param tableDecoder Decoder for the most recent block with its own table, or null if there is none
+     * @param tableDistance Number of blocks since that block
+     * @return The decoder, or null if the block carries its own table or refers to a table that does not exist
+     */
+    static HuffmanDecoder referencedDecoder(BlockHeader blockHeader, HuffmanDecoder sharedDecoder,
+                                            HuffmanDecoder tableDecoder, int tableDistance) {
+        switch (blockHeader.getType()) {
+            case BlockHeader.TYPE_SHARED_TABLE:
+                return sharedDecoder;
+            case BlockHeader.TYPE_PREVIOUS_TABLE:
+                return blockHeader.getTableDistance() == tableDistance ? tableDecoder : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the decoder for the table a block of a container file refers to.
+     * The table of an earlier block is loaded from that block's header.
+     * 
+     * @param input The container file
+     * @param index The block index of the file
+     * @param block The block number
+     * @param blockHeader The header of the block
+     * @param sharedDecoder Decoder for the shared table, or null if there is none
+     * @param tableCache Cache of decoders, or null to build the decoder
+     * @return The decoder, or null if the block carries its own table
+     * @throws IOException If the referenced table does not exist or an I/O error occurs
+     */
+    static HuffmanDecoder referencedDecoder(FileChannel input, BlockIndex index, int block, BlockHeader blockHeader,
+                                            HuffmanDecoder sharedDecoder, CodeTableCache tableCache) throws IOException {
+        if (blockHeader.getType() != BlockHeader.TYPE_PREVIOUS_TABLE) {
+            return blockHeader.getType() == BlockHeader.TYPE_SHARED_TABLE ? sharedDecoder : null;
+        }
+        BlockHeader tableHeader = readTableHeader(input, index, block - blockHeader.getTableDistance());
+        return CodeTableCache.decoder(tableCache, tableHeader.getCodeLengths());
+    }
+
+    /**
+     * Reads the header of a block that carries its own table, without loading its payload.
+     * 
+     * @param input The container file
+     * @param index The block index of the file
+     * @param block The block number
+     * @return The block header with its code lengths
+     * @throws IOException If the block does not exist, has no own table or an I/O error occurs
+     */
+    static BlockHeader readTableHeader(FileChannel input, BlockIndex index, int block) throws IOException {
+        if (block < 0) {
+            throw new CorruptDataException("Block refers to a missing table");
+        }
+        byte[] bytes = new byte[Math.min(index.getFrameLength(block), BlockHeader.MAX_HEADER_SIZE)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer, index.getOffset(block) + buffer.position()) < 0) {
+                throw new CorruptDataException("Unexpected end of compressed file");
+            }
+        }
+        BlockHeader tableHeader = readBlockHeader(new BitInputStream(bytes, 0, bytes.length), index, block);
+        if (tableHeader.getType() != BlockHeader.TYPE_OWN_TABLE) {
+            throw new CorruptDataException("Block refers to a missing table");
+        }
+        return tableHeader;
+    }
+
+    /**
+     * Decodes the payload of one block and verifies its checksum.
+     * 
+     * @param blockHeader The header of the block, already read from the input
+     * @param input The bit stream positioned at the start of the payload
+     * @param referencedDecoder Decoder for the table the block refers to or carries, or null to build the table
+     *                          the block carries
+     * @param tableCache Cache of decoders for blocks with their own tables, or null to build the decoders
+     * @param buffer Destination for the uncompressed block
+     * @return The decoder used for the block, or null for a block coded with context tables, stored or a run
+     * @throws IOException If the block is corrupt or an I/O error occurs
+     */
+    static HuffmanDecoder decodeBlock(BlockHeader blockHeader, BitInputStream input, HuffmanDecoder referencedDecoder,
+                                      CodeTableCache tableCache, byte[] buffer) throws IOException {
+        return decodeBlock(blockHeader, input, referencedDecoder, tableCache, buffer,
+                blockHeader.getUncompressedLength());
+    }
+
+    /**
+     * Decodes the first bytes of a block. The checksum is only verified when the whole block is decoded.
+     * 
+     * @param blockHeader The header of the block, already read from the input
+     * @param input The bit stream positioned at the start of the payload
+     * @param referencedDecoder Decoder for the table the block refers to or carries, or null to build the table
+     *                          the block carries
+     * @param tableCache Cache of decoders for blocks with their own tables, or null to build the decoders
+     * @param buffer Destination for the uncompressed bytes
+     * @param limit Number of bytes to decode, at most the block length
+     * @return The decoder used for the block, or null for a block coded with context tables, stored or a run
+     * @throws IOException If the block is corrupt or an I/O error occurs
+     */
+    static HuffmanDecoder decodeBlock(BlockHeader blockHeader, BitInputStream input, HuffmanDecoder referencedDecoder,
+                                      CodeTableCache tableCache, byte[] buffer, int limit) throws IOException {
+        int length = blockHeader.getUncompressedLength();
+        if (limit > length || limit > buffer.length) {
+            throw new CorruptDataException("Corrupt block length");
+        }
+        HuffmanDecoder decoder = referencedDecoder;
+        if (blockHeader.getType() == BlockHeader.TYPE_STORED) {
+            decoder = null;
+            if (blockHeader.getPayloadLength() != length) {
+                throw new CorruptDataException("Corrupt payload length");
+            }
+            input.readBytes(buffer, 0, limit);
+        } else if (blockHeader.getType() == BlockHeader.TYPE_RUN) {
+            decoder = null;
+            if (blockHeader.getPayloadLength() != 1) {
+                throw new CorruptDataException("Corrupt payload length");
+            }
+            Arrays.fill(buffer, 0, limit, (byte) input.readBits(8));
+        } else if (blockHeader.getType() == BlockHeader.TYPE_CONTEXT_TABLES) {
+            decodeContexts(blockHeader, input, tableCache, buffer, limit);
+        } else if (decoder == null && blockHeader.getType() != BlockHeader.TYPE_OWN_TABLE) {
+            throw new CorruptDataException("Block refers to a missing table");
+        } else {
+            if (decoder == null) {
+                decoder = CodeTableCache.decoder(tableCache, blockHeader.getCodeLengths());
+            }
+            decodePayload(blockHeader, input, decoder, buffer, limit);
+        }
+        if (limit < length) {
+            return decoder;
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer, 0, length);
+        if ((int) checksum.getValue() != blockHeader.getChecksum()) {
+            throw new CorruptDataException("Block checksum mismatch");
+        }
+        return decoder;
+    }
+
+    /**
+     * Decodes the first bytes of a block coded with a single table.
+     *
+     * @param blockHeader The header of the block, already read from the input
+     * @param input The bit stream positioned at the start of the payload
+     * @param decoder Decoder for the block's table
+     * @param buffer Destination for the uncompressed bytes
+     * @param limit Number of bytes to decode, at most the block length
+     * @throws IOException If the block is corrupt or an I/O error occurs
+     */
+    private static void decodePayload(BlockHeader blockHeader, BitInputStream input, HuffmanDecoder decoder,
+                                      byte[] buffer, int limit) throws IOException {
+        if (blockHeader.getStreamLengths() != null) {
+            decodeInterleaved(blockHeader, input, decoder, buffer, limit);
+        } else {
+            for (int index = 0; index < limit; index++) {
+                buffer[index] = (byte) decoder.decodeSymbol(input);
+            }
+            input.alignToByte();
+        }
+    }
+
+    /**
+     * Decodes the first bytes of a block coded with context tables, every byte with the decoder of the group
+     * its predecessor belongs to.
+     *
+     * @param blockHeader The header of the block, already read from the input
+     * @param input The bit stream positioned at the start of the payload
+     * @param tableCache Cache of decoders, or null to build the decoders
+     * @param buffer Destination for the uncompressed bytes
+     * @param limit Number of bytes to decode, at most the block length
+     * @throws IOException If the block is corrupt or an I/O error occurs
+     */
+    private static void decodeContexts(BlockHeader blockHeader, BitInputStream input, CodeTableCache tableCache,
+                                       byte[] buffer, int limit) throws IOException {
+        byte[][] groupCodeLengths = blockHeader.getGroupCodeLengths();
+        HuffmanDecoder[] groupDecoders = new HuffmanDecoder[groupCodeLengths.length];
+        for (int group = 0; group < groupDecoders.length; group++) {
+            groupDecoders[group] = CodeTableCache.decoder(tableCache, groupCodeLengths[group]);
+        }
+        byte[] contextGroups = blockHeader.getContextGroups();
+        HuffmanDecoder[] decoders = new HuffmanDecoder[BlockHeader.CONTEXT_COUNT];
+        for (int context = 0; context < decoders.length; context++) {
+            decoders[context] = groupDecoders[contextGroups[context]];
+        }
+
+        int length = blockHeader.getUncompressedLength();
+        long payloadLength = blockHeader.getPayloadLength();
+        if (payloadLength > (long) length * CanonicalCode.MAX_CODE_LENGTH / 8 + BlockHeader.STREAM_COUNT) {
+            throw new CorruptDataException("Corrupt payload length");
+        }
+        byte[] payload = payloadBuffers.get();
+        if (payload == null || payload.length < payloadLength) {
+            payload = new byte[(int) payloadLength];
+            payloadBuffers.set(payload);
+        }
+        input.readBytes(payload, 0, (int) payloadLength);
+
+        int[] streamLengths = blockHeader.getStreamLengths();
+        if (streamLengths == null) {
+            streamLengths = new int[] {(int) payloadLength};
+        }
+        if (limit == length) {
+            HuffmanDecoder.decodeContexts(decoders, payload, streamLengths, buffer, length);
+            return;
+        }
+
+        // Only the sub-streams that cover the requested prefix are needed
+        int part = length / streamLengths.length;
+        int offset = 0;
+        for (int stream = 0; stream < streamLengths.length && stream * part < limit; stream++) {
+            BitInputStream subStream = new BitInputStream(payload, offset, streamLengths[stream]);
+            int end = stream == streamLengths.length - 1 ? limit : Math.min(limit, (stream + 1) * part);
+            int previous = 0;
+            for (int index = stream * part; index < end; index++) {
+                previous = decoders[previous].decodeSymbol(subStream);
+                buffer[index] = (byte) previous;
+            }
+            offset += streamLengths[stream];
+        }
+    }
+
+    /**
+     * Decodes the first bytes of a block whose payload is split into interleaved sub-streams.
+     * A full block is decoded four symbols at a time, one from every sub-stream, so the work on
+     * the four symbols does not depend on each other.
+     *
+     * @param blockHeader The header of the block, already read from the input
+     * @param input The bit stream positioned at the start of the payload
+     * @param decoder Decoder for the block's table
+     * @param buffer Destination for the uncompressed bytes
+     * @param limit Number of bytes to decode, at most the block length
+     * @throws IOException If the block is corrupt or an I/O error occurs
+     */
+    private static void decodeInterleaved(BlockHeader blockHeader, BitInputStream input, HuffmanDecoder decoder,
+                                          byte[] buffer, int limit) throws IOException {
+        int length = blockHeader.getUncompressedLength();
+        long payloadLength = blockHeader.getPayloadLength();
+        if (payloadLength > (long) length * CanonicalCode.MAX_CODE_LENGTH / 8 + BlockHeader.STREAM_COUNT) {
+            throw new CorruptDataException("Corrupt payload length");
+        }
+        byte[] payload = payloadBuffers.get();
+        if (payload == null || payload.length < payloadLength) {
+            payload = new byte[(int) payloadLength];
+            payloadBuffers.set(payload);
+        }
+        input.readBytes(payload, 0, (int) payloadLength);
+
+        int[] streamLengths = blockHeader.getStreamLengths();
+        if (limit == length) {
+            decoder.decodeInterleaved(payload, streamLengths, buffer, length);
+            return;
+        }
+
+        // Only the sub-streams that cover the requested prefix are needed
+        int quarter = length / BlockHeader.STREAM_COUNT;
+        int offset = 0;
+        for (int stream = 0; stream < BlockHeader.STREAM_COUNT && stream * quarter < limit; stream++) {
+            BitInputStream subStream = new BitInputStream(payload, offset, streamLengths[stream]);
+            int end = stream == BlockHeader.STREAM_COUNT - 1 ? limit : Math.min(limit, (stream + 1) * quarter);
+            for (int index = stream * quarter; index < end; index++) {
+                buffer[index] = (byte) decoder.decodeSymbol(subStream);
+            }
+            offset += streamLengths[stream];
+        }
+    }
+
+    /**
+     * Decodes a range of blocks and writes them to their position in the output file.
+     */
+    @SuppressWarnings("serial")
+    private class DecodeTask extends RecursiveAction {
+
+        private FileChannel input;
+        private FileChannel output;
+        private ContainerHeader header;
+        private BlockIndex index;
+        private HuffmanDecoder sharedDecoder;
+        private int from;
+        private int to;
+
+        DecodeTask(FileChannel input, FileChannel output, ContainerHeader header, BlockIndex index,
+                   HuffmanDecoder sharedDecoder, int from, int to) {
+            this.input = input;
+            this.output = output;
+            this.header = header;
+            this.index = index;
+            this.sharedDecoder = sharedDecoder;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeTask(input, output, header, index, sharedDecoder, from, middle),
+                          new DecodeTask(input, output, header, index, sharedDecoder, middle, to));
+                return;
+            }
+            if (from == to || BlockCompressor.isStopping()) {
+                return;
+            }
+            try {
+                // Per-thread buffers for the compressed frame and the decoded block
+                byte[][] buffers = workBuffers.get();
+                if (buffers == null) {
+                    buffers = new byte[2][0];
+                    workBuffers.set(buffers);
+                }
+                int frameLength = index.getFrameLength(from);
+                if (buffers[0].length < frameLength) {
+                    buffers[0] = new byte[frameLength];
+                }
+                if (buffers[1].length < index.getUncompressedLength(from)) {
+                    buffers[1] = new byte[index.getUncompressedLength(from)];
+                }
+                byte[] frame = buffers[0];
+                byte[] block = buffers[1];
+
+                BitInputStream bitInput = readFrame(input, index, from, frame);
+                CompressionListener listener = options.getListener();
+                long start = listener != null ? System.nanoTime() : 0;
+                BlockHeader blockHeader = readBlockHeader(bitInput, index, from);
+                CodeTableCache tableCache = options.getTableCache();
+                decodeBlock(blockHeader, bitInput,
+                        referencedDecoder(input, index, from, blockHeader, sharedDecoder, tableCache), tableCache, block);
+                int length = blockHeader.getUncompressedLength();
+                if (listener != null) {
+                    long decoded = System.nanoTime();
+                    listener.phaseCompleted(CompressionListener.Phase.DECODE, decoded - start, length);
+                    start = decoded;
+                }
+
+                ByteBuffer blockBuffer = ByteBuffer.wrap(block, 0, length);
+                long position = index.getUncompressedOffset(from);
+                while (blockBuffer.hasRemaining()) {
+                    output.write(blockBuffer, position + blockBuffer.position());
+                }
+                if (listener != null) {
+                    listener.phaseCompleted(CompressionListener.Phase.WRITE, System.nanoTime() - start, length);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
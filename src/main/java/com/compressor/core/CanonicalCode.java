@@ -0,0 +1,75 @@
+package com.compressor.core;
+
+/**
+ * Helper methods for canonical Huffman codes.
+ * A canonical code is fully described by the code length of every symbol,
+ * which lets the encoder and decoder rebuild identical codes from the lengths alone.
+ */
+public final class CanonicalCode {
+
+    /** Number of symbols in the alphabet: one per byte value. */
+    public static final int ALPHABET_SIZE = 256;
+
+    /** Longest code length that fits the int code representation. */
+    public static final int MAX_CODE_LENGTH = 31;
+
+    /** Smallest code length limit that still fits all 256 symbols. */
+    public static final int MIN_LENGTH_LIMIT = 8;
+
+    private CanonicalCode() {
+    }
+
+    /**
+     * Assigns canonical codes to the symbols of the given code lengths.
+     * Shorter codes come first, and codes of equal length are ordered by symbol.
+     *
+     * @param lengths Code length per symbol, 0 for unused symbols
+     * @return Code per symbol, right-aligned, most significant bit first
+     * @throws IllegalArgumentException If a length exceeds {@link #MAX_CODE_LENGTH} or the lengths do not form a prefix code
+     */
+    public static int[] generateCodes(byte[] lengths) {
+        int maxLength = maxLength(lengths);
+        if (maxLength > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code length " + maxLength + " exceeds " + MAX_CODE_LENGTH);
+        }
+        int[] lengthCount = new int[maxLength + 1];
+        for (byte length : lengths) {
+            lengthCount[length]++;
+        }
+        lengthCount[0] = 0;
+
+        // First code of every length
+        int[] nextCode = new int[maxLength + 2];
+        // Computed in a long so that oversubscribed 31-bit lengths cannot wrap around the check
+        long code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCount[length - 1]) << 1;
+            if (code + lengthCount[length] > (1L << length)) {
+                throw new IllegalArgumentException("Code lengths are oversubscribed");
+            }
+            nextCode[length] = (int) code;
+        }
+
+        int[] codes = new int[lengths.length];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] != 0) {
+                codes[symbol] = nextCode[lengths[symbol]]++;
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Returns the longest code length in the table.
+     *
+     * @param lengths Code length per symbol
+     * @return The maximum code length, 0 if no symbol is used
+     */
+    public static int maxLength(byte[] lengths) {
+        int maxLength = 0;
+        for (byte length : lengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        return maxLength;
+    }
+}
@@ -0,0 +1,122 @@
+package com.compressor.core;
+
+import com.compressor.io.ContainerHeader;
+import com.compressor.io.HuffmanDecoder;
+
+/**
+ * A canonical Huffman code for the 256 byte values.
+ * Holds the code length and code of every byte value and knows how to estimate encoded sizes.
+ */
+public class CodeTable {
+
+    // Work arrays of the tree construction, reused by every table built on a thread
+    private static final ThreadLocal<HuffmanCodeBuilder> builders = ThreadLocal.withInitial(HuffmanCodeBuilder::new);
+
+    private byte[] lengths;
+    private int[] codes;
+
+    /**
+     * Creates a code table from canonical code lengths.
+     * 
+     * @param lengths Code length per byte value, 0 for unused values
+     * @throws IllegalArgumentException If the lengths do not form a valid canonical code
+     */
+    public CodeTable(byte[] lengths) {
+        this.lengths = lengths;
+        this.codes = CanonicalCode.generateCodes(lengths);
+    }
+
+    /**
+     * Builds the Huffman code for the given byte frequencies, limited to the default maximum code length.
+     * 
+     * @param frequencies Number of occurrences of every byte value
+     * @return The code table, or null if all frequencies are zero
+     */
+    public static CodeTable build(long[] frequencies) {
+        return build(frequencies, CompressionOptions.DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Builds the Huffman code for the given byte frequencies with no code longer than the given limit.
+     * 
+     * @param frequencies Number of occurrences of every byte value
+     * @param maxCodeLength Longest code length allowed, between {@link CanonicalCode#MIN_LENGTH_LIMIT} and {@link CanonicalCode#MAX_CODE_LENGTH}
+     * @return The code table, or null if all frequencies are zero
+     * @throws IllegalArgumentException If the length limit is out of range
+     */
+    public static CodeTable build(long[] frequencies, int maxCodeLength) {
+        byte[] lengths = new byte[CanonicalCode.ALPHABET_SIZE];
+        if (builders.get().buildLengths(frequencies, maxCodeLength, lengths) == 0) {
+            return null;
+        }
+        return new CodeTable(lengths);
+    }
+
+    /**
+     * Builds the Huffman code for the given byte frequencies and reports the time spent computing the code
+     * lengths and generating the codes.
+     * 
+     * @param frequencies Number of occurrences of every byte value
+     * @param maxCodeLength Longest code length allowed
+     * @param listener The listener that receives the timings
+     * @param bytes Number of bytes the frequencies were counted over
+     * @return The code table, or null if all frequencies are zero
+     */
+    static CodeTable build(long[] frequencies, int maxCodeLength, CompressionListener listener, long bytes) {
+        long start = System.nanoTime();
+        byte[] lengths = new byte[CanonicalCode.ALPHABET_SIZE];
+        if (builders.get().buildLengths(frequencies, maxCodeLength, lengths) == 0) {
+            return null;
+        }
+        long built = System.nanoTime();
+        CodeTable table = new CodeTable(lengths);
+        listener.phaseCompleted(CompressionListener.Phase.TREE_BUILD, built - start, bytes);
+        listener.phaseCompleted(CompressionListener.Phase.CODE_GENERATION, System.nanoTime() - built, bytes);
+        return table;
+    }
+
+    public byte[] getLengths() {
+        return lengths;
+    }
+
+    public int[] getCodes() {
+        return codes;
+    }
+
+    /**
+     * Returns the exact number of bits needed to encode data with the given frequencies.
+     * 
+     * @param frequencies Number of occurrences of every byte value
+     * @return The encoded size in bits, or -1 if a byte value that occurs has no code in this table
+     */
+    public long encodedBits(long[] frequencies) {
+        long bits = 0;
+        for (int i = 0; i < CanonicalCode.ALPHABET_SIZE; i++) {
+            if (frequencies[i] != 0) {
+                if (lengths[i] == 0) {
+                    return -1;
+                }
+                bits += frequencies[i] * lengths[i];
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the number of bytes this table takes when serialized in a header.
+     * 
+     * @return The serialized size in bytes
+     */
+    public int serializedSize() {
+        return ContainerHeader.codeLengthsSize(lengths);
+    }
+
+    /**
+     * Creates a table-driven decoder for this code.
+     * 
+     * @return A new decoder
+     */
+    public HuffmanDecoder newDecoder() {
+        return new HuffmanDecoder(lengths, codes);
+    }
+}
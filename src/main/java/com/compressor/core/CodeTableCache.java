@@ -0,0 +1,271 @@
+package com.compressor.core;
+
+import com.compressor.io.HuffmanDecoder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of built code tables and decoders, for workloads that compress or decompress many
+ * small payloads with similar byte distributions.
+ * <p>
+ * Encoder tables are keyed by a fingerprint of the histogram: the frequency of every common byte value quantized
+ * to {@code floor(log2(total / frequency)) + 1}, roughly the code length it deserves. Rare byte values are left
+ * out, so payloads that differ only in a few rare bytes share an entry. Histograms with the same fingerprint get
+ * the cached table when it has a code for every byte value used and its cost on the new histogram is within the
+ * accepted increase over the estimated cost of a freshly built table; the estimate scales the quantized cost of
+ * the new histogram by the ratio seen when the cached table was built. When a cached table lacks a code, it is
+ * rebuilt from the sum of both histograms so that later payloads find every value covered.
+ * Decoders are keyed by their exact code lengths.
+ * <p>
+ * Both maps evict their least recently used entry when full. The cache is thread-safe and is shared by
+ * setting it on the {@link CompressionOptions} of every compressor and decompressor that should use it.
+ */
+public class CodeTableCache {
+
+    /** Default number of tables kept in each map. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Byte values rarer than 1 in 2^RARE_LEVEL are left out of the fingerprint
+    private static final int RARE_LEVEL = 4;
+
+    private final int capacity;
+    private final double maxCostIncrease;
+    private final Map<Key, Entry> tables;
+    private final Map<Key, HuffmanDecoder> decoders;
+    private long hits = 0;
+    private long misses = 0;
+    private long decoderHits = 0;
+    private long decoderMisses = 0;
+
+    /**
+     * Creates a cache of {@link #DEFAULT_CAPACITY} entries that reuses a table only when it is estimated
+     * to be as good as a new one.
+     */
+    public CodeTableCache() {
+        this(DEFAULT_CAPACITY, 0);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity Number of tables kept in each map, at least 1
+     * @param maxCostIncrease How much larger the coded data may be with a cached table than with a new one,
+     *                        as a fraction, for example 0.01 for one percent
+     */
+    public CodeTableCache(int capacity, double maxCostIncrease) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        }
+        if (maxCostIncrease < 0) {
+            throw new IllegalArgumentException("Cost increase must not be negative");
+        }
+        this.capacity = capacity;
+        this.maxCostIncrease = maxCostIncrease;
+        this.tables = newLruMap();
+        this.decoders = newLruMap();
+    }
+
+    /**
+     * Returns a code table for the given byte frequencies, from the cache when a close enough table is cached.
+     *
+     * @param frequencies Number of occurrences of every byte value
+     * @param maxCodeLength Longest code length allowed
+     * @return The code table, or null if all frequencies are zero
+     * @throws IllegalArgumentException If the length limit is out of range
+     */
+    public CodeTable table(long[] frequencies, int maxCodeLength) {
+        long total = 0;
+        for (long frequency : frequencies) {
+            total += frequency;
+        }
+        if (total == 0) {
+            return null;
+        }
+        byte[] levels = new byte[CanonicalCode.ALPHABET_SIZE + 1];
+        long quantizedBits = 0;
+        for (int symbol = 0; symbol < CanonicalCode.ALPHABET_SIZE; symbol++) {
+            if (frequencies[symbol] != 0) {
+                int level = 64 - Long.numberOfLeadingZeros(total / frequencies[symbol]);
+                levels[symbol] = level <= RARE_LEVEL ? (byte) level : 0;
+                quantizedBits += frequencies[symbol] * level;
+            }
+        }
+        levels[CanonicalCode.ALPHABET_SIZE] = (byte) maxCodeLength;
+        Key key = new Key(levels);
+
+        Entry entry;
+        synchronized (this) {
+            entry = tables.get(key);
+        }
+        long bits = entry != null ? entry.table.encodedBits(frequencies) : -1;
+        // bits <= (1 + maxCostIncrease) * estimated bits, with the estimate scaled from the quantized cost
+        if (bits >= 0 && (double) bits * entry.quantizedBits <= (1 + maxCostIncrease) * quantizedBits * entry.bits) {
+            synchronized (this) {
+                hits++;
+            }
+            return entry.table;
+        }
+
+        CodeTable table = CodeTable.build(frequencies, maxCodeLength);
+        Entry update = new Entry(table, frequencies.clone(), table.encodedBits(frequencies), quantizedBits);
+        if (entry != null && bits < 0) {
+            // A rare byte value had no code: widen the cached table to every value seen with this fingerprint
+            long[] merged = frequencies.clone();
+            for (int symbol = 0; symbol < CanonicalCode.ALPHABET_SIZE; symbol++) {
+                merged[symbol] += entry.frequencies[symbol];
+            }
+            CodeTable mergedTable = CodeTable.build(merged, maxCodeLength);
+            update = new Entry(mergedTable, merged, mergedTable.encodedBits(merged), entry.quantizedBits + quantizedBits);
+        }
+        synchronized (this) {
+            misses++;
+            tables.put(key, update);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the decoder for the given code lengths, from the cache when it was built before.
+     *
+     * @param lengths Code length per byte value
+     * @return The decoder
+     * @throws IllegalArgumentException If the lengths do not form a valid canonical code
+     */
+    public HuffmanDecoder decoder(byte[] lengths) {
+        Key key = new Key(lengths);
+        synchronized (this) {
+            HuffmanDecoder decoder = decoders.get(key);
+            if (decoder != null) {
+                decoderHits++;
+                return decoder;
+            }
+        }
+        HuffmanDecoder decoder = new CodeTable(lengths).newDecoder();
+        synchronized (this) {
+            decoderMisses++;
+            decoders.put(new Key(lengths.clone()), decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * Returns a code table from the cache of the options if there is one, otherwise builds it. With a
+     * listener, a build is reported as tree building and code generation, and a cache lookup, including
+     * any build it needs, as tree building.
+     * 
+     * @param options Settings that provide the cache, the code length limit and the listener
+     * @param frequencies Number of occurrences of every byte value
+     * @return The code table, or null if all frequencies are zero
+     */
+    static CodeTable table(CompressionOptions options, long[] frequencies) {
+        CodeTableCache cache = options.getTableCache();
+        CompressionListener listener = options.getListener();
+        if (listener == null) {
+            return cache != null ? cache.table(frequencies, options.getMaxCodeLength())
+                    : CodeTable.build(frequencies, options.getMaxCodeLength());
+        }
+        long bytes = 0;
+        for (long frequency : frequencies) {
+            bytes += frequency;
+        }
+        if (cache == null) {
+            return CodeTable.build(frequencies, options.getMaxCodeLength(), listener, bytes);
+        }
+        long start = System.nanoTime();
+        CodeTable table = cache.table(frequencies, options.getMaxCodeLength());
+        listener.phaseCompleted(CompressionListener.Phase.TREE_BUILD, System.nanoTime() - start, bytes);
+        return table;
+    }
+
+    /**
+     * Returns a decoder from the cache if there is one, otherwise builds it.
+     *
+     * @param cache The cache, or null to always build
+     * @param lengths Code length per byte value
+     * @return The decoder
+     */
+    static HuffmanDecoder decoder(CodeTableCache cache, byte[] lengths) {
+        return cache != null ? cache.decoder(lengths) : new CodeTable(lengths).newDecoder();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getDecoderHits() {
+        return decoderHits;
+    }
+
+    public synchronized long getDecoderMisses() {
+        return decoderMisses;
+    }
+
+    /**
+     * Removes all tables and decoders. The counters are kept.
+     */
+    public synchronized void clear() {
+        tables.clear();
+        decoders.clear();
+    }
+
+    /**
+     * Creates an access-ordered map that drops its least recently used entry beyond the capacity.
+     *
+     * @return The map
+     */
+    private <V> Map<Key, V> newLruMap() {
+        return new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Map key over a byte array that is not modified after the key is created.
+     */
+    private static final class Key {
+
+        private final byte[] bytes;
+        private final int hash;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(bytes, ((Key) other).bytes);
+        }
+    }
+
+    /**
+     * A cached table with the histogram it was built for and its cost on that histogram.
+     */
+    private static final class Entry {
+
+        private final CodeTable table;
+        private final long[] frequencies;
+        private final long bits;
+        private final long quantizedBits;
+
+        Entry(CodeTable table, long[] frequencies, long bits, long quantizedBits) {
+            this.table = table;
+            this.frequencies = frequencies;
+            this.bits = bits;
+            this.quantizedBits = quantizedBits;
+        }
+    }
+}
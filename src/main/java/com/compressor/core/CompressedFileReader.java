@@ -0,0 +1,177 @@
+package com.compressor.core;
+
+import com.compressor.io.BitInputStream;
+import com.compressor.io.BlockHeader;
+import com.compressor.io.BlockIndex;
+import com.compressor.io.ContainerHeader;
+import com.compressor.io.HuffmanDecoder;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random-access reader for a compressed file.
+ * <p>
+ * The block index is loaded once when the reader is opened. A read then seeks to the blocks that cover
+ * the requested range and decodes only those, stopping inside the last block as soon as the range is complete,
+ * so the cost depends on the range and not on the size of the file. The most recently decoded block is kept,
+ * together with the last table reused from an earlier block, which makes small sequential reads cheap.
+ * Checksums are verified for blocks that are decoded in full.
+ * Instances are not thread-safe.
+ */
+public class CompressedFileReader implements AutoCloseable {
+
+    private FileChannel file;
+    private ContainerHeader header;
+    private BlockIndex index;
+    private HuffmanDecoder sharedDecoder;
+    private byte[] frame = new byte[0];
+    private byte[] block = new byte[0];
+    private int cachedBlock = -1;
+    private int cachedLength = 0;
+    private HuffmanDecoder tableDecoder;
+    private int tableBlock = -1;
+
+    /**
+     * Opens a compressed file for random access.
+     * 
+     * @param filePath Path to the compressed file
+     * @throws IOException If the file is not a valid container or an I/O error occurs
+     * @throws IllegalArgumentException If the shared code table is malformed
+     */
+    public CompressedFileReader(String filePath) throws IOException {
+        this(filePath, null);
+    }
+
+    /**
+     * Opens a compressed file written with a dictionary for random access.
+     * 
+     * @param filePath Path to the compressed file
+     * @param dictionary The dictionary the file was written with, or null if there is none
+     * @throws IOException If the file is not a valid container, the dictionary is missing or an I/O error occurs
+     * @throws IllegalArgumentException If the shared code table is malformed
+     */
+    public CompressedFileReader(String filePath, HuffmanDictionary dictionary) throws IOException {
+        this.file = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        try {
+            this.header = BlockDecompressor.readHeader(file);
+            this.index = BlockDecompressor.readIndex(file, header);
+            this.sharedDecoder = BlockDecompressor.sharedDecoder(header, dictionary, null);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the length of the original data.
+     * 
+     * @return The uncompressed length in bytes
+     */
+    public long length() {
+        return index.getUncompressedLength();
+    }
+
+    /**
+     * Reads bytes of the original data starting at the given position.
+     * 
+     * @param position Offset in the original data
+     * @param destination Array that receives the bytes
+     * @param offset Offset in the destination array
+     * @param length Maximum number of bytes to read
+     * @return Number of bytes read, which is less than length only at the end of the data, or -1 if position is at or past the end
+     * @throws IOException If the data is corrupt or an I/O error occurs
+     */
+    public int read(long position, byte[] destination, int offset, int length) throws IOException {
+        if (position < 0 || offset < 0 || length < 0 || offset + length > destination.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (position >= length()) {
+            return -1;
+        }
+
+        int count = (int) Math.min(length, length() - position);
+        int copied = 0;
+        int current = index.findBlock(position);
+        while (copied < count) {
+            long blockStart = index.getUncompressedOffset(current);
+            int start = (int) (position + copied - blockStart);
+            int needed = Math.min(index.getUncompressedLength(current), start + count - copied);
+            decode(current, needed);
+            int chunk = needed - start;
+            System.arraycopy(block, start, destination, offset + copied, chunk);
+            copied += chunk;
+            current++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads a range of the original data.
+     * 
+     * @param position Offset in the original data
+     * @param length Number of bytes to read
+     * @return The bytes, shorter than length if the range extends past the end of the data
+     * @throws IOException If the data is corrupt or an I/O error occurs
+     */
+    public byte[] readRange(long position, int length) throws IOException {
+        byte[] range = new byte[(int) Math.max(0, Math.min(length, length() - position))];
+        if (range.length > 0) {
+            read(position, range, 0, range.length);
+        }
+        return range;
+    }
+
+    /**
+     * Makes sure the first bytes of a block are decoded into the block buffer.
+     * 
+     * @param blockNumber The block to decode
+     * @param needed Number of bytes of the block that must be available
+     * @throws IOException If the block is corrupt or an I/O error occurs
+     */
+    private void decode(int blockNumber, int needed) throws IOException {
+        if (cachedBlock == blockNumber && cachedLength >= needed) {
+            return;
+        }
+        if (frame.length < index.getFrameLength(blockNumber)) {
+            frame = new byte[index.getFrameLength(blockNumber)];
+        }
+        if (block.length < index.getUncompressedLength(blockNumber)) {
+            block = new byte[index.getUncompressedLength(blockNumber)];
+        }
+        cachedBlock = -1;
+        BitInputStream bitInput = BlockDecompressor.readFrame(file, index, blockNumber, frame);
+        BlockHeader blockHeader = BlockDecompressor.readBlockHeader(bitInput, index, blockNumber);
+        HuffmanDecoder referencedDecoder = null;
+        if (blockHeader.getType() == BlockHeader.TYPE_SHARED_TABLE) {
+            referencedDecoder = sharedDecoder;
+        } else if (blockHeader.getType() == BlockHeader.TYPE_PREVIOUS_TABLE) {
+            int referenced = blockNumber - blockHeader.getTableDistance();
+            if (referenced != tableBlock) {
+                tableDecoder = BlockDecompressor.referencedDecoder(file, index, blockNumber, blockHeader, sharedDecoder,
+                        null);
+                tableBlock = referenced;
+            }
+            referencedDecoder = tableDecoder;
+        }
+        HuffmanDecoder decoder = BlockDecompressor.decodeBlock(blockHeader, bitInput, referencedDecoder, null, block,
+                needed);
+        if (blockHeader.getType() == BlockHeader.TYPE_OWN_TABLE) {
+            tableDecoder = decoder;
+            tableBlock = blockNumber;
+        }
+        cachedBlock = blockNumber;
+        cachedLength = needed;
+    }
+
+    /**
+     * Closes the compressed file.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,83 @@
+package com.compressor.core;
+
+import java.io.IOException;
+
+/**
+ * Receives timings and sizes from the compression and decompression pipeline.
+ * <p>
+ * A listener is set with {@link CompressionOptions#setListener(CompressionListener)} and is called by every
+ * compressor, decompressor, stream and context that uses those options. Without a listener the pipeline does
+ * not read the clock at all. Phases are reported once per block, from the worker threads that code the blocks,
+ * so implementations must be thread-safe and should return quickly. {@link CompressionMetrics} is an
+ * implementation that adds everything up.
+ */
+public interface CompressionListener {
+
+    /**
+     * A step of the pipeline.
+     */
+    enum Phase {
+        /** Counting the byte histogram of a block. */
+        HISTOGRAM,
+        /** Computing code lengths from a histogram, or looking them up in the table cache. */
+        TREE_BUILD,
+        /** Deriving the canonical codes from the code lengths. */
+        CODE_GENERATION,
+        /** Huffman coding a block into its payload. */
+        ENCODE,
+        /** Writing block frames or decoded blocks to the output. */
+        WRITE,
+        /** Decoding a block and verifying its checksum. */
+        DECODE
+    }
+
+    /**
+     * Called when a phase has finished work on one block.
+     *
+     * @param phase The phase
+     * @param nanos Time spent, in nanoseconds
+     * @param bytes Number of bytes processed: compressed bytes for {@link Phase#WRITE} during compression,
+     *              otherwise uncompressed bytes, one per symbol
+     */
+    default void phaseCompleted(Phase phase, long nanos, long bytes) {
+    }
+
+    /**
+     * Called when a code table is stored in the compressed output, in a container header or a block header.
+     * The context groups and tables of a block coded with context tables are reported together.
+     *
+     * @param bytes Serialized size of the table, or of the groups and tables
+     */
+    default void tableStored(int bytes) {
+    }
+
+    /**
+     * Called when a container has been written.
+     *
+     * @param inputBytes Number of uncompressed bytes
+     * @param outputBytes Size of the container
+     * @param nanos Time from the start of the container to its end, in nanoseconds
+     */
+    default void compressed(long inputBytes, long outputBytes, long nanos) {
+    }
+
+    /**
+     * Called when a container has been read to its end.
+     *
+     * @param inputBytes Size of the container; when it is read as a stream, the bytes up to the end-of-blocks
+     *                   marker, without the block index
+     * @param outputBytes Number of uncompressed bytes
+     * @param nanos Time from the start of the container to its end, in nanoseconds
+     */
+    default void decompressed(long inputBytes, long outputBytes, long nanos) {
+    }
+
+    /**
+     * Called when a file operation of {@link HuffmanCompressor} fails, including those whose methods only
+     * return a status code.
+     *
+     * @param error The error
+     */
+    default void failed(IOException error) {
+    }
+}
@@ -0,0 +1,237 @@
+package com.compressor.core;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Listener that adds up the timings and sizes reported by the pipeline, for monitoring and alerting.
+ * <p>
+ * Counters are striped {@link LongAdder}s, so many threads can report at once without contending.
+ * The totals can be read directly or exported as an MXBean with {@link #register(String)}:
+ *
+ * <pre>
+ * CompressionMetrics metrics = new CompressionMetrics();
+ * options.setListener(metrics);
+ * metrics.register("events");   // com.compressor:type=CompressionMetrics,name=events
+ * </pre>
+ */
+public class CompressionMetrics implements CompressionListener, CompressionMetricsMXBean {
+
+    private static final CompressionListener.Phase[] PHASES = CompressionListener.Phase.values();
+
+    private final LongAdder[] phaseNanos = newAdders(PHASES.length);
+    private final LongAdder[] phaseBytes = newAdders(PHASES.length);
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder compressionInputBytes = new LongAdder();
+    private final LongAdder compressionOutputBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressions = new LongAdder();
+    private final LongAdder decompressionInputBytes = new LongAdder();
+    private final LongAdder decompressionOutputBytes = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder storedTables = new LongAdder();
+    private final LongAdder storedTableBytes = new LongAdder();
+
+    @Override
+    public void phaseCompleted(Phase phase, long nanos, long bytes) {
+        phaseNanos[phase.ordinal()].add(nanos);
+        phaseBytes[phase.ordinal()].add(bytes);
+    }
+
+    @Override
+    public void tableStored(int bytes) {
+        storedTables.increment();
+        storedTableBytes.add(bytes);
+    }
+
+    @Override
+    public void compressed(long inputBytes, long outputBytes, long nanos) {
+        compressions.increment();
+        compressionInputBytes.add(inputBytes);
+        compressionOutputBytes.add(outputBytes);
+        compressionNanos.add(nanos);
+    }
+
+    @Override
+    public void decompressed(long inputBytes, long outputBytes, long nanos) {
+        decompressions.increment();
+        decompressionInputBytes.add(inputBytes);
+        decompressionOutputBytes.add(outputBytes);
+        decompressionNanos.add(nanos);
+    }
+
+    @Override
+    public void failed(IOException error) {
+        failures.increment();
+    }
+
+    /**
+     * Returns the time spent in a phase.
+     *
+     * @param phase The phase
+     * @return Nanoseconds summed over all threads
+     */
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of bytes a phase processed.
+     *
+     * @param phase The phase
+     * @return The byte count
+     */
+    public long getBytes(Phase phase) {
+        return phaseBytes[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the throughput of a phase on one thread.
+     *
+     * @param phase The phase
+     * @return Symbols per second of time spent in the phase, or 0 if the phase has not run
+     */
+    public double getSymbolsPerSecond(Phase phase) {
+        long nanos = getNanos(phase);
+        return nanos > 0 ? getBytes(phase) * 1e9 / nanos : 0;
+    }
+
+    @Override
+    public long getCompressions() {
+        return compressions.sum();
+    }
+
+    @Override
+    public long getCompressionInputBytes() {
+        return compressionInputBytes.sum();
+    }
+
+    @Override
+    public long getCompressionOutputBytes() {
+        return compressionOutputBytes.sum();
+    }
+
+    @Override
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long output = getCompressionOutputBytes();
+        return output > 0 ? (double) getCompressionInputBytes() / output : 0;
+    }
+
+    @Override
+    public long getDecompressions() {
+        return decompressions.sum();
+    }
+
+    @Override
+    public long getDecompressionInputBytes() {
+        return decompressionInputBytes.sum();
+    }
+
+    @Override
+    public long getDecompressionOutputBytes() {
+        return decompressionOutputBytes.sum();
+    }
+
+    @Override
+    public long getDecompressionNanos() {
+        return decompressionNanos.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getStoredTables() {
+        return storedTables.sum();
+    }
+
+    @Override
+    public long getStoredTableBytes() {
+        return storedTableBytes.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanos() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            values.put(phase.name(), getNanos(phase));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseBytes() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            values.put(phase.name(), getBytes(phase));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseSymbolsPerSecond() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            values.put(phase.name(), getSymbolsPerSecond(phase));
+        }
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            phaseNanos[phase].reset();
+            phaseBytes[phase].reset();
+        }
+        for (LongAdder counter : new LongAdder[] {compressions, compressionInputBytes, compressionOutputBytes,
+                compressionNanos, decompressions, decompressionInputBytes, decompressionOutputBytes, decompressionNanos,
+                failures, storedTables, storedTableBytes}) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param name Value of the {@code name} key that tells this instance apart from others, without
+     *             commas, colons, equals signs or quotes
+     * @return The object name the metrics are registered under
+     * @throws JMException If the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.compressor:type=CompressionMetrics,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Removes the metrics registered under an object name from the platform MBean server.
+     *
+     * @param objectName The name returned by {@link #register(String)}
+     * @throws JMException If nothing is registered under the name
+     */
+    public static void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int index = 0; index < count; index++) {
+            adders[index] = new LongAdder();
+        }
+        return adders;
+    }
+}
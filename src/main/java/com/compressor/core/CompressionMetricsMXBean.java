@@ -0,0 +1,56 @@
+package com.compressor.core;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link CompressionMetrics}, exported over JMX.
+ * Per-phase values are keyed by the {@link CompressionListener.Phase} name.
+ */
+public interface CompressionMetricsMXBean {
+
+    long getCompressions();
+
+    long getCompressionInputBytes();
+
+    long getCompressionOutputBytes();
+
+    long getCompressionNanos();
+
+    /**
+     * Returns the uncompressed size of all containers written divided by their compressed size.
+     *
+     * @return The compression ratio, or 0 if nothing was compressed
+     */
+    double getCompressionRatio();
+
+    long getDecompressions();
+
+    long getDecompressionInputBytes();
+
+    long getDecompressionOutputBytes();
+
+    long getDecompressionNanos();
+
+    long getFailures();
+
+    long getStoredTables();
+
+    long getStoredTableBytes();
+
+    Map<String, Long> getPhaseNanos();
+
+    Map<String, Long> getPhaseBytes();
+
+    /**
+     * Returns the throughput of every phase, in symbols per second of time spent in the phase.
+     * Time is summed over the threads that ran the phase, so this is the throughput of one thread.
+     *
+     * @return Symbols per second by phase
+     */
+    Map<String, Double> getPhaseSymbolsPerSecond();
+
+    /**
+     * Sets all counters back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,199 @@
+package com.compressor.core;
+
+/**
+ * Settings for block-mode compression.
+ */
+public class CompressionOptions {
+
+    /** Default uncompressed size of a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /** Largest block size the compressor will use. */
+    public static final int MAX_BLOCK_SIZE = 64 << 20;
+
+    /**
+     * Default limit on code lengths. Codes of up to 15 bits keep tables in their compact nibble form
+     * and are always resolved by the decoder's lookup tables.
+     */
+    public static final int DEFAULT_MAX_CODE_LENGTH = 15;
+
+    /** Smallest memory budget {@link #setMemoryBudget(long)} accepts. */
+    public static final long MIN_MEMORY_BUDGET = 4 << 20;
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private double maxRatioLoss = 0.01;
+    private int maxCodeLength = DEFAULT_MAX_CODE_LENGTH;
+    private boolean interleaved = true;
+    private boolean contextModeling = false;
+    private long memoryBudget = 0;
+    private boolean compactFraming = false;
+    private CodeTableCache tableCache;
+    private CompressionListener listener;
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the uncompressed size of a block.
+     *
+     * @param blockSize Block size in bytes, between 1 and {@link #MAX_BLOCK_SIZE}
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of worker threads used to process blocks.
+     *
+     * @param parallelism Number of threads, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public double getMaxRatioLoss() {
+        return maxRatioLoss;
+    }
+
+    /**
+     * Sets how much larger the block-mode output may be than a single block covering the whole input,
+     * as a fraction of the single-block size. Blocks are merged until the estimate is within this margin.
+     *
+     * @param maxRatioLoss The accepted size increase, for example 0.01 for one percent
+     */
+    public void setMaxRatioLoss(double maxRatioLoss) {
+        if (maxRatioLoss < 0) {
+            throw new IllegalArgumentException("Ratio loss must not be negative");
+        }
+        this.maxRatioLoss = maxRatioLoss;
+    }
+
+    public int getMaxCodeLength() {
+        return maxCodeLength;
+    }
+
+    /**
+     * Sets the longest code length the compressor may use. Lower limits bound the work per decoded symbol
+     * at the cost of slightly larger output for very skewed data.
+     *
+     * @param maxCodeLength Code length limit in bits, between {@link CanonicalCode#MIN_LENGTH_LIMIT} and {@link CanonicalCode#MAX_CODE_LENGTH}
+     */
+    public void setMaxCodeLength(int maxCodeLength) {
+        if (maxCodeLength < CanonicalCode.MIN_LENGTH_LIMIT || maxCodeLength > CanonicalCode.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code length limit must be between " + CanonicalCode.MIN_LENGTH_LIMIT
+                    + " and " + CanonicalCode.MAX_CODE_LENGTH);
+        }
+        this.maxCodeLength = maxCodeLength;
+    }
+
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+    /**
+     * Sets whether blocks are split into interleaved sub-streams that the decoder reads side by side.
+     * Interleaving costs a few bytes per block and lets decoding overlap the work on four symbols.
+     *
+     * @param interleaved true to write interleaved blocks, false for a single stream per block
+     */
+    public void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
+    public boolean isContextModeling() {
+        return contextModeling;
+    }
+
+    /**
+     * Sets whether blocks may be coded with order-1 context tables, one table per group of preceding byte
+     * values. A block uses them only when they make it smaller, tables included, which is usually the case
+     * for text and logs. Compression then counts byte pairs and clusters them for every block of at least
+     * 4 KB, and decoding picks a table per byte; both stay table-driven but run slower than order-0 coding.
+     *
+     * @param contextModeling true to consider context tables for every block, false for order-0 coding only
+     */
+    public void setContextModeling(boolean contextModeling) {
+        this.contextModeling = contextModeling;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Bounds the buffers that compressing or decompressing one file holds, whatever the size of the file.
+     * With a budget, a file is read once. The buffers of a few blocks are reused for consecutive windows of the
+     * file. Every block is coded with its own table, the table of an earlier block, a dictionary's table or context
+     * tables, never with a table built from the whole file. The block size and the number of blocks coded at once are
+     * lowered until they fit, so that the same budget also decodes the result. Decompression runs only as
+     * many workers as the budget allows. It fails on a container whose blocks do not fit. Streams and encoder and
+     * decoder contexts lower the block size in the same way, and their decoders check every block at its own
+     * length. The block index is not counted; it takes 36 bytes per block.
+     *
+     * @param memoryBudget Budget in bytes, at least {@link #MIN_MEMORY_BUDGET}, or 0 for no bound
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget != 0 && memoryBudget < MIN_MEMORY_BUDGET) {
+            throw new IllegalArgumentException("Memory budget must be 0 or at least " + MIN_MEMORY_BUDGET);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public boolean isCompactFraming() {
+        return compactFraming;
+    }
+
+    /**
+     * Sets whether arrays and streams whose data fits in one block are written as compact frames. A compact frame
+     * replaces the container header with a few bytes and has no end marker or block index, which saves about
+     * 40 bytes per message. It is read by {@link DecoderContext}, {@link HuffmanInputStream} and
+     * {@link HuffmanCompressor#decompress(String)}, but not by {@link CompressedFileReader}. A stream that is
+     * flushed before it is closed, or that outgrows one block, is written as a regular container. Files compressed
+     * by {@link HuffmanCompressor} always are.
+     *
+     * @param compactFraming true to write single-block data as compact frames
+     */
+    public void setCompactFraming(boolean compactFraming) {
+        this.compactFraming = compactFraming;
+    }
+
+    public CodeTableCache getTableCache() {
+        return tableCache;
+    }
+
+    /**
+     * Sets the cache that code tables and decoders are taken from instead of being built for every block.
+     * One cache can be shared by any number of compressors, decompressors and threads.
+     *
+     * @param tableCache The cache, or null to build every table
+     */
+    public void setTableCache(CodeTableCache tableCache) {
+        this.tableCache = tableCache;
+    }
+
+    public CompressionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener that receives per-phase timings and sizes. Without a listener, the default,
+     * nothing is measured.
+     *
+     * @param listener The listener, or null to turn instrumentation off
+     */
+    public void setListener(CompressionListener listener) {
+        this.listener = listener;
+    }
+}
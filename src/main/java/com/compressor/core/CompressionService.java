@@ -0,0 +1,211 @@
+package com.compressor.core;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many compression and decompression jobs at the same time, each with its own input and output file.
+ * <p>
+ * Jobs run on virtual threads when the JDK provides them (Java 21 and later), otherwise on a fixed pool of
+ * platform threads, or on an executor supplied by the caller. At most {@code maxPendingJobs} jobs are queued or
+ * running at once; submitting another blocks the caller until a job finishes, so producers cannot run ahead of
+ * the disks. Results are delivered through {@link CompletableFuture}s, which complete exceptionally with the
+ * job's {@link IOException} on failure.
+ * <p>
+ * The jobs share the {@link CompressionOptions#getParallelism()} of the options: a job may code the blocks of its
+ * file on a pool of {@code parallelism / maxPendingJobs} threads, so all the jobs together start no more block
+ * workers than the parallelism. With at least as many pending jobs as the parallelism, which is usual with virtual
+ * threads, every job runs entirely on the thread the service gives it and starts no pool; so does a job whose file
+ * fits in one block.
+ * The service is thread-safe.
+ */
+public class CompressionService implements AutoCloseable {
+
+    private final HuffmanCompressor compressor;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Semaphore permits;
+    private final int maxPendingJobs;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a service that runs jobs on virtual threads, or on {@link CompressionOptions#getParallelism()}
+     * platform threads when the JDK has no virtual threads.
+     *
+     * @param options Settings used by every job
+     * @param maxPendingJobs Most jobs queued or running at once, at least 1
+     */
+    public CompressionService(CompressionOptions options, int maxPendingJobs) {
+        this(options, maxPendingJobs, newDefaultExecutor(options), true);
+    }
+
+    /**
+     * Creates a service that runs jobs on the given executor. The executor is not shut down by {@link #close()}.
+     *
+     * @param options Settings used by every job
+     * @param maxPendingJobs Most jobs queued or running at once, at least 1
+     * @param executor The executor that runs the jobs
+     */
+    public CompressionService(CompressionOptions options, int maxPendingJobs, ExecutorService executor) {
+        this(options, maxPendingJobs, executor, false);
+    }
+
+    private CompressionService(CompressionOptions options, int maxPendingJobs, ExecutorService executor,
+                               boolean ownsExecutor) {
+        if (maxPendingJobs <= 0) {
+            throw new IllegalArgumentException("Pending job limit must be at least 1");
+        }
+        this.compressor = new HuffmanCompressor(options, maxPendingJobs);
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.ownsExecutor = ownsExecutor;
+        this.permits = new Semaphore(maxPendingJobs);
+        this.maxPendingJobs = maxPendingJobs;
+    }
+
+    /**
+     * Queues the compression of a file, waiting while the service is at its pending job limit.
+     *
+     * @param input The file to compress
+     * @param output The file that receives the container
+     * @return Future of the compressed size in bytes
+     * @throws InterruptedException If the caller is interrupted while waiting for room
+     */
+    public CompletableFuture<Long> compress(Path input, Path output) throws InterruptedException {
+        return compress(input, output, null);
+    }
+
+    /**
+     * Queues the compression of a file with a dictionary, waiting while the service is at its pending job limit.
+     *
+     * @param input The file to compress
+     * @param output The file that receives the container
+     * @param dictionary The dictionary, or null to store a shared table in the file
+     * @return Future of the compressed size in bytes
+     * @throws InterruptedException If the caller is interrupted while waiting for room
+     */
+    public CompletableFuture<Long> compress(Path input, Path output, HuffmanDictionary dictionary)
+            throws InterruptedException {
+        return submit(() -> compressor.compress(input, output, dictionary));
+    }
+
+    /**
+     * Queues the decompression of a file, waiting while the service is at its pending job limit.
+     *
+     * @param input The compressed file
+     * @param output The file that receives the original data
+     * @return Future of the number of bytes written
+     * @throws InterruptedException If the caller is interrupted while waiting for room
+     */
+    public CompletableFuture<Long> decompress(Path input, Path output) throws InterruptedException {
+        return decompress(input, output, null);
+    }
+
+    /**
+     * Queues the decompression of a file written with a dictionary, waiting while the service is at its
+     * pending job limit.
+     *
+     * @param input The compressed file
+     * @param output The file that receives the original data
+     * @param dictionary The dictionary the file was written with, or null if there is none
+     * @return Future of the number of bytes written
+     * @throws InterruptedException If the caller is interrupted while waiting for room
+     */
+    public CompletableFuture<Long> decompress(Path input, Path output, HuffmanDictionary dictionary)
+            throws InterruptedException {
+        return submit(() -> compressor.decompress(input, output, dictionary));
+    }
+
+    /**
+     * Returns the number of jobs queued or running.
+     *
+     * @return The pending job count
+     */
+    public int getPendingJobs() {
+        return maxPendingJobs - permits.availablePermits();
+    }
+
+    /**
+     * Stops accepting jobs and waits for the pending ones to finish. If the caller is interrupted while waiting,
+     * it stops waiting and returns with its interrupt status set; the pending jobs still run to completion.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (ownsExecutor) {
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // Keep waiting: jobs on large files can run for minutes
+                }
+            } else {
+                permits.acquire(maxPendingJobs);
+                permits.release(maxPendingJobs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands a job to the executor once a pending slot is free.
+     *
+     * @param job The job
+     * @return Future of the job's result
+     * @throws InterruptedException If the caller is interrupted while waiting for room
+     * @throws IllegalStateException If the service is closed
+     */
+    private CompletableFuture<Long> submit(Job job) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Service is closed");
+        }
+        permits.acquire();
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(job.run());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task, looked up reflectively so that the
+     * library still runs on older JDKs, where a fixed pool of platform threads is used instead.
+     *
+     * @param options Settings that provide the pool size
+     * @return The executor
+     */
+    private static ExecutorService newDefaultExecutor(CompressionOptions options) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(options.getParallelism());
+        }
+    }
+
+    /**
+     * A compression or decompression job.
+     */
+    private interface Job {
+
+        long run() throws IOException;
+    }
+}
@@ -0,0 +1,339 @@
+package com.compressor.core;
+
+import com.compressor.io.BitOutputStream;
+import com.compressor.io.BlockHeader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Order-1 context model of a block: a code table per group of preceding byte values.
+ * <p>
+ * In text and logs the next byte depends strongly on the one before it, which a single table over the
+ * byte histogram cannot exploit. A model counts how often every byte value follows every other one, clusters
+ * the 256 preceding byte values into at most {@link BlockHeader#MAX_CONTEXT_GROUPS} groups with similar
+ * distributions, and builds one table per group. Clustering keeps the tables stored in the block header
+ * small; the group count that gives the smallest block including its tables is kept.
+ * <p>
+ * Groups are found by k-means: seeded with the most frequent contexts, every context moves to the group
+ * whose estimated code lengths code its bytes in the fewest bits, then the group histograms are recounted.
+ */
+final class ContextModel {
+
+    // Shorter blocks cannot repay the context groups and the tables they store
+    static final int MIN_LENGTH = 4096;
+
+    // Passes of k-means; assignments rarely change after the first few
+    private static final int ITERATIONS = 6;
+
+    // Work arrays of the order-1 counting, reused by every model built on a thread
+    private static final ThreadLocal<int[]> pairCounts =
+            ThreadLocal.withInitial(() -> new int[BlockHeader.CONTEXT_COUNT * CanonicalCode.ALPHABET_SIZE]);
+
+    private byte[] contextGroups;
+    private CodeTable[] tables;
+    private long encodedBits;
+
+    private ContextModel(byte[] contextGroups, CodeTable[] tables, long encodedBits) {
+        this.contextGroups = contextGroups;
+        this.tables = tables;
+        this.encodedBits = encodedBits;
+    }
+
+    /**
+     * Builds the context model of a block.
+     *
+     * @param data Array holding the block
+     * @param offset Offset of the block in the array
+     * @param length Number of bytes in the block
+     * @param interleaved Whether the block will be coded as interleaved sub-streams, each starting in context 0
+     * @param options Settings that provide the code length limit and listener
+     * @return The model, or null if the block is shorter than {@link #MIN_LENGTH} or has a single context
+     */
+    static ContextModel build(byte[] data, int offset, int length, boolean interleaved, CompressionOptions options) {
+        if (length < MIN_LENGTH) {
+            return null;
+        }
+        CompressionListener listener = options.getListener();
+        long start = listener != null ? System.nanoTime() : 0;
+        int[] counts = pairCounts.get();
+        Arrays.fill(counts, 0);
+        int streams = interleaved ? BlockHeader.STREAM_COUNT : 1;
+        for (int stream = 0; stream < streams; stream++) {
+            int previous = 0;
+            int end = stream == streams - 1 ? offset + length : offset + (stream + 1) * (length / streams);
+            for (int index = offset + stream * (length / streams); index < end; index++) {
+                int symbol = data[index] & 0xFF;
+                counts[previous << 8 | symbol]++;
+                previous = symbol;
+            }
+        }
+
+        // Sparse form of the counts: the symbols that follow every context and their frequencies
+        int[] contextStart = new int[BlockHeader.CONTEXT_COUNT + 1];
+        long[] contextTotals = new long[BlockHeader.CONTEXT_COUNT];
+        int pairs = 0;
+        for (int pair = 0; pair < counts.length; pair++) {
+            if (counts[pair] != 0) {
+                pairs++;
+                contextTotals[pair >>> 8] += counts[pair];
+            }
+            if ((pair & 0xFF) == 0xFF) {
+                contextStart[(pair >>> 8) + 1] = pairs;
+            }
+        }
+        int[] symbols = new int[pairs];
+        int[] frequencies = new int[pairs];
+        for (int pair = 0, next = 0; pair < counts.length; pair++) {
+            if (counts[pair] != 0) {
+                symbols[next] = pair & 0xFF;
+                frequencies[next++] = counts[pair];
+            }
+        }
+        if (listener != null) {
+            listener.phaseCompleted(CompressionListener.Phase.HISTOGRAM, System.nanoTime() - start, length);
+            start = System.nanoTime();
+        }
+
+        // Contexts that occur, most frequent first
+        Integer[] sorted = new Integer[BlockHeader.CONTEXT_COUNT];
+        for (int context = 0; context < sorted.length; context++) {
+            sorted[context] = context;
+        }
+        Arrays.sort(sorted, (a, b) -> Long.compare(contextTotals[b], contextTotals[a]));
+        int active = 0;
+        while (active < sorted.length && contextTotals[sorted[active]] > 0) {
+            active++;
+        }
+        int[] contexts = new int[active];
+        for (int context = 0; context < active; context++) {
+            contexts[context] = sorted[context];
+        }
+        if (active < 2) {
+            return null;
+        }
+
+        ContextModel best = null;
+        long bestCost = Long.MAX_VALUE;
+        for (int groupCount = 2; ; groupCount *= 2) {
+            ContextModel model = cluster(contexts, contextStart, symbols, frequencies, Math.min(groupCount, active),
+                    options.getMaxCodeLength());
+            long cost = model.encodedBits + 8L * model.serializedSize();
+            if (cost < bestCost) {
+                best = model;
+                bestCost = cost;
+            }
+            if (groupCount >= Math.min(active, BlockHeader.MAX_CONTEXT_GROUPS)) {
+                break;
+            }
+        }
+        if (listener != null) {
+            listener.phaseCompleted(CompressionListener.Phase.TREE_BUILD, System.nanoTime() - start, length);
+        }
+        return best;
+    }
+
+    /**
+     * Clusters the contexts into groups and builds the table of every group.
+     *
+     * @param contexts The contexts that occur, most frequent first
+     * @param contextStart Index of the first symbol of every context in the sparse counts
+     * @param symbols Symbols that follow the contexts
+     * @param frequencies Number of times every symbol follows its context
+     * @param groupCount Number of groups to seed, at most the number of contexts
+     * @param maxCodeLength Longest code length allowed
+     * @return The model; groups that end up empty are dropped
+     */
+    private static ContextModel cluster(int[] contexts, int[] contextStart, int[] symbols, int[] frequencies,
+                                        int groupCount, int maxCodeLength) {
+        long[][] histograms = new long[groupCount][CanonicalCode.ALPHABET_SIZE];
+        float[][] costs = new float[groupCount][CanonicalCode.ALPHABET_SIZE];
+        byte[] contextGroups = new byte[BlockHeader.CONTEXT_COUNT];
+        for (int group = 0; group < groupCount; group++) {
+            contextGroups[contexts[group]] = (byte) group;
+        }
+        for (int context = groupCount; context < contexts.length; context++) {
+            contextGroups[contexts[context]] = -1;
+        }
+        count(contexts, contextStart, symbols, frequencies, contextGroups, histograms);
+
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int group = 0; group < groupCount; group++) {
+                estimateCosts(histograms[group], costs[group]);
+            }
+            boolean changed = false;
+            for (int context : contexts) {
+                int bestGroup = 0;
+                float bestBits = Float.MAX_VALUE;
+                for (int group = 0; group < groupCount; group++) {
+                    float[] cost = costs[group];
+                    float bits = 0;
+                    for (int pair = contextStart[context]; pair < contextStart[context + 1]; pair++) {
+                        bits += frequencies[pair] * cost[symbols[pair]];
+                    }
+                    if (bits < bestBits) {
+                        bestBits = bits;
+                        bestGroup = group;
+                    }
+                }
+                if (contextGroups[context] != bestGroup) {
+                    contextGroups[context] = (byte) bestGroup;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+            for (long[] histogram : histograms) {
+                Arrays.fill(histogram, 0);
+            }
+            count(contexts, contextStart, symbols, frequencies, contextGroups, histograms);
+        }
+
+        // Number the groups that kept a context consecutively and build their tables
+        int[] renumbered = new int[groupCount];
+        CodeTable[] tables = new CodeTable[groupCount];
+        int used = 0;
+        long bits = 0;
+        for (int group = 0; group < groupCount; group++) {
+            CodeTable table = CodeTable.build(histograms[group], maxCodeLength);
+            if (table != null) {
+                renumbered[group] = used;
+                tables[used++] = table;
+                bits += table.encodedBits(histograms[group]);
+            }
+        }
+        for (int context = 0; context < contextGroups.length; context++) {
+            // Contexts that never occur keep group 0
+            contextGroups[context] = (byte) renumbered[contextGroups[context]];
+        }
+        return new ContextModel(contextGroups, Arrays.copyOf(tables, used), bits);
+    }
+
+    /**
+     * Adds the counts of every context to the histogram of its group.
+     *
+     * @param contexts The contexts that occur
+     * @param contextStart Index of the first symbol of every context in the sparse counts
+     * @param symbols Symbols that follow the contexts
+     * @param frequencies Number of times every symbol follows its context
+     * @param contextGroups Group of every context, or -1 for a context not yet assigned
+     * @param histograms Histogram of every group
+     */
+    private static void count(int[] contexts, int[] contextStart, int[] symbols, int[] frequencies,
+                              byte[] contextGroups, long[][] histograms) {
+        for (int context : contexts) {
+            if (contextGroups[context] < 0) {
+                continue;
+            }
+            long[] histogram = histograms[contextGroups[context]];
+            for (int pair = contextStart[context]; pair < contextStart[context + 1]; pair++) {
+                histogram[symbols[pair]] += frequencies[pair];
+            }
+        }
+    }
+
+    /**
+     * Estimates the code length of every symbol under a group's histogram, giving unseen symbols half a count
+     * so that a context can still move to a group that lacks some of its symbols.
+     *
+     * @param histogram Histogram of the group
+     * @param costs Array that receives the estimated code length of every symbol, in bits
+     */
+    private static void estimateCosts(long[] histogram, float[] costs) {
+        double total = CanonicalCode.ALPHABET_SIZE / 2.0;
+        for (long frequency : histogram) {
+            total += frequency;
+        }
+        double logTotal = Math.log(total);
+        for (int symbol = 0; symbol < costs.length; symbol++) {
+            costs[symbol] = (float) ((logTotal - Math.log(histogram[symbol] + 0.5)) / Math.log(2));
+        }
+    }
+
+    /**
+     * Returns the group of every preceding byte value.
+     *
+     * @return {@link BlockHeader#CONTEXT_COUNT} group numbers
+     */
+    byte[] getContextGroups() {
+        return contextGroups;
+    }
+
+    /**
+     * Returns the code lengths of every group, as stored in the block header.
+     *
+     * @return One table per group
+     */
+    byte[][] getGroupCodeLengths() {
+        byte[][] lengths = new byte[tables.length][];
+        for (int group = 0; group < tables.length; group++) {
+            lengths[group] = tables[group].getLengths();
+        }
+        return lengths;
+    }
+
+    /**
+     * Returns the exact size of the block coded with this model.
+     *
+     * @return The payload size in bits
+     */
+    long getEncodedBits() {
+        return encodedBits;
+    }
+
+    /**
+     * Returns the number of bytes the groups and tables take in the block header.
+     *
+     * @return The serialized size in bytes
+     */
+    int serializedSize() {
+        int size = 1 + BlockHeader.CONTEXT_COUNT / 2;
+        for (CodeTable table : tables) {
+            size += table.serializedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Codes a block with the table of the group of every byte's predecessor, as a single stream or as
+     * interleaved sub-streams that code consecutive quarters of the block.
+     *
+     * @param data Array holding the block the model was built for
+     * @param offset Offset of the block in the array
+     * @param length Number of bytes in the block
+     * @param streamLengths Array that receives the byte length of every sub-stream, or null to code a single
+     *                      stream; must match how the model was built
+     * @param payload Destination array, at least {@link BlockCompressor#payloadCapacity(long)} bytes long
+     * @param bitOutput Bit stream that is reset to write each stream into the payload array
+     * @return Number of bytes of the payload
+     * @throws IOException If the payload array is too small
+     */
+    int encode(byte[] data, int offset, int length, int[] streamLengths, byte[] payload, BitOutputStream bitOutput)
+            throws IOException {
+        int[][] contextCodes = new int[BlockHeader.CONTEXT_COUNT][];
+        byte[][] contextLengths = new byte[BlockHeader.CONTEXT_COUNT][];
+        for (int context = 0; context < BlockHeader.CONTEXT_COUNT; context++) {
+            contextCodes[context] = tables[contextGroups[context]].getCodes();
+            contextLengths[context] = tables[contextGroups[context]].getLengths();
+        }
+        int streams = streamLengths != null ? BlockHeader.STREAM_COUNT : 1;
+        int position = 0;
+        for (int stream = 0; stream < streams; stream++) {
+            int start = offset + stream * (length / streams);
+            int end = stream == streams - 1 ? offset + length : start + length / streams;
+            bitOutput.reset(payload, position);
+            int previous = 0;
+            for (int index = start; index < end; index++) {
+                int symbol = data[index] & 0xFF;
+                bitOutput.write(contextCodes[previous][symbol], contextLengths[previous][symbol]);
+                previous = symbol;
+            }
+            bitOutput.close();
+            if (streamLengths != null) {
+                streamLengths[stream] = (int) bitOutput.getPosition();
+            }
+            position += (int) bitOutput.getPosition();
+        }
+        return position;
+    }
+}
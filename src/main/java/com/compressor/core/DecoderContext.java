@@ -0,0 +1,256 @@
+package com.compressor.core;
+
+import com.compressor.io.BitInputStream;
+import com.compressor.io.BlockHeader;
+import com.compressor.io.ContainerHeader;
+import com.compressor.io.CorruptDataException;
+import com.compressor.io.HuffmanDecoder;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reusable decompression state: the bit streams, block buffer and table decoders that reading a container needs,
+ * allocated once and kept from one container to the next.
+ * <p>
+ * A context decompresses arrays with {@link #decompress(byte[], int, int, byte[], int)} and backs streams created
+ * with {@link HuffmanInputStream#HuffmanInputStream(java.io.InputStream, DecoderContext)}. The block buffer grows
+ * to the largest block read instead of the block size of the container, and the decoder of the last table a block
+ * carried is used again for a block with exactly the same code lengths, so the decoding tables of repeated inputs
+ * are not rebuilt. Other decoders come from the table cache of the options, if one is set.
+ * <p>
+ * A context is not thread-safe and reads one container at a time: starting a container, for example by
+ * creating another stream on the context, abandons the one in progress. {@link #forCurrentThread(CompressionOptions)}
+ * keeps one context per thread.
+ */
+public class DecoderContext {
+
+    private static final ThreadLocal<DecoderContext> threadContexts = new ThreadLocal<>();
+
+    private CompressionOptions options;
+    private BitInputStream channelInput;
+    private BitInputStream arrayInput = new BitInputStream(new byte[0], 0, 0);
+    private BitInputStream input;
+    private byte[] block = new byte[0];
+    private byte[] lastCodeLengths;
+    private HuffmanDecoder lastDecoder;
+    private ContainerHeader header;
+    private HuffmanDecoder sharedDecoder;
+    private HuffmanDecoder tableDecoder;
+    private int tableBlock = -1;
+    private int blockNumber = 0;
+    private long totalRead = 0;
+    private boolean endOfData = true;
+    private CompressionListener listener;
+    private long startNanos;
+    private long startPosition;
+
+    /**
+     * Creates a context with the default options.
+     */
+    public DecoderContext() {
+        this(new CompressionOptions());
+    }
+
+    /**
+     * Creates a context.
+     *
+     * @param options Settings that provide the table cache and listener
+     */
+    public DecoderContext(CompressionOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Returns the context of the calling thread for the given options, creating it on first use or when the
+     * thread last used other options.
+     *
+     * @param options Settings the context must use
+     * @return The context, not shared with other threads
+     */
+    public static DecoderContext forCurrentThread(CompressionOptions options) {
+        DecoderContext context = threadContexts.get();
+        if (context == null || context.options != options) {
+            context = new DecoderContext(options);
+            threadContexts.set(context);
+        }
+        return context;
+    }
+
+    public CompressionOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Abandons the container in progress, if any. The buffers and the remembered decoder are kept.
+     */
+    public void reset() {
+        input = null;
+        listener = null;
+        header = null;
+        sharedDecoder = null;
+        tableDecoder = null;
+        tableBlock = -1;
+        blockNumber = 0;
+        totalRead = 0;
+        endOfData = true;
+    }
+
+    /**
+     * Decompresses a complete container held in part of an array.
+     *
+     * @param input The compressed data
+     * @param offset Offset of the container
+     * @param length Number of bytes of compressed data
+     * @param output Array that receives the original data
+     * @param outputOffset Position in the output array to start writing at
+     * @return Number of bytes written
+     * @throws IOException If the data is not a valid container, it needs a dictionary or the output array is too small
+     */
+    public int decompress(byte[] input, int offset, int length, byte[] output, int outputOffset)
+            throws IOException {
+        return decompress(input, offset, length, output, outputOffset, null);
+    }
+
+    /**
+     * Decompresses a complete container written with a dictionary and held in part of an array.
+     *
+     * @param input The compressed data
+     * @param offset Offset of the container
+     * @param length Number of bytes of compressed data
+     * @param output Array that receives the original data
+     * @param outputOffset Position in the output array to start writing at
+     * @param dictionary The dictionary the data was written with, or null if there is none
+     * @return Number of bytes written
+     * @throws IOException If the data is not a valid container, the dictionary is missing or the output array
+     *                     is too small
+     */
+    public int decompress(byte[] input, int offset, int length, byte[] output, int outputOffset,
+                          HuffmanDictionary dictionary) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        arrayInput.reset(input, offset, length);
+        begin(arrayInput, dictionary);
+        int position = outputOffset;
+        int blockLength;
+        while ((blockLength = nextBlock()) >= 0) {
+            if (blockLength > output.length - position) {
+                throw new IOException("Output array is too small");
+            }
+            System.arraycopy(block, 0, output, position, blockLength);
+            position += blockLength;
+        }
+        return position - outputOffset;
+    }
+
+    /**
+     * Starts reading a container from a channel and reads its header.
+     *
+     * @param channel The channel that supplies the container
+     * @param dictionary The dictionary the data was written with, or null if there is none
+     * @return The bit stream the container is read from
+     * @throws IOException If the data is not a valid container, the dictionary is missing or an I/O error occurs
+     */
+    BitInputStream begin(ReadableByteChannel channel, HuffmanDictionary dictionary) throws IOException {
+        if (channelInput == null) {
+            channelInput = new BitInputStream(channel);
+        } else {
+            channelInput.reset(channel);
+        }
+        begin(channelInput, dictionary);
+        return channelInput;
+    }
+
+    /**
+     * Returns the buffer that holds the block decoded by the last call to {@link #nextBlock()}.
+     *
+     * @return The block buffer
+     */
+    byte[] getBlock() {
+        return block;
+    }
+
+    /**
+     * Decodes the next non-empty block of the container in progress into the block buffer.
+     *
+     * @return Length of the block, or -1 at the end of the data
+     * @throws IOException If the data is corrupt or an I/O error occurs
+     */
+    int nextBlock() throws IOException {
+        while (!endOfData) {
+            BlockHeader blockHeader = BlockDecompressor.nextBlockHeader(input, header, totalRead);
+            if (blockHeader == null) {
+                endOfData = true;
+                if (header.hasOriginalLength() && totalRead != header.getOriginalLength()) {
+                    throw new CorruptDataException("Compressed data is truncated");
+                }
+                if (listener != null) {
+                    listener.decompressed(input.getPosition() - startPosition, totalRead,
+                            System.nanoTime() - startNanos);
+                }
+                return -1;
+            }
+            int length = blockHeader.getUncompressedLength();
+            if (length > header.getBlockSize()) {
+                throw new CorruptDataException("Corrupt block length");
+            }
+            if (block.length < length) {
+                BlockDecompressor.checkBudget(options, length);
+                block = new byte[length];
+            }
+            long start = listener != null ? System.nanoTime() : 0;
+            try {
+                HuffmanDecoder decoder = BlockDecompressor.referencedDecoder(blockHeader, sharedDecoder, tableDecoder,
+                        blockNumber - tableBlock);
+                if (blockHeader.getType() == BlockHeader.TYPE_OWN_TABLE) {
+                    decoder = ownDecoder(blockHeader.getCodeLengths());
+                    tableDecoder = decoder;
+                    tableBlock = blockNumber;
+                }
+                BlockDecompressor.decodeBlock(blockHeader, input, decoder, options.getTableCache(), block);
+            } catch (IllegalArgumentException e) {
+                throw new CorruptDataException("Malformed code table", e);
+            }
+            if (listener != null) {
+                listener.phaseCompleted(CompressionListener.Phase.DECODE, System.nanoTime() - start, length);
+            }
+            blockNumber++;
+            totalRead += length;
+            if (length > 0) {
+                return length;
+            }
+        }
+        return -1;
+    }
+
+    private void begin(BitInputStream input, HuffmanDictionary dictionary) throws IOException {
+        reset();
+        this.listener = options.getListener();
+        this.startNanos = listener != null ? System.nanoTime() : 0;
+        this.startPosition = input.getPosition();
+        this.input = input;
+        try {
+            this.header = BlockDecompressor.checkHeader(ContainerHeader.read(input));
+            this.sharedDecoder = BlockDecompressor.sharedDecoder(header, dictionary, options.getTableCache());
+        } catch (IllegalArgumentException e) {
+            throw new CorruptDataException("Malformed code table", e);
+        }
+        this.endOfData = false;
+    }
+
+    /**
+     * Returns the decoder for the table a block carries: the remembered decoder when the code lengths are the
+     * same as last time, otherwise one from the table cache or a new one.
+     *
+     * @param codeLengths The code lengths stored in the block header
+     * @return The decoder
+     */
+    private HuffmanDecoder ownDecoder(byte[] codeLengths) {
+        if (lastDecoder == null || !Arrays.equals(codeLengths, lastCodeLengths)) {
+            lastDecoder = CodeTableCache.decoder(options.getTableCache(), codeLengths);
+            lastCodeLengths = codeLengths;
+        }
+        return lastDecoder;
+    }
+}
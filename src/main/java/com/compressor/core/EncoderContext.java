@@ -0,0 +1,384 @@
+package com.compressor.core;
+
+import com.compressor.io.BitOutputStream;
+import com.compressor.io.BlockHeader;
+import com.compressor.io.BlockIndex;
+import com.compressor.io.ContainerHeader;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reusable compression state: the histogram, checksum, block and payload buffers, bit streams and block index
+ * that coding a container needs, allocated once and kept from one container to the next.
+ * <p>
+ * A context compresses arrays with {@link #compress(byte[], int, int, byte[], int)} and backs streams created
+ * with {@link HuffmanOutputStream#HuffmanOutputStream(java.io.OutputStream, EncoderContext)}. It remembers the
+ * table of the last block it coded and uses it again for a block with exactly the same histogram, so once its
+ * buffers have grown to the size of the data, compressing the same kind of input over and over into arrays
+ * allocates nothing but the small header objects of every container. Other tables come from the table cache
+ * of the options, if one is set.
+ * <p>
+ * A context is not thread-safe and codes one container at a time: starting a container, for example by
+ * creating another stream on the context, abandons the one in progress. {@link #forCurrentThread(CompressionOptions)}
+ * keeps one context per thread.
+ */
+public class EncoderContext {
+
+    private static final ThreadLocal<EncoderContext> threadContexts = new ThreadLocal<>();
+
+    private CompressionOptions options;
+    private BitOutputStream channelOutput;
+    private BitOutputStream arrayOutput = new BitOutputStream(new byte[0]);
+    private BitOutputStream streamOutput = new BitOutputStream(new byte[0]);
+    private BitOutputStream output;
+    private BlockIndex index = new BlockIndex();
+    private CRC32 checksum = new CRC32();
+    private long[] histogram = new long[CanonicalCode.ALPHABET_SIZE];
+    private int[] counts = new int[Histogram.SCRATCH_SIZE];
+    private long[] lastHistogram = new long[CanonicalCode.ALPHABET_SIZE];
+    private CodeTable lastTable;
+    private int lastMaxCodeLength;
+    private int[] streamLengths = new int[BlockHeader.STREAM_COUNT];
+    private byte[] header = new byte[Math.max(ContainerHeader.MAX_HEADER_SIZE, BlockHeader.MAX_CONTEXT_HEADER_SIZE)];
+    private byte[] block = new byte[0];
+    private byte[] payload = new byte[0];
+    private CodeTable sharedTable;
+    private long containerLength;
+    private int blockSize;
+    private int dictionaryId = -1;
+    private boolean headerPending = false;
+    private CodeTable previousTable;
+    private int previousBlock = -1;
+    private int blockNumber = 0;
+    private CompressionListener listener;
+    private long startNanos;
+    private long inputBytes = 0;
+
+    /**
+     * Creates a context with the default options.
+     */
+    public EncoderContext() {
+        this(new CompressionOptions());
+    }
+
+    /**
+     * Creates a context.
+     *
+     * @param options Settings that provide the block size, memory budget, code length limit, stream layout, table
+     *                cache and listener
+     */
+    public EncoderContext(CompressionOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Returns the context of the calling thread for the given options, creating it on first use or when the
+     * thread last used other options.
+     *
+     * @param options Settings the context must use
+     * @return The context, not shared with other threads
+     */
+    public static EncoderContext forCurrentThread(CompressionOptions options) {
+        EncoderContext context = threadContexts.get();
+        if (context == null || context.options != options) {
+            context = new EncoderContext(options);
+            threadContexts.set(context);
+        }
+        return context;
+    }
+
+    public CompressionOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Abandons the container in progress, if any. The buffers and the remembered table are kept.
+     */
+    public void reset() {
+        output = null;
+        listener = null;
+        inputBytes = 0;
+        index.clear();
+        sharedTable = null;
+        dictionaryId = -1;
+        headerPending = false;
+        previousTable = null;
+        previousBlock = -1;
+        blockNumber = 0;
+    }
+
+    /**
+     * Returns the largest container {@link #compress(byte[], int, int, byte[], int)} can write for an input
+     * of the given length with the current options. Blocks that coding would not make smaller are stored,
+     * so the bound exceeds the input only by the framing of the container and its blocks.
+     *
+     * @param length Number of bytes to compress
+     * @return Size the output array needs from its offset
+     * @throws IllegalArgumentException If the container could exceed the size of an array
+     */
+    public int maxCompressedLength(int length) {
+        int blockSize = BlockCompressor.blockSize(options, Long.MAX_VALUE);
+        long blocks = (length + (long) blockSize - 1) / blockSize;
+        long frames = blocks * (BlockHeader.MAX_HEADER_SIZE + BlockHeader.STREAM_COUNT + BlockIndex.ENTRY_SIZE)
+                + length;
+        long bound = ContainerHeader.MAX_HEADER_SIZE + frames + 1 + BlockIndex.FOOTER_SIZE;
+        if (bound > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Input is too large to compress into an array");
+        }
+        return (int) bound;
+    }
+
+    /**
+     * Compresses part of an array into a complete container.
+     *
+     * @param input The data to compress
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to compress
+     * @param output Array that receives the container
+     * @param outputOffset Position in the output array to start writing at
+     * @return Size of the container in bytes
+     * @throws IOException If the output array is too small; {@link #maxCompressedLength(int)} bytes always suffice
+     */
+    public int compress(byte[] input, int offset, int length, byte[] output, int outputOffset) throws IOException {
+        return compress(input, offset, length, output, outputOffset, null);
+    }
+
+    /**
+     * Compresses part of an array into a complete container whose blocks can use a dictionary's table.
+     *
+     * @param input The data to compress
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to compress
+     * @param output Array that receives the container
+     * @param outputOffset Position in the output array to start writing at
+     * @param dictionary The dictionary, or null if there is none
+     * @return Size of the container in bytes
+     * @throws IOException If the output array is too small; {@link #maxCompressedLength(int)} bytes always suffice
+     */
+    public int compress(byte[] input, int offset, int length, byte[] output, int outputOffset,
+                        HuffmanDictionary dictionary) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > input.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        arrayOutput.reset(output, outputOffset);
+        begin(arrayOutput, length, dictionary);
+        int position = 0;
+        for (; length - position > blockSize; position += blockSize) {
+            writeBlock(input, offset + position, blockSize);
+        }
+        finish(input, offset + position, length - position);
+        return (int) arrayOutput.getPosition();
+    }
+
+    /**
+     * Starts a container of unknown length on a channel.
+     *
+     * @param channel The channel that receives the container
+     * @param dictionary The dictionary, or null if there is none
+     * @return The bit stream the container is written to
+     * @throws IOException If an I/O error occurs
+     */
+    BitOutputStream begin(WritableByteChannel channel, HuffmanDictionary dictionary) throws IOException {
+        if (channelOutput == null) {
+            channelOutput = new BitOutputStream(channel);
+        } else {
+            channelOutput.reset(channel);
+        }
+        begin(channelOutput, -1, dictionary);
+        return channelOutput;
+    }
+
+    /**
+     * Returns the buffer a stream collects a block in, sized to the block size of the container in progress.
+     *
+     * @return The block buffer
+     */
+    byte[] getBlockBuffer() {
+        if (block.length != blockSize) {
+            block = new byte[blockSize];
+        }
+        return block;
+    }
+
+    /**
+     * Codes part of an array as the next block frame of the container in progress.
+     *
+     * @param data Array holding the block
+     * @param offset Offset of the block in the array
+     * @param length Number of bytes in the block; nothing is written if it is zero
+     * @throws IOException If an I/O error occurs
+     */
+    void writeBlock(byte[] data, int offset, int length) throws IOException {
+        if (headerPending) {
+            new ContainerHeader(containerLength, blockSize, null, dictionaryId).write(output, header);
+            headerPending = false;
+        }
+        if (length == 0) {
+            return;
+        }
+        long start = listener != null ? System.nanoTime() : 0;
+        Arrays.fill(histogram, 0);
+        boolean sampled = BlockCompressor.isStoredBySample(options, data, offset, length, histogram);
+        if (!sampled) {
+            Arrays.fill(histogram, 0);
+            Histogram.count(data, offset, length, histogram, counts);
+        }
+        if (listener != null) {
+            listener.phaseCompleted(CompressionListener.Phase.HISTOGRAM, System.nanoTime() - start, length);
+        }
+        // Runs, and blocks whose entropy rules out a gain, build no table of their own. The histogram of a
+        // block stored on its sample is only an estimate, so it prices no table either.
+        boolean run = !sampled && BlockCompressor.isRun(histogram);
+        CodeTable table = !sampled && !run
+                && Histogram.entropyBits(histogram) <= BlockCompressor.maxCodedBits(length) ? ownTable() : null;
+        long bits = table != null ? table.encodedBits(histogram) : 8L * length;
+        long cost = table != null ? bits + 8L * table.serializedSize() : Long.MAX_VALUE;
+
+        // Reuse the last stored table or the dictionary's when the larger payload costs less than a new table
+        int type = table != null ? BlockHeader.TYPE_OWN_TABLE : BlockHeader.TYPE_STORED;
+        int tableDistance = 0;
+        long previousBits = previousTable != null && !sampled ? previousTable.encodedBits(histogram) : -1;
+        long previousCost = previousBits + 8L * ContainerHeader.varLongSize(blockNumber - previousBlock);
+        if (previousBits >= 0 && previousCost <= cost) {
+            type = BlockHeader.TYPE_PREVIOUS_TABLE;
+            tableDistance = blockNumber - previousBlock;
+            table = previousTable;
+            bits = previousBits;
+            cost = previousCost;
+        }
+        long sharedBits = sharedTable != null && !sampled ? sharedTable.encodedBits(histogram) : -1;
+        if (sharedBits >= 0 && sharedBits <= cost) {
+            type = BlockHeader.TYPE_SHARED_TABLE;
+            tableDistance = 0;
+            table = sharedTable;
+            bits = sharedBits;
+            cost = sharedBits;
+        }
+        boolean interleaved = BlockCompressor.isInterleaved(options, length);
+        ContextModel model = options.isContextModeling() && !run
+                ? ContextModel.build(data, offset, length, interleaved, options) : null;
+        if (model != null && model.getEncodedBits() + 8L * model.serializedSize() < cost) {
+            type = BlockHeader.TYPE_CONTEXT_TABLES;
+            bits = model.getEncodedBits();
+            cost = model.getEncodedBits() + 8L * model.serializedSize();
+        } else {
+            model = null;
+        }
+        if (run || cost > BlockCompressor.maxCodedBits(length)) {
+            type = run ? BlockHeader.TYPE_RUN : BlockHeader.TYPE_STORED;
+            tableDistance = 0;
+            table = null;
+            model = null;
+            bits = run ? 8 : 8L * length;
+        } else if (type == BlockHeader.TYPE_OWN_TABLE) {
+            previousTable = table;
+            previousBlock = blockNumber;
+        }
+        start = listener != null ? System.nanoTime() : 0;
+        int[] lengths = interleaved && (table != null || model != null) ? streamLengths : null;
+        int payloadLength;
+        if (type == BlockHeader.TYPE_STORED) {
+            payloadLength = length;
+        } else if (type == BlockHeader.TYPE_RUN) {
+            payloadLength = 1;
+        } else {
+            if (payload.length < BlockCompressor.payloadCapacity(bits)) {
+                payload = new byte[BlockCompressor.payloadCapacity(bits)];
+            }
+            payloadLength = model != null ? model.encode(data, offset, length, lengths, payload, streamOutput)
+                    : BlockCompressor.encodePayload(data, offset, length, table, lengths, payload, streamOutput);
+        }
+        checksum.reset();
+        checksum.update(data, offset, length);
+
+        long frameStart = output.getPosition();
+        if (listener != null) {
+            long encoded = System.nanoTime();
+            listener.phaseCompleted(CompressionListener.Phase.ENCODE, encoded - start, length);
+            start = encoded;
+        }
+        index.add(frameStart, bits, length);
+        BlockHeader blockHeader = model != null
+                ? new BlockHeader(length, payloadLength, (int) checksum.getValue(), model.getContextGroups(),
+                        model.getGroupCodeLengths(), lengths)
+                : new BlockHeader(type, length, payloadLength, (int) checksum.getValue(),
+                        table != null ? table.getLengths() : null, tableDistance, lengths);
+        blockHeader.write(output, header);
+        if (type == BlockHeader.TYPE_STORED || type == BlockHeader.TYPE_RUN) {
+            output.writeBytes(data, offset, payloadLength);
+        } else {
+            output.writeBytes(payload, 0, payloadLength);
+        }
+        blockNumber++;
+        inputBytes += length;
+        if (listener != null) {
+            listener.phaseCompleted(CompressionListener.Phase.WRITE, System.nanoTime() - start,
+                    output.getPosition() - frameStart);
+            if (type == BlockHeader.TYPE_OWN_TABLE) {
+                listener.tableStored(table.serializedSize());
+            } else if (model != null) {
+                listener.tableStored(model.serializedSize());
+            }
+        }
+    }
+
+    /**
+     * Codes the last block of the container in progress, writes the block index and flushes the container.
+     * When the options ask for compact framing and no block has been written yet, the container is written as a
+     * compact frame instead, without an index.
+     *
+     * @param data Array holding the last block
+     * @param offset Offset of the block in the array
+     * @param length Number of bytes in the block, which may be zero
+     * @throws IOException If an I/O error occurs
+     */
+    void finish(byte[] data, int offset, int length) throws IOException {
+        boolean compact = headerPending && options.isCompactFraming();
+        if (compact) {
+            ContainerHeader.compact(length, dictionaryId).write(output, header);
+            headerPending = false;
+        }
+        writeBlock(data, offset, length);
+        if (!compact) {
+            index.write(output);
+        }
+        output.flush();
+        if (listener != null) {
+            listener.compressed(inputBytes, output.getPosition(), System.nanoTime() - startNanos);
+        }
+    }
+
+    private void begin(BitOutputStream output, long length, HuffmanDictionary dictionary) throws IOException {
+        reset();
+        this.listener = options.getListener();
+        this.startNanos = listener != null ? System.nanoTime() : 0;
+        this.output = output;
+        this.sharedTable = dictionary != null ? dictionary.getTable() : null;
+        this.containerLength = length;
+        this.blockSize = BlockCompressor.blockSize(options, Long.MAX_VALUE);
+        this.dictionaryId = dictionary != null ? dictionary.getId() : -1;
+
+        // The header is written with the first block, once it is known whether the data fits in a compact frame
+        this.headerPending = true;
+    }
+
+    /**
+     * Returns a table built for the current histogram: the remembered table when the histogram and length limit
+     * are the same as last time, otherwise one from the table cache or a new one.
+     *
+     * @return The table
+     */
+    private CodeTable ownTable() {
+        int maxCodeLength = options.getMaxCodeLength();
+        if (lastTable != null && lastMaxCodeLength == maxCodeLength && Arrays.equals(histogram, lastHistogram)) {
+            return lastTable;
+        }
+        CodeTable table = CodeTableCache.table(options, histogram);
+        System.arraycopy(histogram, 0, lastHistogram, 0, histogram.length);
+        lastTable = table;
+        lastMaxCodeLength = maxCodeLength;
+        return table;
+    }
+}
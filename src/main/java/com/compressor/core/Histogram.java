@@ -0,0 +1,256 @@
+package com.compressor.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Byte frequency counting for the first pass of compression.
+ * <p>
+ * The plain loop increments one counter per byte, which is fastest for text and random data. When the same
+ * byte value keeps coming back, as in runs or heavily skewed data, every increment waits on the store of the
+ * previous one to the same counter. A few short windows of the input are checked for repeated neighbouring
+ * bytes first, and when they are common, neighbouring bytes are counted in 4 interleaved sub-histograms
+ * instead, read 8 bytes at a time as a little-endian long, and merged at the end. The sub-histograms live in
+ * a scratch array kept per thread, so counting allocates nothing.
+ */
+public final class Histogram {
+
+    // Below this length the single-table loop is cheaper than setting up and merging the sub-histograms
+    private static final int SMALL_INPUT = 4096;
+
+    // Neighbouring byte pairs checked in each of the sampled windows before counting
+    private static final int SKEW_WINDOWS = 8;
+    private static final int SKEW_WINDOW_PAIRS = 32;
+
+    // Repeated pairs out of the sampled ones from which the interleaved loop is faster: text repeats about
+    // 1 pair in 6, runs and data dominated by one byte value most of them
+    private static final int SKEW_REPEATS = SKEW_WINDOWS * SKEW_WINDOW_PAIRS / 4;
+
+    private static final double LN_2 = Math.log(2);
+
+    /** Number of counters {@link #count(byte[], int, int, long[], int[])} needs in its scratch array. */
+    public static final int SCRATCH_SIZE = 4 * CanonicalCode.ALPHABET_SIZE;
+
+    /** Size of the chunks counted by {@link #sample(byte[], int, int, int, long[])}. */
+    public static final int SAMPLE_CHUNK = 4096;
+
+    // Sub-histograms of the interleaved loop and the counts of a sample, reused by every call on a thread
+    private static final ThreadLocal<int[]> scratchCounts = ThreadLocal.withInitial(() -> new int[SCRATCH_SIZE]);
+    private static final ThreadLocal<long[]> sampleCounts =
+            ThreadLocal.withInitial(() -> new long[CanonicalCode.ALPHABET_SIZE]);
+
+    private Histogram() {
+    }
+
+    /**
+     * Adds the byte frequencies of part of an array to a histogram.
+     *
+     * @param data The bytes to count
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to count
+     * @param histogram Array of 256 counters, indexed by byte value
+     */
+    public static void count(byte[] data, int offset, int length, long[] histogram) {
+        count(data, offset, length, histogram, scratchCounts.get());
+    }
+
+    /**
+     * Adds the byte frequencies of the remaining bytes of a buffer to a histogram.
+     * The buffer's position is not changed.
+     *
+     * @param data The bytes to count, from the position to the limit
+     * @param histogram Array of 256 counters, indexed by byte value
+     */
+    public static void count(ByteBuffer data, long[] histogram) {
+        if (data.hasArray()) {
+            count(data.array(), data.arrayOffset() + data.position(), data.remaining(), histogram);
+            return;
+        }
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int position = buffer.position();
+        int end = buffer.limit();
+        if (end - position < SMALL_INPUT || !isSkewed(buffer, position, end)) {
+            for (; position < end; position++) {
+                histogram[buffer.get(position) & 0xFF]++;
+            }
+            return;
+        }
+
+        // A buffer holds less than 2^31 bytes, so the int sub-histograms cannot overflow
+        int[] counts = scratchCounts.get();
+        Arrays.fill(counts, 0, SCRATCH_SIZE, 0);
+        for (; position <= end - 8; position += 8) {
+            countWord(buffer.getLong(position), counts);
+        }
+        for (; position < end; position++) {
+            counts[buffer.get(position) & 0xFF]++;
+        }
+        merge(counts, histogram);
+    }
+
+    /**
+     * Adds the byte frequencies of part of an array to a histogram, counting in caller-supplied sub-histograms
+     * so that nothing is allocated.
+     *
+     * @param data The bytes to count
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to count
+     * @param histogram Array of 256 counters, indexed by byte value
+     * @param counts Scratch array of at least {@link #SCRATCH_SIZE} counters; its contents are overwritten
+     */
+    public static void count(byte[] data, int offset, int length, long[] histogram, int[] counts) {
+        int end = offset + length;
+        if (length < SMALL_INPUT || !isSkewed(data, offset, end)) {
+            for (int index = offset; index < end; index++) {
+                histogram[data[index] & 0xFF]++;
+            }
+            return;
+        }
+
+        Arrays.fill(counts, 0, SCRATCH_SIZE, 0);
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int index = offset;
+        for (; index <= end - 8; index += 8) {
+            countWord(buffer.getLong(index), counts);
+        }
+        for (; index < end; index++) {
+            counts[data[index] & 0xFF]++;
+        }
+        merge(counts, histogram);
+    }
+
+    /**
+     * Counts the 8 bytes of a little-endian word, neighbouring bytes in different sub-histograms.
+     *
+     * @param word The bytes, the first in the lowest bits
+     * @param counts The 4 sub-histograms, one after the other
+     */
+    private static void countWord(long word, int[] counts) {
+        counts[(int) word & 0xFF]++;
+        counts[CanonicalCode.ALPHABET_SIZE + ((int) (word >>> 8) & 0xFF)]++;
+        counts[2 * CanonicalCode.ALPHABET_SIZE + ((int) (word >>> 16) & 0xFF)]++;
+        counts[3 * CanonicalCode.ALPHABET_SIZE + ((int) (word >>> 24) & 0xFF)]++;
+        counts[(int) (word >>> 32) & 0xFF]++;
+        counts[CanonicalCode.ALPHABET_SIZE + ((int) (word >>> 40) & 0xFF)]++;
+        counts[2 * CanonicalCode.ALPHABET_SIZE + ((int) (word >>> 48) & 0xFF)]++;
+        counts[3 * CanonicalCode.ALPHABET_SIZE + (int) (word >>> 56)]++;
+    }
+
+    private static void merge(int[] counts, long[] histogram) {
+        for (int symbol = 0; symbol < CanonicalCode.ALPHABET_SIZE; symbol++) {
+            histogram[symbol] += (long) counts[symbol] + counts[CanonicalCode.ALPHABET_SIZE + symbol]
+                    + counts[2 * CanonicalCode.ALPHABET_SIZE + symbol] + counts[3 * CanonicalCode.ALPHABET_SIZE + symbol];
+        }
+    }
+
+    /**
+     * Tells whether neighbouring bytes repeat often enough in a few windows spread over the data for the
+     * interleaved loop to be faster.
+     *
+     * @param data The bytes to count
+     * @param start Index of the first byte
+     * @param end Index after the last byte, at least {@link #SMALL_INPUT} after the start
+     * @return true if the data looks skewed or made of runs
+     */
+    private static boolean isSkewed(byte[] data, int start, int end) {
+        int repeats = 0;
+        for (int window = 0; window < SKEW_WINDOWS; window++) {
+            int first = start + (int) ((long) (end - start - SKEW_WINDOW_PAIRS - 1) * window / (SKEW_WINDOWS - 1));
+            for (int index = first; index < first + SKEW_WINDOW_PAIRS; index++) {
+                if (data[index] == data[index + 1]) {
+                    repeats++;
+                }
+            }
+        }
+        return repeats >= SKEW_REPEATS;
+    }
+
+    private static boolean isSkewed(ByteBuffer data, int start, int end) {
+        int repeats = 0;
+        for (int window = 0; window < SKEW_WINDOWS; window++) {
+            int first = start + (int) ((long) (end - start - SKEW_WINDOW_PAIRS - 1) * window / (SKEW_WINDOWS - 1));
+            for (int index = first; index < first + SKEW_WINDOW_PAIRS; index++) {
+                if (data.get(index) == data.get(index + 1)) {
+                    repeats++;
+                }
+            }
+        }
+        return repeats >= SKEW_REPEATS;
+    }
+
+    /**
+     * Returns the order-0 entropy of data with the given byte frequencies, a lower bound for the payload any
+     * single Huffman table can code it in.
+     *
+     * @param histogram Array of 256 counters, indexed by byte value
+     * @return The entropy in bits, rounded down
+     */
+    public static long entropyBits(long[] histogram) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        double bits = 0;
+        for (long count : histogram) {
+            if (count != 0) {
+                bits += count * (Math.log((double) total / count) / LN_2);
+            }
+        }
+        return (long) bits;
+    }
+
+    /**
+     * Estimates the byte frequencies of part of an array from a sample of it and adds them to a histogram.
+     * One chunk of {@link #SAMPLE_CHUNK} bytes out of every {@code stride} chunks is counted, and the counts
+     * are scaled up to the full length. The counted chunk moves within each group of {@code stride} chunks in a
+     * fixed pseudo-random order, so data that repeats every {@code stride} chunks, or a multiple of that, is
+     * still sampled at all its phases. Byte values that occur only outside the sample are missed, so sampled
+     * histograms suit size and entropy estimates but not the construction of code tables.
+     *
+     * @param data The bytes to sample
+     * @param offset Offset of the first byte
+     * @param length Number of bytes the estimate covers
+     * @param stride Number of chunks per counted chunk, 1 to count everything
+     * @param histogram Array of 256 counters, indexed by byte value
+     */
+    public static void sample(byte[] data, int offset, int length, int stride, long[] histogram) {
+        if (stride <= 0) {
+            throw new IllegalArgumentException("Sampling stride must be at least 1");
+        }
+        if (stride == 1 || length <= (long) SAMPLE_CHUNK * stride) {
+            count(data, offset, length, histogram);
+            return;
+        }
+        long[] sampled = sampleCounts.get();
+        Arrays.fill(sampled, 0);
+        long sampledLength = 0;
+        long step = (long) SAMPLE_CHUNK * stride;
+        long group = 0;
+        for (long groupStart = 0; groupStart < length; groupStart += step, group++) {
+            long chunks = (Math.min(step, length - groupStart) + SAMPLE_CHUNK - 1) / SAMPLE_CHUNK;
+            long start = groupStart + SAMPLE_CHUNK * Long.remainderUnsigned(mix(group), chunks);
+            int chunk = (int) Math.min(SAMPLE_CHUNK, length - start);
+            count(data, offset + (int) start, chunk, sampled);
+            sampledLength += chunk;
+        }
+        for (int symbol = 0; symbol < CanonicalCode.ALPHABET_SIZE; symbol++) {
+            if (sampled[symbol] != 0) {
+                histogram[symbol] += Math.max(1, sampled[symbol] * length / sampledLength);
+            }
+        }
+    }
+
+    /**
+     * Scrambles a number, for picking the chunk to sample in a group.
+     *
+     * @param value The number
+     * @return A well-mixed 64-bit value
+     */
+    private static long mix(long value) {
+        long mixed = (value + 1) * 0x9E3779B97F4A7C15L;
+        mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+        return mixed ^ (mixed >>> 31);
+    }
+}
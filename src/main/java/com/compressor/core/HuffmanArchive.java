@@ -0,0 +1,526 @@
+package com.compressor.core;
+
+import com.compressor.io.ArchiveDirectory;
+import com.compressor.io.ArchiveEntry;
+import com.compressor.io.BitOutputStream;
+import com.compressor.io.CorruptDataException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * An archive that packs many files into one, each stored as a complete container, with a central
+ * {@link ArchiveDirectory} at the end.
+ * <p>
+ * {@link #create(Path, Map, CompressionOptions, boolean)} writes an archive. Files up to the block size are
+ * compressed in memory on a pool of {@link CompressionOptions#getParallelism()} threads, ahead of the one being
+ * written; larger files go through a {@link BlockCompressor} of their own. Small files can share one code table,
+ * built from all of them and stored once in the directory as a {@link HuffmanDictionary}, so that their
+ * containers only refer to it instead of carrying a table each.
+ * <p>
+ * An instance reads an archive: it loads the directory when opened, then seeks to the entries it is asked for.
+ * Entries are decoded independently of each other, so {@link #extractAll(Path)} decodes several at a time.
+ * Extracted data is checked against the length and CRC32 in the directory. Instances are thread-safe.
+ */
+public class HuffmanArchive implements AutoCloseable {
+
+    private final FileChannel file;
+    private final CompressionOptions options;
+    private final ArchiveDirectory directory;
+    private final HuffmanDictionary sharedTable;
+    private final Map<String, ArchiveEntry> entriesByName = new LinkedHashMap<>();
+
+    /**
+     * Opens an archive with the default options.
+     *
+     * @param path Path to the archive
+     * @throws IOException If the file is not a valid archive or an I/O error occurs
+     */
+    public HuffmanArchive(Path path) throws IOException {
+        this(path, new CompressionOptions());
+    }
+
+    /**
+     * Opens an archive.
+     *
+     * @param path Path to the archive
+     * @param options Settings that provide the parallelism of {@link #extractAll(Path)}, the table cache and listener
+     * @throws IOException If the file is not a valid archive or an I/O error occurs
+     */
+    public HuffmanArchive(Path path, CompressionOptions options) throws IOException {
+        this.options = options;
+        this.file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.directory = ArchiveDirectory.read(file);
+            byte[] table = directory.getSharedTable();
+            this.sharedTable = table != null ? HuffmanDictionary.fromByteArray(table) : null;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        for (ArchiveEntry entry : directory.getEntries()) {
+            entriesByName.putIfAbsent(entry.getName(), entry);
+        }
+    }
+
+    /**
+     * Writes an archive.
+     *
+     * @param archive The file that receives the archive, replaced if it exists
+     * @param entries Entry names, relative paths with '/' separators, mapped to the files stored under them,
+     *                in the order of the archive
+     * @param options Block size, parallelism and table settings
+     * @param shareTable true to give the files up to the block size one shared code table
+     * @return The directory of the archive
+     * @throws java.io.InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If a file cannot be read or an I/O error occurs; the archive is deleted
+     * @throws IllegalArgumentException If an entry name is empty, absolute or contains "." or ".." segments
+     */
+    public static ArchiveDirectory create(Path archive, Map<String, Path> entries, CompressionOptions options,
+                                          boolean shareTable) throws IOException {
+        List<String> names = new ArrayList<>(entries.keySet());
+        List<Path> files = new ArrayList<>(entries.values());
+        for (String name : names) {
+            checkName(name);
+        }
+        boolean[] small = new boolean[files.size()];
+        for (int index = 0; index < files.size(); index++) {
+            small[index] = Files.size(files.get(index)) <= options.getBlockSize();
+        }
+
+        int threads = Math.max(1, Math.min(options.getParallelism(), files.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        FileChannel output = null;
+        try {
+            HuffmanDictionary dictionary = shareTable ? buildSharedTable(files, small, options, executor) : null;
+            output = HuffmanCompressor.openForWrite(archive);
+            ArchiveDirectory.writeHeader(output);
+            long position = ArchiveDirectory.HEADER_SIZE;
+
+            // Small files are compressed a window ahead of the one being written
+            List<ArchiveEntry> written = new ArrayList<>(files.size());
+            List<Future<PackedEntry>> packed = new ArrayList<>(files.size());
+            int window = 2 * threads;
+            for (int index = 0; index < files.size(); index++) {
+                while (packed.size() < Math.min(files.size(), index + window)) {
+                    int next = packed.size();
+                    Path input = files.get(next);
+                    packed.add(small[next] ? executor.submit(() -> pack(input, options, dictionary)) : null);
+                }
+                PackedEntry entry;
+                if (small[index]) {
+                    entry = packed.get(index).get();
+                    packed.set(index, null);
+                    ByteBuffer buffer = ByteBuffer.wrap(entry.data, 0, (int) entry.compressedSize);
+                    while (buffer.hasRemaining()) {
+                        output.write(buffer);
+                    }
+                } else {
+                    entry = compressInline(files.get(index), output, options);
+                }
+                written.add(new ArchiveEntry(names.get(index), position, entry.compressedSize, entry.originalSize,
+                        entry.tableReference, entry.checksum));
+                position += entry.compressedSize;
+            }
+
+            ArchiveDirectory result = new ArchiveDirectory(written,
+                    dictionary != null ? dictionary.toByteArray() : null);
+            result.write(output, position);
+            output.close();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException error = new InterruptedIOException("Interrupted");
+            if (output != null) {
+                HuffmanCompressor.deletePartial(output, archive, error);
+            }
+            throw error;
+        } catch (ExecutionException e) {
+            if (output != null) {
+                HuffmanCompressor.deletePartial(output, archive,
+                        e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            }
+            throw unwrap(e);
+        } catch (IOException | RuntimeException e) {
+            if (output != null) {
+                HuffmanCompressor.deletePartial(output, archive, e);
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public List<ArchiveEntry> getEntries() {
+        return directory.getEntries();
+    }
+
+    /**
+     * Returns the entry stored under a name.
+     *
+     * @param name The entry name
+     * @return The first entry with that name, or null if there is none
+     */
+    public ArchiveEntry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * Opens a stream that decompresses one entry, reading only that entry's part of the archive.
+     *
+     * @param entry An entry of this archive
+     * @return The stream; closing it leaves the archive open
+     * @throws IOException If the entry's container is invalid or an I/O error occurs
+     */
+    public InputStream openStream(ArchiveEntry entry) throws IOException {
+        return new HuffmanInputStream(Channels.newInputStream(new EntryChannel(file, entry)), options,
+                dictionaryFor(entry));
+    }
+
+    /**
+     * Decompresses one entry into a file. Interrupting the calling thread stops the extraction and closes
+     * the archive.
+     *
+     * @param entry An entry of this archive
+     * @param output The file that receives the original data, replaced if it exists
+     * @return Number of bytes written
+     * @throws IOException If the entry is corrupt, its checksum does not match or an I/O error occurs;
+     *                     the output file is deleted
+     */
+    public long extract(ArchiveEntry entry, Path output) throws IOException {
+        return extract(entry, output, new AtomicBoolean());
+    }
+
+    /**
+     * Decompresses every entry into a directory, several entries at a time on
+     * {@link CompressionOptions#getParallelism()} threads. Entries are written to their names resolved against
+     * the directory, creating subdirectories as needed. The first failure stops the entries not yet finished.
+     *
+     * @param targetDirectory The directory that receives the files
+     * @return Total number of bytes written
+     * @throws java.io.InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If an entry name leads outside the directory, an entry is corrupt or an I/O error occurs
+     */
+    public long extractAll(Path targetDirectory) throws IOException {
+        Path root = targetDirectory.toAbsolutePath().normalize();
+        List<ArchiveEntry> entries = directory.getEntries();
+        List<Path> targets = new ArrayList<>(entries.size());
+        for (ArchiveEntry entry : entries) {
+            Path target = root.resolve(entry.getName()).normalize();
+            if (!target.startsWith(root) || target.equals(root)) {
+                throw new IOException("Entry name leads outside the target directory: " + entry.getName());
+            }
+            targets.add(target);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(options.getParallelism(), entries.size())));
+        // Workers are stopped through a flag: interrupting a read would close the shared archive channel
+        AtomicBoolean stopped = new AtomicBoolean();
+        try {
+            List<Future<Long>> results = new ArrayList<>(entries.size());
+            for (int index = 0; index < entries.size(); index++) {
+                ArchiveEntry entry = entries.get(index);
+                Path target = targets.get(index);
+                results.add(executor.submit(() -> {
+                    Files.createDirectories(target.getParent());
+                    return extract(entry, target, stopped);
+                }));
+            }
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get();
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            stopped.set(true);
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Decompresses one entry into a file, giving up between blocks once a flag is set.
+     *
+     * @param entry An entry of this archive
+     * @param output The file that receives the original data, replaced if it exists
+     * @param stopped Flag that stops the extraction
+     * @return Number of bytes written
+     * @throws IOException If the extraction fails or is stopped; the output file is deleted
+     */
+    private long extract(ArchiveEntry entry, Path output, AtomicBoolean stopped) throws IOException {
+        if (stopped.get()) {
+            throw new InterruptedIOException("Stopped");
+        }
+        FileChannel outputChannel = HuffmanCompressor.openForWrite(output);
+        try (FileChannel channel = outputChannel) {
+            return decode(entry, channel, stopped);
+        } catch (IOException | RuntimeException e) {
+            HuffmanCompressor.deletePartial(outputChannel, output, e);
+            throw e;
+        }
+    }
+
+    private long decode(ArchiveEntry entry, WritableByteChannel output, AtomicBoolean stopped) throws IOException {
+        DecoderContext context = DecoderContext.forCurrentThread(options);
+        CRC32 checksum = new CRC32();
+        long total = 0;
+        try {
+            context.begin(new EntryChannel(file, entry), dictionaryFor(entry));
+            int length;
+            while ((length = context.nextBlock()) >= 0) {
+                if (stopped.get()) {
+                    throw new InterruptedIOException("Stopped");
+                }
+                byte[] block = context.getBlock();
+                checksum.update(block, 0, length);
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                total += length;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CorruptDataException("Malformed code table", e);
+        } finally {
+            context.reset();
+        }
+        if (total != entry.getOriginalSize() || (int) checksum.getValue() != entry.getChecksum()) {
+            throw new CorruptDataException("Checksum mismatch in entry " + entry.getName());
+        }
+        return total;
+    }
+
+    private HuffmanDictionary dictionaryFor(ArchiveEntry entry) {
+        return entry.getTableReference() == ArchiveEntry.SHARED_TABLE ? sharedTable : null;
+    }
+
+    /**
+     * Builds the table shared by the small files from their combined byte counts.
+     *
+     * @return The table as a dictionary with ID 0, or null if there are no small files
+     */
+    private static HuffmanDictionary buildSharedTable(List<Path> files, boolean[] small, CompressionOptions options,
+                                                      ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        List<Future<long[]>> histograms = new ArrayList<>();
+        for (int index = 0; index < files.size(); index++) {
+            Path input = files.get(index);
+            if (small[index]) {
+                histograms.add(executor.submit(() -> {
+                    byte[] data = Files.readAllBytes(input);
+                    long[] histogram = new long[CanonicalCode.ALPHABET_SIZE];
+                    Histogram.count(data, 0, data.length, histogram);
+                    return histogram;
+                }));
+            }
+        }
+        if (histograms.isEmpty()) {
+            return null;
+        }
+        long[] total = new long[CanonicalCode.ALPHABET_SIZE];
+        for (Future<long[]> histogram : histograms) {
+            long[] counts = histogram.get();
+            for (int symbol = 0; symbol < total.length; symbol++) {
+                total[symbol] += counts[symbol];
+            }
+        }
+        return HuffmanDictionary.fromHistogram(0, total, options.getMaxCodeLength());
+    }
+
+    /**
+     * Compresses a small file into an array.
+     */
+    private static PackedEntry pack(Path input, CompressionOptions options, HuffmanDictionary dictionary)
+            throws IOException {
+        byte[] data = Files.readAllBytes(input);
+        EncoderContext context = EncoderContext.forCurrentThread(options);
+        byte[] compressed = new byte[context.maxCompressedLength(data.length)];
+        int length = context.compress(data, 0, data.length, compressed, 0, dictionary);
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, data.length);
+        return new PackedEntry(compressed, length, data.length,
+                dictionary != null ? ArchiveEntry.SHARED_TABLE : ArchiveEntry.OWN_TABLES, (int) checksum.getValue());
+    }
+
+    /**
+     * Compresses a large file straight into the archive, then reads it again for its checksum.
+     */
+    private static PackedEntry compressInline(Path input, FileChannel output, CompressionOptions options)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            BitOutputStream bitOutput = new BitOutputStream(output);
+            new BlockCompressor(options).compress(channel, bitOutput);
+            bitOutput.flush();
+
+            CRC32 checksum = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            for (long position = 0; position < size; ) {
+                ((Buffer) buffer).clear();
+                ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), size - position));
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new IOException("File changed while it was archived: " + input);
+                }
+                ((Buffer) buffer).flip();
+                checksum.update(buffer);
+                position += count;
+            }
+            return new PackedEntry(null, bitOutput.getPosition(), size, ArchiveEntry.OWN_TABLES,
+                    (int) checksum.getValue());
+        }
+    }
+
+    private static void checkName(String name) {
+        if (name.isEmpty() || name.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid entry name: " + name);
+        }
+        for (String segment : name.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                throw new IllegalArgumentException("Invalid entry name: " + name);
+            }
+        }
+    }
+
+    /**
+     * Returns the I/O error a task failed with, rethrowing any other failure.
+     */
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * Waits for the workers of an executor to finish, keeping the interrupt status of the caller.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The compressed form of an entry and the values recorded for it in the directory.
+     * The data is null for an entry written straight to the archive.
+     */
+    private static class PackedEntry {
+
+        private final byte[] data;
+        private final long compressedSize;
+        private final long originalSize;
+        private final int tableReference;
+        private final int checksum;
+
+        PackedEntry(byte[] data, long compressedSize, long originalSize, int tableReference, int checksum) {
+            this.data = data;
+            this.compressedSize = compressedSize;
+            this.originalSize = originalSize;
+            this.tableReference = tableReference;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Reads the container of one entry with positional reads, so entries can be read concurrently from one
+     * archive channel. Closing it leaves the archive channel open.
+     */
+    private static class EntryChannel implements ReadableByteChannel {
+
+        private final FileChannel file;
+        private final long end;
+        private long position;
+        private boolean open = true;
+
+        EntryChannel(FileChannel file, ArchiveEntry entry) {
+            this.file = file;
+            this.position = entry.getOffset();
+            this.end = entry.getOffset() + entry.getCompressedSize();
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int count;
+            if (destination.remaining() > end - position) {
+                ByteBuffer window = destination.duplicate();
+                ((Buffer) window).limit(window.position() + (int) (end - position));
+                count = file.read(window, position);
+                if (count > 0) {
+                    ((Buffer) destination).position(destination.position() + count);
+                }
+            } else {
+                count = file.read(destination, position);
+            }
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
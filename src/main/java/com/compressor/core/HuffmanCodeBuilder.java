@@ -0,0 +1,141 @@
+package com.compressor.core;
+
+import java.util.Arrays;
+
+/**
+ * Computes Huffman code lengths on primitive arrays, without allocating per build.
+ * <p>
+ * Symbols are sorted by weight using packed {@code weight << 8 | symbol} keys, then the tree is built
+ * with the two-queue method: leaves are taken in sorted order and merged nodes are created in
+ * non-decreasing weight order, so the two lightest nodes are always at the head of one of the two queues.
+ * The tree is kept as a parent array, and the code length of every leaf is its depth.
+ * <p>
+ * Codes longer than the requested limit are shortened with the counting heuristic used by deflate encoders:
+ * the overlong codes are clamped to the limit, and the resulting excess over the Kraft sum is paid back by
+ * splitting the longest code still below the limit. The lengths are then handed out again in weight order,
+ * so lighter symbols never get shorter codes than heavier ones.
+ * A builder holds its work arrays between builds and is not thread-safe.
+ */
+public final class HuffmanCodeBuilder {
+
+    private static final int MAX_NODES = 2 * CanonicalCode.ALPHABET_SIZE - 1;
+
+    // Sort keys of the used symbols: weight << 8 | symbol
+    private final long[] keys = new long[CanonicalCode.ALPHABET_SIZE];
+
+    // Nodes: leaves in sorted order first, then merged nodes in creation order
+    private final long[] weights = new long[MAX_NODES];
+    private final int[] parents = new int[MAX_NODES];
+    private final int[] depths = new int[MAX_NODES];
+
+    // Number of leaves at every depth
+    private final int[] lengthCount = new int[CanonicalCode.ALPHABET_SIZE];
+
+    /**
+     * Computes Huffman code lengths for the given byte frequencies, with no more than {@code maxLength} bits per code.
+     * A single used symbol gets a one-bit code.
+     *
+     * @param frequencies Number of occurrences of every byte value, each below 2^55
+     * @param maxLength Longest code length allowed, between {@link CanonicalCode#MIN_LENGTH_LIMIT} and {@link CanonicalCode#MAX_CODE_LENGTH}
+     * @param lengths Array of 256 entries that receives the code length of every byte value, 0 for unused values
+     * @return The longest code length, or 0 if all frequencies are zero
+     * @throws IllegalArgumentException If the length limit is out of range
+     */
+    public int buildLengths(long[] frequencies, int maxLength, byte[] lengths) {
+        if (maxLength < CanonicalCode.MIN_LENGTH_LIMIT || maxLength > CanonicalCode.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code length limit must be between " + CanonicalCode.MIN_LENGTH_LIMIT
+                    + " and " + CanonicalCode.MAX_CODE_LENGTH);
+        }
+        int count = 0;
+        for (int symbol = 0; symbol < CanonicalCode.ALPHABET_SIZE; symbol++) {
+            lengths[symbol] = 0;
+            if (frequencies[symbol] != 0) {
+                keys[count++] = (frequencies[symbol] << 8) | symbol;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        if (count == 1) {
+            lengths[(int) keys[0] & 0xFF] = 1;
+            return 1;
+        }
+        Arrays.sort(keys, 0, count);
+        for (int leaf = 0; leaf < count; leaf++) {
+            weights[leaf] = keys[leaf] >>> 8;
+        }
+
+        // Two-queue merge: leaves in [nextLeaf, count), merged nodes in [nextMerged, nodes)
+        int nodes = count;
+        int nextLeaf = 0;
+        int nextMerged = count;
+        while (nodes < 2 * count - 1) {
+            int first = (nextMerged == nodes || (nextLeaf < count && weights[nextLeaf] <= weights[nextMerged]))
+                    ? nextLeaf++ : nextMerged++;
+            int second = (nextMerged == nodes || (nextLeaf < count && weights[nextLeaf] <= weights[nextMerged]))
+                    ? nextLeaf++ : nextMerged++;
+            weights[nodes] = weights[first] + weights[second];
+            parents[first] = nodes;
+            parents[second] = nodes;
+            nodes++;
+        }
+
+        // Parents are always created after their children, so one backward pass assigns every depth
+        int root = nodes - 1;
+        depths[root] = 0;
+        for (int node = root - 1; node >= 0; node--) {
+            depths[node] = depths[parents[node]] + 1;
+        }
+        Arrays.fill(lengthCount, 0);
+        int longest = 0;
+        for (int leaf = 0; leaf < count; leaf++) {
+            lengthCount[depths[leaf]]++;
+            longest = Math.max(longest, depths[leaf]);
+        }
+
+        if (longest > maxLength) {
+            limitLengths(longest, maxLength);
+            longest = maxLength;
+        }
+
+        // Hand out the lengths from the longest, to the lightest symbols first
+        int leaf = 0;
+        for (int length = longest; length > 0; length--) {
+            for (int n = lengthCount[length]; n > 0; n--) {
+                lengths[(int) keys[leaf++] & 0xFF] = (byte) length;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Rewrites the length counts of a complete code so that no code is longer than the limit.
+     *
+     * @param longest Current longest code length
+     * @param maxLength The length limit
+     */
+    private void limitLengths(int longest, int maxLength) {
+        for (int length = maxLength + 1; length <= longest; length++) {
+            lengthCount[maxLength] += lengthCount[length];
+            lengthCount[length] = 0;
+        }
+
+        // Kraft sum in units of 2^-maxLength; a complete code sums to exactly 2^maxLength
+        long total = 0;
+        for (int length = maxLength; length > 0; length--) {
+            total += (long) lengthCount[length] << (maxLength - length);
+        }
+        while (total != 1L << maxLength) {
+            // Drop one code at the limit and split a shorter code into two codes one bit longer
+            lengthCount[maxLength]--;
+            for (int length = maxLength - 1; length > 0; length--) {
+                if (lengthCount[length] != 0) {
+                    lengthCount[length]--;
+                    lengthCount[length + 1] += 2;
+                    break;
+                }
+            }
+            total--;
+        }
+    }
+}
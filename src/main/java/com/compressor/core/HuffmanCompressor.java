@@ -1,20 +1,53 @@
 package com.compressor.core;
 
-import com.compressor.io.BitInputStream;
 import com.compressor.io.BitOutputStream;
-import com.compressor.util.CharFrequencyPair;
-import com.compressor.util.HuffmanPriorityQueue;
+import com.compressor.io.ContainerHeader;
+import com.compressor.io.CorruptDataException;
 import java.io.*;
-import java.util.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Main class for compressing and decompressing files using Huffman coding algorithm.
+ * Compressed files are self-describing: they start with a {@link ContainerHeader} and hold the input as
+ * independently coded blocks, which are compressed and decompressed in parallel by a {@link BlockCompressor}
+ * and a {@link BlockDecompressor}.
+ * All file access goes through {@link FileChannel}s in large blocks.
  */
 public class HuffmanCompressor {
 
-    private int currentByte;
-    private HashMap<Integer, String> encodingMap = new HashMap<>();
-    private HashMap<String, Integer> decodingMap = new HashMap<>();
+    private CompressionOptions options;
+    private int jobSlots;
+
+    /**
+     * Creates a compressor with the default options.
+     */
+    public HuffmanCompressor() {
+        this(new CompressionOptions());
+    }
+
+    /**
+     * Creates a compressor with the given options.
+     * 
+     * @param options Block size, parallelism and ratio settings
+     */
+    public HuffmanCompressor(CompressionOptions options) {
+        this(options, 1);
+    }
+
+    /**
+     * Creates a compressor whose calls run alongside others and share the parallelism of the options with them.
+     * 
+     * @param options Block size, parallelism and ratio settings
+     * @param jobSlots Number of calls that may run at once, at least 1
+     */
+    HuffmanCompressor(CompressionOptions options, int jobSlots) {
+        this.options = options;
+        this.jobSlots = jobSlots;
+    }
 
     /**
      * Compresses the given file using Huffman coding.
@@ -23,102 +56,87 @@ public class HuffmanCompressor {
      * @return Status code: 0 = file not found, 1 = empty file, 2 = success
      */
     public int compress(String filePath) {
-        int[] frequencyArray = new int[256];
-        
-        // Read file and count character frequencies
-        try (FileInputStream fileInput = new FileInputStream(filePath)) {
-            currentByte = fileInput.read();
-            boolean hasContent = false;
-            
-            while (currentByte != -1) {
-                frequencyArray[currentByte]++;
-                currentByte = fileInput.read();
-                hasContent = true;
-            }
-            
-            if (!hasContent) {
+        return compress(filePath, null);
+    }
+
+    /**
+     * Compresses the given file with a pre-trained dictionary as the shared table.
+     * The compressed file refers to the dictionary by ID and can only be decompressed with it.
+     * 
+     * @param filePath Path to the file to be compressed
+     * @param dictionary The dictionary, or null to store a shared table in the file
+     * @return Status code: 0 = file not found, 1 = empty file, 2 = success
+     */
+    public int compress(String filePath, HuffmanDictionary dictionary) {
+        try {
+            if (Files.size(Paths.get(filePath)) == 0) {
                 return 1; // Empty file
             }
-        } catch (FileNotFoundException e) {
-            return 0; // File not found
         } catch (IOException e) {
-            return 0; // IO error
+            reportFailure(e);
+            return 0; // File not found
         }
-
-        // Build Huffman tree
-        HuffmanPriorityQueue priorityQueue = new HuffmanPriorityQueue();
-        
-        for (int i = 0; i < 256; i++) {
-            if (frequencyArray[i] != 0) {
-                CharFrequencyPair pair = new CharFrequencyPair(i, frequencyArray[i]);
-                priorityQueue.insert(pair);
-            }
+        try {
+            compress(Paths.get(filePath), Paths.get("Compressed.txt"), dictionary);
+        } catch (IOException e) {
+            return 0; // IO error, already reported
         }
         
-        // Add EOF marker
-        priorityQueue.insert(new CharFrequencyPair(-1, 1));
+        return 2; // Success
+    }
 
-        HuffmanTree tree = new HuffmanTree();
-        CharFrequencyPair leftNode, rightNode, parentNode;
-        
-        while (priorityQueue.size() != 2) {
-            leftNode = priorityQueue.removeMin();
-            rightNode = priorityQueue.removeMin();
-            parentNode = tree.merge(leftNode, rightNode);
-            priorityQueue.insert(parentNode);
-        }
-        
-        boolean[] codePath = new boolean[100];
-        tree.generateCodes(tree.getRoot(priorityQueue.removeMin()), encodingMap, decodingMap, 0, codePath, false);
-
-        // Write compressed file
-        try (FileInputStream input = new FileInputStream(filePath);
-             FileOutputStream output = new FileOutputStream("Compressed.txt");
-             BitOutputStream bitOutput = new BitOutputStream(output)) {
-            
-            String encodedString;
-            do {
-                currentByte = input.read();
-                encodedString = encodingMap.get(currentByte);
-                for (int j = 0; j < encodedString.length(); j++) {
-                    bitOutput.write(encodedString.charAt(j));
-                }
-            } while (currentByte != -1);
-            
-        } catch (FileNotFoundException e) {
-            return 0;
+    /**
+     * Compresses a file into the given output file. Several calls may run at the same time on one instance.
+     * Interrupting the calling thread stops the compression; the output file is deleted when it fails or stops.
+     * An empty file gives a container of a few bytes that decompresses to an empty file.
+     * 
+     * @param input The file to compress
+     * @param output The file that receives the container, replaced if it exists
+     * @param dictionary The dictionary, or null to store a shared table in the file
+     * @return Size of the compressed file in bytes
+     * @throws java.io.InterruptedIOException If the calling thread is interrupted
+     * @throws IOException If the input is missing or an I/O error occurs
+     */
+    public long compress(Path input, Path output, HuffmanDictionary dictionary) throws IOException {
+        try (FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ)) {
+            FileChannel outputChannel = openForWrite(output);
+            try (BitOutputStream bitOutput = new BitOutputStream(outputChannel)) {
+                new BlockCompressor(options, jobSlots).compress(inputChannel, bitOutput, dictionary);
+                return bitOutput.getPosition();
+            } catch (IOException | RuntimeException e) {
+                deletePartial(outputChannel, output, e);
+                throw e;
+            }
         } catch (IOException e) {
-            return 0;
+            reportFailure(e);
+            throw e;
         }
-        
-        return 2; // Success
     }
 
     /**
      * Decompresses the given compressed file.
+     * The code tables are read from the file itself, so any instance can decompress any compressed file.
      * 
      * @param filePath Path to the compressed file
-     * @return Status code: 0 = file not found/error, 3 = success
+     * @return Status code: 0 = file not found/error, 3 = success, 4 = corrupt data or checksum mismatch
      */
     public int decompress(String filePath) {
-        try (FileInputStream input = new FileInputStream(filePath);
-             FileOutputStream output = new FileOutputStream("Decompressed.txt");
-             BitInputStream bitInput = new BitInputStream(output)) {
-            
-            currentByte = input.read();
-            int status;
-            
-            while (currentByte != -1) {
-                bitInput.appendBits(convertToBinaryString(currentByte));
-                status = bitInput.write(decodingMap, encodingMap);
-                if (status == 1) {
-                    break; // EOF marker found
-                }
-                currentByte = input.read();
-            }
-            
-        } catch (FileNotFoundException e) {
-            return 0;
+        return decompress(filePath, null);
+    }
+
+    /**
+     * Decompresses a compressed file written with a dictionary.
+     * 
+     * @param filePath Path to the compressed file
+     * @param dictionary The dictionary the file was written with, or null if there is none
+     * @return Status code: 0 = file not found or an I/O error, such as failing to write the output, 3 = success,
+     * 4 = corrupt data, checksum mismatch or missing dictionary
+     */
+    public int decompress(String filePath, HuffmanDictionary dictionary) {
+        try {
+            decompress(Paths.get(filePath), Paths.get("Decompressed.txt"), dictionary);
+        } catch (CorruptDataException e) {
+            return 4;
         } catch (IOException e) {
             return 0;
         }
@@ -127,26 +145,91 @@ public class HuffmanCompressor {
     }
 
     /**
-     * Converts an integer to its 8-bit binary string representation.
+     * Decompresses a compressed file into the given output file. Several calls may run at the same time on one instance.
+     * Interrupting the calling thread stops the decompression; the output file is deleted when it fails or stops.
      * 
-     * @param value The integer value to convert
-     * @return 8-bit binary string
+     * @param input The compressed file
+     * @param output The file that receives the original data, replaced if it exists
+     * @param dictionary The dictionary the file was written with, or null if there is none
+     * @return Number of bytes written
+     * @throws java.io.InterruptedIOException If the calling thread is interrupted
+     * @throws CorruptDataException If the input is corrupt or the dictionary is missing
+     * @throws IOException If the input is missing or an I/O error occurs
      */
-    private static String convertToBinaryString(int value) {
-        String binaryString = "";
-        int digit;
-        
-        while (value != 0) {
-            digit = value % 2;
-            value = value / 2;
-            binaryString = (digit == 1 ? 1 : 0) + binaryString;
+    public long decompress(Path input, Path output, HuffmanDictionary dictionary) throws IOException {
+        try (FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ)) {
+            FileChannel outputChannel = openForWrite(output);
+            try (FileChannel channel = outputChannel) {
+                return new BlockDecompressor(options, jobSlots).decompress(inputChannel, channel, dictionary);
+            } catch (IOException | RuntimeException e) {
+                deletePartial(outputChannel, output, e);
+                throw e;
+            }
+        } catch (IllegalArgumentException e) {
+            IOException error = new CorruptDataException("Malformed code table", e);
+            reportFailure(error);
+            throw error;
+        } catch (IOException e) {
+            reportFailure(e);
+            throw e;
         }
-        
-        while (binaryString.length() < 8) {
-            binaryString = '0' + binaryString;
+    }
+
+    /**
+     * Reads a range of the original data from a compressed file without decompressing the whole file.
+     * Only the blocks that cover the range are decoded.
+     * 
+     * @param filePath Path to the compressed file
+     * @param offset Offset of the range in the original data
+     * @param length Number of bytes to read
+     * @return The bytes, shorter than length if the range extends past the end of the data
+     * @throws IOException If the file is missing or corrupt, or an I/O error occurs
+     */
+    public byte[] readRange(String filePath, long offset, int length) throws IOException {
+        try (CompressedFileReader reader = new CompressedFileReader(filePath)) {
+            return reader.readRange(offset, length);
+        } catch (IllegalArgumentException e) {
+            throw new CorruptDataException("Malformed code table", e);
+        }
+    }
+
+    /**
+     * Passes a failed operation to the listener of the options, if there is one.
+     * 
+     * @param error The error
+     */
+    private void reportFailure(IOException error) {
+        if (options.getListener() != null) {
+            options.getListener().failed(error);
+        }
+    }
+
+    /**
+     * Closes and deletes the output of an operation that failed or was interrupted, so that no truncated
+     * file is left behind. Errors doing so are added to the original error.
+     * 
+     * @param channel The channel the output was written through
+     * @param filePath Path to the output file
+     * @param error The error that stopped the operation
+     */
+    static void deletePartial(FileChannel channel, Path filePath, Exception error) {
+        try {
+            channel.close();
+            Files.deleteIfExists(filePath);
+        } catch (IOException e) {
+            error.addSuppressed(e);
         }
-        
-        return binaryString;
     }
-}
 
+    /**
+     * Opens a file for writing, replacing any previous content.
+     * 
+     * @param filePath Path to the output file
+     * @return The writable channel
+     * @throws IOException If the file cannot be opened
+     */
+    static FileChannel openForWrite(Path filePath) throws IOException {
+        return FileChannel.open(filePath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,177 @@
+package com.compressor.core;
+
+import com.compressor.io.BitInputStream;
+import com.compressor.io.ContainerHeader;
+import com.compressor.io.CorruptDataException;
+import com.compressor.io.HuffmanDecoder;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pre-trained code table that compressed data refers to by ID instead of carrying a table.
+ * <p>
+ * Small payloads lose most of their gain to the stored table and to histograms too small to be
+ * representative. A dictionary is trained once on a corpus of typical payloads, distributed to both sides,
+ * and then used as the shared table of every container written with it. Containers only store the ID, and
+ * blocks still store their own table when that is smaller. The table has a code for every byte value, so
+ * any data can be coded with it.
+ * <p>
+ * Serialized layout: the magic bytes "HUFD", a version byte, the ID as an unsigned variable-length integer,
+ * and the code-length table in the form used by {@link ContainerHeader}.
+ */
+public class HuffmanDictionary {
+
+    /** Serialization version written by this implementation. */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = ('H' << 24) | ('U' << 16) | ('F' << 8) | 'D';
+
+    private int id;
+    private CodeTable table;
+    private HuffmanDecoder decoder;
+
+    /**
+     * Creates a dictionary from a code table.
+     *
+     * @param id The ID containers use to refer to the dictionary, not negative
+     * @param codeLengths Code length per byte value; every byte value must have a code
+     * @throws IllegalArgumentException If the ID is negative or the lengths are not a complete canonical code
+     */
+    public HuffmanDictionary(int id, byte[] codeLengths) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Dictionary ID must not be negative");
+        }
+        for (byte length : codeLengths) {
+            if (length == 0) {
+                throw new IllegalArgumentException("Dictionary must have a code for every byte value");
+            }
+        }
+        this.id = id;
+        this.table = new CodeTable(codeLengths.clone());
+        this.decoder = table.newDecoder();
+    }
+
+    /**
+     * Trains a dictionary on sample payloads, with the default code length limit.
+     *
+     * @param id The ID containers use to refer to the dictionary
+     * @param samples Typical payloads
+     * @return The dictionary
+     */
+    public static HuffmanDictionary train(int id, Iterable<byte[]> samples) {
+        return train(id, samples, CompressionOptions.DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Trains a dictionary on sample payloads. Byte values that do not occur in the samples are counted
+     * once, so they get long codes instead of none.
+     *
+     * @param id The ID containers use to refer to the dictionary
+     * @param samples Typical payloads
+     * @param maxCodeLength Longest code length allowed
+     * @return The dictionary
+     * @throws IllegalArgumentException If the ID is negative or the length limit is out of range
+     */
+    public static HuffmanDictionary train(int id, Iterable<byte[]> samples, int maxCodeLength) {
+        long[] frequencies = new long[CanonicalCode.ALPHABET_SIZE];
+        for (byte[] sample : samples) {
+            Histogram.count(sample, 0, sample.length, frequencies);
+        }
+        return fromHistogram(id, frequencies, maxCodeLength);
+    }
+
+    /**
+     * Builds a dictionary from byte counts. Byte values that were not counted get long codes instead of none.
+     *
+     * @param id The ID containers use to refer to the dictionary
+     * @param frequencies Count per byte value
+     * @param maxCodeLength Longest code length allowed
+     * @return The dictionary
+     * @throws IllegalArgumentException If the ID is negative or the length limit is out of range
+     */
+    static HuffmanDictionary fromHistogram(int id, long[] frequencies, int maxCodeLength) {
+        long[] counts = frequencies.clone();
+        for (int symbol = 0; symbol < CanonicalCode.ALPHABET_SIZE; symbol++) {
+            if (counts[symbol] == 0) {
+                counts[symbol] = 1;
+            }
+        }
+        return new HuffmanDictionary(id, CodeTable.build(counts, maxCodeLength).getLengths());
+    }
+
+    /**
+     * Reads a dictionary written by {@link #toByteArray()}.
+     *
+     * @param bytes The serialized dictionary
+     * @return The dictionary
+     * @throws IOException If the bytes are not a valid dictionary
+     */
+    public static HuffmanDictionary fromByteArray(byte[] bytes) throws IOException {
+        BitInputStream input = new BitInputStream(bytes, 0, bytes.length);
+        if (input.readBits(32) != MAGIC) {
+            throw new CorruptDataException("Not a dictionary");
+        }
+        int version = input.readBits(8);
+        if (version != VERSION) {
+            throw new CorruptDataException("Unsupported dictionary version " + version);
+        }
+        long id = ContainerHeader.readVarLong(input);
+        if (id > Integer.MAX_VALUE) {
+            throw new CorruptDataException("Corrupt dictionary ID");
+        }
+        try {
+            return new HuffmanDictionary((int) id, ContainerHeader.readCodeLengths(input));
+        } catch (IllegalArgumentException e) {
+            throw new CorruptDataException("Malformed dictionary table", e);
+        }
+    }
+
+    /**
+     * Serializes the dictionary.
+     *
+     * @return The serialized dictionary
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[5 + 5 + ContainerHeader.MAX_TABLE_SIZE];
+        int position = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes[position++] = (byte) (MAGIC >>> shift);
+        }
+        bytes[position++] = (byte) VERSION;
+        position = ContainerHeader.writeVarLong(id, bytes, position);
+        position = ContainerHeader.writeCodeLengths(table.getLengths(), bytes, position);
+        return Arrays.copyOf(bytes, position);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public CodeTable getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the decoder of the dictionary's table, built once when the dictionary is created.
+     *
+     * @return The decoder
+     */
+    HuffmanDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Returns the decoder for the dictionary a container refers to.
+     *
+     * @param header The container header
+     * @param dictionary The dictionary supplied by the caller, or null if there is none
+     * @return The dictionary's decoder
+     * @throws IOException If the supplied dictionary is missing or has another ID
+     */
+    static HuffmanDecoder decoderFor(ContainerHeader header, HuffmanDictionary dictionary) throws IOException {
+        if (dictionary == null || dictionary.id != header.getDictionaryId()) {
+            throw new CorruptDataException("Compressed data needs dictionary " + header.getDictionaryId());
+        }
+        return dictionary.decoder;
+    }
+}
@@ -0,0 +1,137 @@
+package com.compressor.core;
+
+import com.compressor.io.BitInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Input stream filter that decompresses data in the block container format, in the spirit of
+ * {@link java.util.zip.GZIPInputStream}.
+ * <p>
+ * Blocks are decoded one at a time as the data is read, so memory use is bounded by the block size.
+ * The stream reads ahead of the compressed data, so the underlying stream should hold nothing after it.
+ * <p>
+ * The buffers belong to a {@link DecoderContext}; streams created on a shared context allocate almost nothing,
+ * but only one of them may be open at a time.
+ */
+public class HuffmanInputStream extends InputStream {
+
+    private BitInputStream bitInput;
+    private DecoderContext context;
+    private byte[] block = new byte[0];
+    private int blockLength = 0;
+    private int blockPosition = 0;
+
+    /**
+     * Creates a decompressing stream and reads the container header.
+     * 
+     * @param in The stream that supplies the compressed data
+     * @throws IOException If the data is not a valid container or an I/O error occurs
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        this(in, new CompressionOptions());
+    }
+
+    /**
+     * Creates a decompressing stream with the given options and reads the container header.
+     * 
+     * @param in The stream that supplies the compressed data
+     * @param options Settings that provide the table cache
+     * @throws IOException If the data is not a valid container or an I/O error occurs
+     */
+    public HuffmanInputStream(InputStream in, CompressionOptions options) throws IOException {
+        this(in, options, null);
+    }
+
+    /**
+     * Creates a decompressing stream for data written with a dictionary and reads the container header.
+     * 
+     * @param in The stream that supplies the compressed data
+     * @param options Settings that provide the table cache
+     * @param dictionary The dictionary the data was written with, or null if there is none
+     * @throws IOException If the data is not a valid container, the dictionary is missing or an I/O error occurs
+     */
+    public HuffmanInputStream(InputStream in, CompressionOptions options, HuffmanDictionary dictionary)
+            throws IOException {
+        this(in, new DecoderContext(options), dictionary);
+    }
+
+    /**
+     * Creates a decompressing stream that works in the buffers of a reusable context and reads the container header.
+     * 
+     * @param in The stream that supplies the compressed data
+     * @param context The context, which must not be used for anything else until the stream is closed
+     * @throws IOException If the data is not a valid container or an I/O error occurs
+     */
+    public HuffmanInputStream(InputStream in, DecoderContext context) throws IOException {
+        this(in, context, null);
+    }
+
+    /**
+     * Creates a decompressing stream for data written with a dictionary that works in the buffers of a reusable
+     * context, and reads the container header.
+     * 
+     * @param in The stream that supplies the compressed data
+     * @param context The context, which must not be used for anything else until the stream is closed
+     * @param dictionary The dictionary the data was written with, or null if there is none
+     * @throws IOException If the data is not a valid container, the dictionary is missing or an I/O error occurs
+     */
+    public HuffmanInputStream(InputStream in, DecoderContext context, HuffmanDictionary dictionary)
+            throws IOException {
+        this.context = context;
+        this.bitInput = context.begin(Channels.newChannel(in), dictionary);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (blockPosition == blockLength && !nextBlock()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (blockPosition == blockLength && !nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, blockLength - blockPosition);
+        System.arraycopy(block, blockPosition, b, off, count);
+        blockPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return blockLength - blockPosition;
+    }
+
+    /**
+     * Decodes the next block into the block buffer of the context.
+     * 
+     * @return true if a block was decoded, false at the end of the data
+     * @throws IOException If the data is corrupt or an I/O error occurs
+     */
+    private boolean nextBlock() throws IOException {
+        int length = context.nextBlock();
+        if (length < 0) {
+            return false;
+        }
+        block = context.getBlock();
+        blockLength = length;
+        blockPosition = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        bitInput.close();
+    }
+}
@@ -0,0 +1,180 @@
+package com.compressor.core;
+
+import com.compressor.io.BitOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Output stream filter that compresses data into the block container format, in the spirit of
+ * {@link java.util.zip.GZIPOutputStream}.
+ * <p>
+ * Data is collected into blocks of the configured size. Every full block is coded with a new table, or with
+ * the table of the last block that stored one or the table of a {@link HuffmanDictionary} when that is cheaper,
+ * and written immediately, so memory use is bounded by the block size whatever the length of the data.
+ * The output can be read back with {@link HuffmanInputStream}, or, once stored in a file, with
+ * {@link HuffmanCompressor#decompress(String)} and {@link CompressedFileReader}. With
+ * {@link CompressionOptions#setCompactFraming(boolean)}, data that fits in one block and is not flushed before
+ * the end is written as a compact frame, which {@link CompressedFileReader} does not read.
+ * <p>
+ * The buffers belong to an {@link EncoderContext}; streams created on a shared context allocate almost nothing,
+ * but only one of them may be open at a time.
+ */
+public class HuffmanOutputStream extends OutputStream {
+
+    private OutputStream out;
+    private BitOutputStream bitOutput;
+    private EncoderContext context;
+    private byte[] block;
+    private int blockLength = 0;
+    private boolean finished = false;
+
+    /**
+     * Creates a compressing stream with the default block size.
+     * 
+     * @param out The stream that receives the compressed data
+     * @throws IOException If the header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, new CompressionOptions());
+    }
+
+    /**
+     * Creates a compressing stream.
+     * 
+     * @param out The stream that receives the compressed data
+     * @param options Settings that provide the block size, code length limit and stream layout
+     * @throws IOException If the header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out, CompressionOptions options) throws IOException {
+        this(out, options, null);
+    }
+
+    /**
+     * Creates a compressing stream whose blocks can use a dictionary's table without storing it.
+     * The data can only be read back with the same dictionary.
+     * 
+     * @param out The stream that receives the compressed data
+     * @param options Settings that provide the block size, code length limit and stream layout
+     * @param dictionary The dictionary, or null if there is none
+     * @throws IOException If the header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out, CompressionOptions options, HuffmanDictionary dictionary)
+            throws IOException {
+        this(out, new EncoderContext(options), dictionary);
+    }
+
+    /**
+     * Creates a compressing stream that works in the buffers of a reusable context.
+     * 
+     * @param out The stream that receives the compressed data
+     * @param context The context, which must not be used for anything else until the stream is closed
+     * @throws IOException If the header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out, EncoderContext context) throws IOException {
+        this(out, context, null);
+    }
+
+    /**
+     * Creates a compressing stream with a dictionary that works in the buffers of a reusable context.
+     * 
+     * @param out The stream that receives the compressed data
+     * @param context The context, which must not be used for anything else until the stream is closed
+     * @param dictionary The dictionary, or null if there is none
+     * @throws IOException If the header cannot be written
+     */
+    public HuffmanOutputStream(OutputStream out, EncoderContext context, HuffmanDictionary dictionary)
+            throws IOException {
+        this.out = out;
+        this.context = context;
+        this.bitOutput = context.begin(Channels.newChannel(out), dictionary);
+        this.block = context.getBlockBuffer();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (blockLength == block.length) {
+            writeBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        // A full block is only written once more data follows, so that data of exactly one block can still end
+        // in a compact frame
+        while (len > 0) {
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+            int count = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Compresses the buffered data as a short block and flushes it to the underlying stream.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeBlock();
+        bitOutput.flush();
+        out.flush();
+    }
+
+    /**
+     * Writes the last block and the block index, or the whole compact frame, without closing the underlying stream.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        context.finish(block, 0, blockLength);
+        blockLength = 0;
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Finishes the compressed data and closes the underlying stream.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            bitOutput.close();
+        }
+    }
+
+    /**
+     * Codes the buffered data as one block frame.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeBlock() throws IOException {
+        context.writeBlock(block, 0, blockLength);
+        blockLength = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream is finished");
+        }
+    }
+}
@@ -27,38 +27,38 @@ public class HuffmanTree {
     }
 
     /**
-     * Generates Huffman codes for all characters in the tree.
+     * Generates canonical Huffman codes for all characters in the tree.
+     * 
+     * @param root Root of the tree
+     * @param codes Array indexed by character that receives the codes, right-aligned
+     * @param lengths Array indexed by character that receives the code lengths, 0 for absent characters
+     */
+    public void generateCodes(TreeNode root, int[] codes, byte[] lengths) {
+        generateCodeLengths(root, lengths, 0);
+        int[] canonicalCodes = CanonicalCode.generateCodes(lengths);
+        System.arraycopy(canonicalCodes, 0, codes, 0, canonicalCodes.length);
+    }
+
+    /**
+     * Records the code length (leaf depth) of every character in the tree.
      * 
      * @param root Current tree node
-     * @param encodingMap Map to store character to code mappings
-     * @param decodingMap Map to store code to character mappings
+     * @param lengths Array indexed by character that receives the code lengths
      * @param depth Current depth in the tree
-     * @param codePath Array representing the current code path
-     * @param bit Current bit value (false for 0, true for 1)
      */
-    public void generateCodes(TreeNode root, HashMap<Integer, String> encodingMap, 
-                             HashMap<String, Integer> decodingMap, int depth, 
-                             boolean[] codePath, boolean bit) {
+    private void generateCodeLengths(TreeNode root, byte[] lengths, int depth) {
         if (root == null) {
             return;
         }
         
-        codePath[depth] = bit;
-        
-        // Leaf node - store the code
+        // Leaf node - store the depth
         if (root.getLeft() == null && root.getRight() == null) {
-            StringBuilder code = new StringBuilder();
-            for (int j = 1; j <= depth; j++) {
-                code.append(codePath[j] ? 1 : 0);
-            }
-            String codeString = code.toString();
-            encodingMap.put(root.getData().getCharacter(), codeString);
-            decodingMap.put(codeString, root.getData().getCharacter());
+            lengths[root.getData().getCharacter()] = (byte) depth;
+            return;
         }
         
-        // Traverse left and right subtrees
-        generateCodes(root.getLeft(), encodingMap, decodingMap, depth + 1, codePath, false);
-        generateCodes(root.getRight(), encodingMap, decodingMap, depth + 1, codePath, true);
+        generateCodeLengths(root.getLeft(), lengths, depth + 1);
+        generateCodeLengths(root.getRight(), lengths, depth + 1);
     }
 
     /**
@@ -0,0 +1,304 @@
+package com.compressor.gui;
+
+import com.compressor.core.CompressedFileReader;
+import com.compressor.core.CompressionListener;
+import com.compressor.core.CompressionOptions;
+import com.compressor.core.HuffmanCompressor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.swing.SwingWorker;
+
+/**
+ * Compresses or decompresses a queue of files one after another on a background thread, keeping the
+ * event dispatch thread free.
+ * <p>
+ * Progress is counted in uncompressed bytes coded so far, reported by the pipeline through a
+ * {@link CompressionListener}. It is passed on as the worker's progress, from 0 to 100 over the whole queue,
+ * and as {@link Progress} snapshots for {@link #process(List)}, at most every {@value #UPDATE_INTERVAL_MILLIS} ms.
+ * {@link #stop()} interrupts the file in progress, whose partial output is deleted, and skips the rest.
+ * <p>
+ * Every file is written next to its input: {@code name} is compressed to {@code Compressed-name}, and
+ * {@code Compressed-name} is decompressed to {@code Decompressed-name}.
+ */
+class BatchWorker extends SwingWorker<Void, BatchWorker.Progress> {
+
+    private static final long UPDATE_INTERVAL_MILLIS = 100;
+    private static final String COMPRESSED_PREFIX = "Compressed-";
+    private static final String DECOMPRESSED_PREFIX = "Decompressed-";
+
+    private final List<File> files;
+    private final boolean compressing;
+    private final List<File> completed = new ArrayList<>();
+    private final List<Path> outputs = new ArrayList<>();
+    private final List<String> failures = new ArrayList<>();
+    private Thread runner;
+    private volatile boolean stopped;
+
+    // State of the file in progress, read by the listener on the pipeline's threads
+    private volatile FileListener current;
+    private volatile int currentIndex;
+    private volatile long currentLength;
+    private volatile long currentCompressedSize;
+    private volatile long finishedOriginal;
+    private volatile long finishedCompressed;
+    private long totalBytes;
+    private long startNanos;
+    private long nextUpdate;
+
+    /**
+     * Creates a worker for a queue of files.
+     *
+     * @param files The files to process, in order
+     * @param compressing true to compress the files, false to decompress them
+     */
+    BatchWorker(List<File> files, boolean compressing) {
+        this.files = new ArrayList<>(files);
+        this.compressing = compressing;
+    }
+
+    /**
+     * Returns the file a queued file is written to.
+     *
+     * @param input The queued file
+     * @param compressing true when the file is compressed, false when it is decompressed
+     * @return The output path, in the directory of the input
+     */
+    static Path outputPath(File input, boolean compressing) {
+        String name = input.getName();
+        if (compressing) {
+            return input.toPath().resolveSibling(COMPRESSED_PREFIX + name);
+        }
+        if (name.startsWith(COMPRESSED_PREFIX) && name.length() > COMPRESSED_PREFIX.length()) {
+            name = name.substring(COMPRESSED_PREFIX.length());
+        }
+        return input.toPath().resolveSibling(DECOMPRESSED_PREFIX + name);
+    }
+
+    /**
+     * Stops the worker: the file in progress is interrupted and no further file is started.
+     * Returns at once; {@link #done()} is called when the file in progress has been cleaned up.
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (runner != null) {
+            runner.interrupt();
+        }
+    }
+
+    /**
+     * Tells whether the worker was stopped before it processed every file.
+     *
+     * @return true if {@link #stop()} was called
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the queued files that were processed successfully. Valid once the worker is done.
+     *
+     * @return The files, in queue order
+     */
+    List<File> getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Returns the files written. Valid once the worker is done.
+     *
+     * @return One output path per completed file
+     */
+    List<Path> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Returns a description of every file that failed. Valid once the worker is done.
+     *
+     * @return File names followed by the reason
+     */
+    List<String> getFailures() {
+        return failures;
+    }
+
+    @Override
+    protected Void doInBackground() {
+        synchronized (this) {
+            if (stopped) {
+                return null;
+            }
+            runner = Thread.currentThread();
+        }
+        try {
+            long[] lengths = new long[files.size()];
+            for (int index = 0; index < files.size(); index++) {
+                lengths[index] = originalLength(files.get(index));
+                totalBytes += lengths[index];
+            }
+            startNanos = System.nanoTime();
+            for (int index = 0; index < files.size() && !stopped; index++) {
+                File input = files.get(index);
+                Path output = outputPath(input, compressing);
+                currentIndex = index;
+                currentLength = lengths[index];
+                currentCompressedSize = compressing ? 0 : input.length();
+                current = new FileListener();
+                update(true);
+
+                CompressionOptions options = new CompressionOptions();
+                options.setListener(current);
+                HuffmanCompressor compressor = new HuffmanCompressor(options);
+                try {
+                    if (compressing) {
+                        finishedCompressed += compressor.compress(input.toPath(), output, null);
+                        finishedOriginal += lengths[index];
+                    } else {
+                        finishedOriginal += compressor.decompress(input.toPath(), output, null);
+                        finishedCompressed += currentCompressedSize;
+                    }
+                    current = null;
+                    completed.add(input);
+                    outputs.add(output);
+                } catch (IOException e) {
+                    current = null;
+                    if (stopped) {
+                        break;
+                    }
+                    failures.add(input.getName() + ": " + describe(e));
+                    totalBytes -= lengths[index];
+                }
+            }
+            update(true);
+            return null;
+        } finally {
+            synchronized (this) {
+                runner = null;
+                // Clears an interrupt from stop() that arrived after the last file
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of uncompressed bytes a queued file stands for.
+     *
+     * @param input The queued file
+     * @return The size of the input when compressing, the original length stored in it when decompressing,
+     *         or 0 if it cannot be read, in which case processing the file reports the error
+     */
+    private long originalLength(File input) {
+        if (compressing) {
+            return input.length();
+        }
+        try (CompressedFileReader reader = new CompressedFileReader(input.getPath())) {
+            return reader.length();
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Publishes a progress snapshot, unless one was published less than {@value #UPDATE_INTERVAL_MILLIS} ms ago.
+     *
+     * @param force true to publish regardless of the time
+     */
+    private synchronized void update(boolean force) {
+        long now = System.nanoTime();
+        if (!force && now - nextUpdate < 0) {
+            return;
+        }
+        nextUpdate = now + UPDATE_INTERVAL_MILLIS * 1000000;
+
+        FileListener listener = current;
+        long coded = listener != null ? Math.min(listener.coded.sum(), currentLength) : 0;
+        long written = listener != null ? listener.written.sum() : 0;
+        long original = finishedOriginal + coded;
+        long compressed = finishedCompressed;
+        if (listener != null) {
+            compressed += compressing ? written
+                    : (long) ((double) currentCompressedSize * coded / Math.max(1, currentLength));
+        }
+        double seconds = (now - startNanos) / 1e9;
+        double megabytesPerSecond = seconds > 0 ? original / seconds / (1 << 20) : 0;
+        double ratio = original > 0 && compressed > 0 ? (double) compressed / original : 0;
+        int fileIndex = listener != null ? currentIndex : -1;
+        setProgress(totalBytes > 0 ? (int) Math.min(100, original * 100 / totalBytes) : 0);
+        publish(new Progress(fileIndex, files.size(), fileIndex >= 0 ? files.get(fileIndex).getName() : null,
+                megabytesPerSecond, ratio));
+    }
+
+    private static String describe(IOException error) {
+        if (error instanceof NoSuchFileException) {
+            return "File not found";
+        }
+        return error.getMessage() != null ? error.getMessage() : error.toString();
+    }
+
+    /**
+     * Counts the bytes coded and written for the file in progress.
+     */
+    private class FileListener implements CompressionListener {
+
+        private final LongAdder coded = new LongAdder();
+        private final LongAdder written = new LongAdder();
+
+        @Override
+        public void phaseCompleted(Phase phase, long nanos, long bytes) {
+            if (phase == (compressing ? Phase.ENCODE : Phase.DECODE)) {
+                coded.add(bytes);
+            } else if (compressing && phase == Phase.WRITE) {
+                written.add(bytes);
+            } else {
+                return;
+            }
+            update(false);
+        }
+    }
+
+    /**
+     * A snapshot of the progress of the queue: the file in progress, with its position in the queue or -1
+     * between files, the uncompressed megabytes coded per second since the queue started, and the compressed
+     * size divided by the original size so far, or 0 before anything has been coded.
+     */
+    static class Progress {
+
+        private final int fileIndex;
+        private final int fileCount;
+        private final String fileName;
+        private final double megabytesPerSecond;
+        private final double ratio;
+
+        Progress(int fileIndex, int fileCount, String fileName, double megabytesPerSecond, double ratio) {
+            this.fileIndex = fileIndex;
+            this.fileCount = fileCount;
+            this.fileName = fileName;
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.ratio = ratio;
+        }
+
+        int getFileIndex() {
+            return fileIndex;
+        }
+
+        int getFileCount() {
+            return fileCount;
+        }
+
+        String getFileName() {
+            return fileName;
+        }
+
+        double getMegabytesPerSecond() {
+            return megabytesPerSecond;
+        }
+
+        double getRatio() {
+            return ratio;
+        }
+    }
+}
@@ -1,27 +1,39 @@
 package com.compressor.gui;
 
-import com.compressor.core.HuffmanCompressor;
 import com.compressor.util.FileTypeFilter;
 import java.awt.*;
 import javax.swing.*;
 import java.io.*;
 import java.awt.event.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * The main GUI application for the Huffman Compressor.
  * Provides a user-friendly interface for file compression and decompression.
+ * Files are queued and processed by a {@link BatchWorker} in the background, so the window stays responsive,
+ * shows the progress, speed and ratio while it runs and can cancel the work.
  */
 public class HuffmanCompressorGUI {
     
     private JFrame mainFrame;
     private JFileChooser fileChooser;
-    private String selectedFilePath;
     private JTextField filePathTextField;
     private JButton browseButton;
     private JButton compressButton;
     private JButton decompressButton;
+    private JButton cancelButton;
+    private JButton clearButton;
     private JLabel titleLabel;
-    private HuffmanCompressor compressor;
+    private DefaultListModel<File> queueModel;
+    private JProgressBar progressBar;
+    private JLabel statusLabel;
+    private JLabel speedLabel;
+    private JLabel ratioLabel;
+    private BatchWorker worker;
 
     /**
      * Main entry point for the application.
@@ -68,10 +80,32 @@ public class HuffmanCompressorGUI {
         titleLabel.setBounds(10, 11, 746, 50);
         mainFrame.getContentPane().add(titleLabel);
         
+        queueModel = new DefaultListModel<>();
+        JList<File> queueList = new JList<>(queueModel);
+        queueList.setFont(new Font("Tahoma", Font.PLAIN, 13));
+        JScrollPane queueScrollPane = new JScrollPane(queueList);
+        queueScrollPane.setBounds(10, 72, 696, 90);
+        mainFrame.getContentPane().add(queueScrollPane);
+        
+        clearButton = new JButton("Clear");
+        clearButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                queueModel.clear();
+            }
+        });
+        clearButton.setBackground(Color.LIGHT_GRAY);
+        clearButton.setBounds(717, 72, 89, 43);
+        mainFrame.getContentPane().add(clearButton);
+        
         filePathTextField = new JTextField();
         filePathTextField.setFont(new Font("Tahoma", Font.PLAIN, 17));
         filePathTextField.setBounds(10, 173, 696, 42);
         filePathTextField.setColumns(10);
+        filePathTextField.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                queueTypedPath();
+            }
+        });
         mainFrame.getContentPane().add(filePathTextField);
         
         browseButton = new JButton("Browse");
@@ -80,12 +114,13 @@ public class HuffmanCompressorGUI {
                 JFileChooser fileChooser = new JFileChooser();
                 FileTypeFilter filter = new FileTypeFilter(".txt", "text");
                 fileChooser.addChoosableFileFilter(filter);
+                fileChooser.setMultiSelectionEnabled(true);
                 int result = fileChooser.showOpenDialog(null);
                 
                 if (result == JFileChooser.APPROVE_OPTION) {
-                    File selectedFile = fileChooser.getSelectedFile();
-                    selectedFilePath = selectedFile.getPath();
-                    filePathTextField.setText(selectedFilePath);
+                    for (File selectedFile : fileChooser.getSelectedFiles()) {
+                        queueModel.addElement(selectedFile);
+                    }
                 }
             }
         });
@@ -93,24 +128,19 @@ public class HuffmanCompressorGUI {
         browseButton.setBounds(717, 173, 89, 43);
         mainFrame.getContentPane().add(browseButton);
         
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setBounds(10, 236, 796, 26);
+        mainFrame.getContentPane().add(progressBar);
+        
+        statusLabel = createLabel(10, 270, 796);
+        speedLabel = createLabel(10, 300, 390);
+        ratioLabel = createLabel(416, 300, 390);
+        
         compressButton = new JButton("Click to Compress");
         compressButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent event) {
-                compressor = new HuffmanCompressor();
-                
-                if (filePathTextField.getText().equals("")) {
-                    JOptionPane.showMessageDialog(null, "Please enter the file path");
-                } else {
-                    int result = compressor.compress(filePathTextField.getText());
-                    
-                    if (result == 2) {
-                        JOptionPane.showMessageDialog(null, "Compressed file saved in current directory as 'Compressed.txt'");
-                    } else if (result == 0) {
-                        JOptionPane.showMessageDialog(null, "File not found");
-                    } else {
-                        JOptionPane.showMessageDialog(null, "Empty file");
-                    }
-                }
+                start(true);
             }
         });
         compressButton.setBackground(Color.ORANGE);
@@ -120,25 +150,142 @@ public class HuffmanCompressorGUI {
         decompressButton = new JButton("Click to Decompress");
         decompressButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent event) {
-                
-                if (filePathTextField.getText().equals("")) {
-                    JOptionPane.showMessageDialog(null, "Please enter the file path");
-                } else {
-                    int result = compressor.decompress(filePathTextField.getText());
-                    
-                    if (result == 3) {
-                        JOptionPane.showMessageDialog(null, "Decompressed file saved in current directory as 'Decompressed.txt'");
-                    } else if (result == 0) {
-                        JOptionPane.showMessageDialog(null, "File not found");
-                    } else {
-                        JOptionPane.showMessageDialog(null, "Empty file");
-                    }
-                }
+                start(false);
             }
         });
         decompressButton.setBackground(Color.ORANGE);
         decompressButton.setBounds(450, 347, 221, 42);
         mainFrame.getContentPane().add(decompressButton);
+        
+        cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent event) {
+                if (worker != null) {
+                    cancelButton.setEnabled(false);
+                    statusLabel.setText("Cancelling...");
+                    worker.stop();
+                }
+            }
+        });
+        cancelButton.setBackground(Color.LIGHT_GRAY);
+        cancelButton.setBounds(325, 400, 221, 42);
+        cancelButton.setEnabled(false);
+        mainFrame.getContentPane().add(cancelButton);
     }
-}
 
+    private JLabel createLabel(int x, int y, int width) {
+        JLabel label = new JLabel(" ");
+        label.setFont(new Font("Tahoma", Font.PLAIN, 15));
+        label.setForeground(Color.WHITE);
+        label.setBounds(x, y, width, 25);
+        mainFrame.getContentPane().add(label);
+        return label;
+    }
+
+    /**
+     * Moves the path typed in the path field to the queue.
+     */
+    private void queueTypedPath() {
+        if (!filePathTextField.getText().equals("")) {
+            queueModel.addElement(new File(filePathTextField.getText()));
+            filePathTextField.setText("");
+        }
+    }
+
+    /**
+     * Starts processing the queued files, including a path still in the path field, on a background worker.
+     * 
+     * @param compressing true to compress, false to decompress
+     */
+    private void start(final boolean compressing) {
+        queueTypedPath();
+        if (queueModel.isEmpty()) {
+            JOptionPane.showMessageDialog(null, "Please enter the file path");
+            return;
+        }
+        List<File> files = new ArrayList<>(Collections.list(queueModel.elements()));
+        
+        worker = new BatchWorker(files, compressing) {
+            @Override
+            protected void process(List<Progress> chunks) {
+                Progress progress = chunks.get(chunks.size() - 1);
+                if (progress.getFileIndex() >= 0 && !isStopped()) {
+                    statusLabel.setText((compressing ? "Compressing " : "Decompressing ") + "file "
+                            + (progress.getFileIndex() + 1) + " of " + progress.getFileCount() + ": "
+                            + progress.getFileName());
+                }
+                speedLabel.setText(String.format("Speed: %.1f MB/s", progress.getMegabytesPerSecond()));
+                ratioLabel.setText(progress.getRatio() > 0
+                        ? String.format("Ratio: %.1f%% of original size", progress.getRatio() * 100) : " ");
+            }
+
+            @Override
+            protected void done() {
+                finish(this, compressing);
+            }
+        };
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent event) {
+                if ("progress".equals(event.getPropertyName())) {
+                    progressBar.setValue((Integer) event.getNewValue());
+                }
+            }
+        });
+        setRunning(true);
+        progressBar.setValue(0);
+        statusLabel.setText(" ");
+        speedLabel.setText(" ");
+        ratioLabel.setText(" ");
+        worker.execute();
+    }
+
+    /**
+     * Reports the outcome of a worker once it is done, and removes the files it completed from the queue.
+     * 
+     * @param finished The worker
+     * @param compressing true if the worker compressed, false if it decompressed
+     */
+    private void finish(BatchWorker finished, boolean compressing) {
+        worker = null;
+        setRunning(false);
+        try {
+            finished.get();
+        } catch (Exception e) {
+            statusLabel.setText("Failed");
+            JOptionPane.showMessageDialog(null, "Failed: " + e.getCause());
+            return;
+        }
+        for (File file : finished.getCompleted()) {
+            queueModel.removeElement(file);
+        }
+        
+        int done = finished.getOutputs().size();
+        String verb = compressing ? "Compressed" : "Decompressed";
+        if (finished.isStopped()) {
+            statusLabel.setText("Cancelled after " + done + (done == 1 ? " file" : " files"));
+        } else {
+            statusLabel.setText(verb + " " + done + " of " + (done + finished.getFailures().size()) + " files");
+        }
+        
+        StringBuilder message = new StringBuilder();
+        if (done == 1 && finished.getFailures().isEmpty()) {
+            message.append(verb).append(" file saved as '").append(finished.getOutputs().get(0)).append("'");
+        } else if (done > 0) {
+            message.append(verb).append(" ").append(done).append(" files, saved next to the originals");
+        }
+        for (String failure : finished.getFailures()) {
+            message.append(message.length() > 0 ? "\n" : "").append(failure);
+        }
+        if (message.length() > 0) {
+            JOptionPane.showMessageDialog(null, message.toString());
+        }
+    }
+
+    private void setRunning(boolean running) {
+        compressButton.setEnabled(!running);
+        decompressButton.setEnabled(!running);
+        browseButton.setEnabled(!running);
+        clearButton.setEnabled(!running);
+        cancelButton.setEnabled(running);
+    }
+}
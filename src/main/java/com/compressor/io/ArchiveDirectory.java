@@ -0,0 +1,208 @@
+package com.compressor.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Central directory of an archive that packs many containers into one file.
+ * <p>
+ * Layout of an archive: the magic bytes "HUFA" and a version byte, the containers of the entries back to back,
+ * the directory, and a fixed {@value #FOOTER_SIZE}-byte footer holding the file offset of the directory (8 bytes),
+ * the CRC32 of the directory (4 bytes) and the magic bytes "HUFC", so readers can find the directory by seeking.
+ * <p>
+ * The directory holds the entry count, the serialized table shared by entries (a length, 0 when there is none,
+ * followed by the bytes) and, for every entry, its name as a length and UTF-8 bytes, its offset, compressed size
+ * and original size, all as variable-length integers in the form of {@link ContainerHeader}, its table reference
+ * byte and the CRC32 of its original data (4 bytes).
+ */
+public class ArchiveDirectory {
+
+    /** Format version written by this implementation. */
+    public static final int VERSION = 1;
+
+    /** Size of the magic bytes and version at the start of an archive. */
+    public static final int HEADER_SIZE = 5;
+
+    /** Size of the footer at the end of an archive. */
+    public static final int FOOTER_SIZE = 16;
+
+    private static final int MAGIC = ('H' << 24) | ('U' << 16) | ('F' << 8) | 'A';
+    private static final int FOOTER_MAGIC = ('H' << 24) | ('U' << 16) | ('F' << 8) | 'C';
+
+    private final List<ArchiveEntry> entries;
+    private final byte[] sharedTable;
+
+    /**
+     * Creates a directory.
+     *
+     * @param entries The entries, in archive order
+     * @param sharedTable The serialized table shared by entries, or null if there is none
+     */
+    public ArchiveDirectory(List<ArchiveEntry> entries, byte[] sharedTable) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.sharedTable = sharedTable;
+    }
+
+    public List<ArchiveEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the serialized table that entries with {@link ArchiveEntry#SHARED_TABLE} refer to.
+     *
+     * @return The table, or null if the archive has none
+     */
+    public byte[] getSharedTable() {
+        return sharedTable;
+    }
+
+    /**
+     * Writes the magic bytes and version that start an archive.
+     *
+     * @param output The channel, at the start of the archive
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeHeader(WritableByteChannel output) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put((byte) VERSION);
+        ((Buffer) header).flip();
+        writeFully(output, header);
+    }
+
+    /**
+     * Writes the directory and the footer.
+     *
+     * @param output The channel, after the last entry
+     * @param offset Archive file offset the directory is written at
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(WritableByteChannel output, long offset) throws IOException {
+        int size = 10 + 10 + (sharedTable != null ? sharedTable.length : 0);
+        List<byte[]> names = new ArrayList<>(entries.size());
+        for (ArchiveEntry entry : entries) {
+            byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 10 + name.length + 3 * 10 + 1 + 4;
+        }
+        byte[] directory = new byte[size];
+        int position = ContainerHeader.writeVarLong(entries.size(), directory, 0);
+        position = ContainerHeader.writeVarLong(sharedTable != null ? sharedTable.length : 0, directory, position);
+        if (sharedTable != null) {
+            System.arraycopy(sharedTable, 0, directory, position, sharedTable.length);
+            position += sharedTable.length;
+        }
+        for (int index = 0; index < entries.size(); index++) {
+            ArchiveEntry entry = entries.get(index);
+            byte[] name = names.get(index);
+            position = ContainerHeader.writeVarLong(name.length, directory, position);
+            System.arraycopy(name, 0, directory, position, name.length);
+            position += name.length;
+            position = ContainerHeader.writeVarLong(entry.getOffset(), directory, position);
+            position = ContainerHeader.writeVarLong(entry.getCompressedSize(), directory, position);
+            position = ContainerHeader.writeVarLong(entry.getOriginalSize(), directory, position);
+            directory[position++] = (byte) entry.getTableReference();
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                directory[position++] = (byte) (entry.getChecksum() >>> shift);
+            }
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(directory, 0, position);
+
+        writeFully(output, ByteBuffer.wrap(directory, 0, position));
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        footer.putLong(offset).putInt((int) checksum.getValue()).putInt(FOOTER_MAGIC);
+        ((Buffer) footer).flip();
+        writeFully(output, footer);
+    }
+
+    /**
+     * Reads the directory of an archive file.
+     *
+     * @param file The archive file
+     * @return The directory
+     * @throws IOException If the file is not an archive, the directory is corrupt or an I/O error occurs
+     */
+    public static ArchiveDirectory read(FileChannel file) throws IOException {
+        long size = file.size();
+        if (size < HEADER_SIZE + FOOTER_SIZE || readFully(file, 0, 4).getInt() != MAGIC) {
+            throw new CorruptDataException("Not an archive");
+        }
+        int version = readFully(file, 4, 1).get() & 0xFF;
+        if (version != VERSION) {
+            throw new CorruptDataException("Unsupported archive version " + version);
+        }
+        ByteBuffer footer = readFully(file, size - FOOTER_SIZE, FOOTER_SIZE);
+        long offset = footer.getLong();
+        int expectedChecksum = footer.getInt();
+        if (footer.getInt() != FOOTER_MAGIC || offset < HEADER_SIZE || offset > size - FOOTER_SIZE
+                || size - FOOTER_SIZE - offset > Integer.MAX_VALUE) {
+            throw new CorruptDataException("Corrupt archive directory");
+        }
+        int length = (int) (size - FOOTER_SIZE - offset);
+        ByteBuffer buffer = readFully(file, offset, length);
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, length);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            throw new CorruptDataException("Archive directory checksum mismatch");
+        }
+
+        BitInputStream input = new BitInputStream(buffer.array(), 0, length);
+        long count = ContainerHeader.readVarLong(input);
+        long tableLength = ContainerHeader.readVarLong(input);
+        if (count > length || tableLength > length) {
+            throw new CorruptDataException("Corrupt archive directory");
+        }
+        byte[] sharedTable = null;
+        if (tableLength > 0) {
+            sharedTable = new byte[(int) tableLength];
+            input.readBytes(sharedTable, 0, sharedTable.length);
+        }
+        List<ArchiveEntry> entries = new ArrayList<>((int) count);
+        for (long index = 0; index < count; index++) {
+            long nameLength = ContainerHeader.readVarLong(input);
+            if (nameLength == 0 || nameLength > length) {
+                throw new CorruptDataException("Corrupt archive directory");
+            }
+            byte[] name = new byte[(int) nameLength];
+            input.readBytes(name, 0, name.length);
+            long entryOffset = ContainerHeader.readVarLong(input);
+            long compressedSize = ContainerHeader.readVarLong(input);
+            long originalSize = ContainerHeader.readVarLong(input);
+            int tableReference = input.readBits(8);
+            int entryChecksum = input.readBits(32);
+            if (entryOffset < HEADER_SIZE || compressedSize > offset - entryOffset
+                    || tableReference > ArchiveEntry.SHARED_TABLE
+                    || (tableReference == ArchiveEntry.SHARED_TABLE && sharedTable == null)) {
+                throw new CorruptDataException("Corrupt archive directory");
+            }
+            entries.add(new ArchiveEntry(new String(name, StandardCharsets.UTF_8), entryOffset, compressedSize,
+                    originalSize, tableReference, entryChecksum));
+        }
+        return new ArchiveDirectory(entries, sharedTable);
+    }
+
+    private static ByteBuffer readFully(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new CorruptDataException("Unexpected end of archive");
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private static void writeFully(WritableByteChannel output, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+}
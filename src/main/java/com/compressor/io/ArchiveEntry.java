@@ -0,0 +1,73 @@
+package com.compressor.io;
+
+/**
+ * The central directory record of one entry of an archive.
+ * <p>
+ * The compressed data of an entry is a complete container, with its own block index, stored at
+ * {@link #getOffset()} in the archive file. Its blocks either carry their own code tables or refer to the
+ * table the archive shares between entries, as told by {@link #getTableReference()}.
+ */
+public class ArchiveEntry {
+
+    /** Table reference of an entry whose container stores its own tables. */
+    public static final int OWN_TABLES = 0;
+
+    /** Table reference of an entry whose container refers to the shared table of the archive. */
+    public static final int SHARED_TABLE = 1;
+
+    private final String name;
+    private final long offset;
+    private final long compressedSize;
+    private final long originalSize;
+    private final int tableReference;
+    private final int checksum;
+
+    /**
+     * Creates a directory record.
+     *
+     * @param name Name of the entry, a relative path with '/' separators
+     * @param offset Archive file offset of the entry's container
+     * @param compressedSize Size of the container in bytes
+     * @param originalSize Number of bytes of original data
+     * @param tableReference {@link #OWN_TABLES} or {@link #SHARED_TABLE}
+     * @param checksum CRC32 of the original data
+     */
+    public ArchiveEntry(String name, long offset, long compressedSize, long originalSize, int tableReference,
+                        int checksum) {
+        this.name = name;
+        this.offset = offset;
+        this.compressedSize = compressedSize;
+        this.originalSize = originalSize;
+        this.tableReference = tableReference;
+        this.checksum = checksum;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    public int getTableReference() {
+        return tableReference;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
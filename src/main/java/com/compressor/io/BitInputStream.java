@@ -1,78 +1,245 @@
 package com.compressor.io;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 /**
- * Reads bits from a compressed stream and decodes them using Huffman codes.
+ * Reads bits from a compressed stream, most significant bit first.
+ * Bits are kept in a 64-bit accumulator that is refilled a byte at a time from a large direct buffer,
+ * so callers can peek at up to 32 bits without any allocation and the channel is read in whole blocks.
+ * The stream can also read directly from an array, for example a block frame loaded by a worker thread.
  */
 public class BitInputStream implements AutoCloseable {
-    
-    private FileOutputStream output;
-    private String workingBuffer;
+
+    /** Size of the buffer the underlying channel is read through. */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private ReadableByteChannel input;
+    private ByteBuffer buffer;
+    private long bufferStart = 0;
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+    private boolean endOfInput = false;
 
     /**
      * Creates a new bit input stream.
-     * 
-     * @param output The output stream for decoded data
+     *
+     * @param input The underlying compressed input channel
+     */
+    public BitInputStream(ReadableByteChannel input) {
+        this.input = input;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ((Buffer) buffer).limit(0);
+    }
+
+    /**
+     * Creates a bit input stream that reads from part of an array.
+     *
+     * @param data The compressed bytes
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to read
+     */
+    public BitInputStream(byte[] data, int offset, int length) {
+        this.input = null;
+        this.buffer = ByteBuffer.wrap(data, offset, length);
+        this.bufferStart = -offset;
+        this.endOfInput = true;
+    }
+
+    /**
+     * Points the stream at another channel so that it can be reused without allocating a new buffer.
+     * Bits already buffered are discarded.
+     *
+     * @param input The underlying compressed input channel
+     */
+    public void reset(ReadableByteChannel input) {
+        if (!buffer.isDirect()) {
+            // The buffer wrapped the caller's array
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        this.input = input;
+        ((Buffer) buffer).limit(0);
+        this.bufferStart = 0;
+        clear(false);
+    }
+
+    /**
+     * Points the stream at part of an array so that it can be reused. Bits already buffered are discarded.
+     *
+     * @param data The compressed bytes
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to read
+     */
+    public void reset(byte[] data, int offset, int length) {
+        this.input = null;
+        if (buffer.hasArray() && buffer.array() == data) {
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit(offset + length).position(offset);
+        } else {
+            buffer = ByteBuffer.wrap(data, offset, length);
+        }
+        this.bufferStart = -offset;
+        clear(true);
+    }
+
+    private void clear(boolean endOfInput) {
+        this.bitBuffer = 0;
+        this.bitCount = 0;
+        this.endOfInput = endOfInput;
+    }
+
+    /**
+     * Returns the number of bytes consumed so far, counting a partially consumed byte as a whole byte.
+     *
+     * @return The stream position in bytes, from the start of the channel or the array offset
+     */
+    public long getPosition() {
+        return bufferStart + buffer.position() - bitCount / 8;
+    }
+
+    /**
+     * Returns the next bits of the stream without consuming them.
+     * Past the end of the input the missing bits read as zeros.
+     *
+     * @param count Number of bits to peek, between 1 and 32
+     * @return The bits, right-aligned
+     * @throws IOException If an I/O error occurs
+     */
+    public int peekBits(int count) throws IOException {
+        if (bitCount < count) {
+            refill();
+            if (bitCount < count) {
+                return (int) (bitBuffer << (count - bitCount)) & (int) ((1L << count) - 1);
+            }
+        }
+        return (int) (bitBuffer >>> (bitCount - count)) & (int) ((1L << count) - 1);
+    }
+
+    /**
+     * Consumes bits previously returned by {@link #peekBits(int)}.
+     *
+     * @param count Number of bits to consume
+     * @throws IOException If the stream ends before the bits were available
      */
-    public BitInputStream(FileOutputStream output) {
-        this.output = output;
-        this.workingBuffer = "";
+    public void skipBits(int count) throws IOException {
+        if (count > bitCount) {
+            throw new CorruptDataException("Unexpected end of compressed data");
+        }
+        bitCount -= count;
     }
 
     /**
-     * Appends bits to the working buffer.
-     * 
-     * @param bits The bit string to append
+     * Reads and consumes the next bits of the stream.
+     *
+     * @param count Number of bits to read, between 1 and 32
+     * @return The bits, right-aligned
+     * @throws IOException If the stream ends or an I/O error occurs
      */
-    public void appendBits(String bits) {
-        workingBuffer += bits;
+    public int readBits(int count) throws IOException {
+        int bits = peekBits(count);
+        skipBits(count);
+        return bits;
     }
 
     /**
-     * Decodes and writes characters from the working buffer.
-     * 
-     * @param decodingMap Map from Huffman codes to characters
-     * @param encodingMap Map from characters to Huffman codes
-     * @return 1 if EOF marker found, -1 otherwise
+     * Skips the remaining bits of a partially consumed byte.
+     */
+    public void alignToByte() {
+        bitCount -= bitCount & 7;
+    }
+
+    /**
+     * Reads whole bytes from the stream. The stream must be at a byte boundary.
+     *
+     * @param destination Array that receives the bytes
+     * @param offset Offset in the destination array
+     * @param length Number of bytes to read
+     * @throws IOException If the stream ends before all bytes were read or an I/O error occurs
+     */
+    public void readBytes(byte[] destination, int offset, int length) throws IOException {
+        if ((bitCount & 7) != 0) {
+            throw new IllegalStateException("Stream is not byte aligned");
+        }
+        // Bytes already in the accumulator come first
+        while (bitCount > 0 && length > 0) {
+            bitCount -= 8;
+            destination[offset++] = (byte) (bitBuffer >>> bitCount);
+            length--;
+        }
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                if (endOfInput) {
+                    throw new CorruptDataException("Unexpected end of compressed data");
+                }
+                bufferStart += buffer.limit();
+                ((Buffer) buffer).clear();
+                if (input.read(buffer) < 0) {
+                    endOfInput = true;
+                }
+                ((Buffer) buffer).flip();
+                continue;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(destination, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Reads a single bit.
+     *
+     * @return The bit value, 0 or 1
+     * @throws IOException If the stream ends or an I/O error occurs
+     */
+    public int readBit() throws IOException {
+        if (bitCount == 0) {
+            refill();
+            if (bitCount == 0) {
+                throw new CorruptDataException("Unexpected end of compressed data");
+            }
+        }
+        bitCount--;
+        return (int) (bitBuffer >>> bitCount) & 1;
+    }
+
+    /**
+     * Tops up the accumulator until it holds at least 57 bits or the input is exhausted.
+     *
      * @throws IOException If an I/O error occurs
      */
-    public int write(HashMap<String, Integer> decodingMap, HashMap<Integer, String> encodingMap) 
-            throws IOException {
-        String codePrefix;
-        int decodedChar;
-        
-        for (int index = 1; index < workingBuffer.length(); index++) {
-            codePrefix = workingBuffer.substring(0, index);
-            
-            if (decodingMap.containsKey(codePrefix)) {
-                decodedChar = decodingMap.get(codePrefix);
-                
-                if (decodedChar != -1) {
-                    output.write(decodedChar);
-                    workingBuffer = workingBuffer.substring(index);
-                    index = 0;
-                } else {
-                    // EOF marker found
-                    output.close();
-                    return 1;
+    private void refill() throws IOException {
+        while (bitCount <= 56) {
+            if (!buffer.hasRemaining()) {
+                if (endOfInput) {
+                    return;
+                }
+                bufferStart += buffer.limit();
+                ((Buffer) buffer).clear();
+                if (input.read(buffer) < 0) {
+                    endOfInput = true;
+                }
+                ((Buffer) buffer).flip();
+                if (!buffer.hasRemaining()) {
+                    return;
                 }
             }
+            bitBuffer = (bitBuffer << 8) | (buffer.get() & 0xFF);
+            bitCount += 8;
         }
-        
-        return -1;
     }
 
     /**
-     * Closes the output stream.
-     * 
+     * Closes the underlying input channel.
+     *
      * @throws IOException If an I/O error occurs
      */
     @Override
     public void close() throws IOException {
-        output.close();
+        if (input != null) {
+            input.close();
+        }
     }
 }
-
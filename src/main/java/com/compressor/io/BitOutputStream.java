@@ -1,52 +1,210 @@
 package com.compressor.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
- * Writes individual bits to an output stream by buffering them into bytes.
+ * Writes variable-length codes to a channel, most significant bit first.
+ * Codes are accumulated in a 64-bit register that spills eight bytes at a time into a block buffer,
+ * and the block is written to the channel whenever it fills up.
+ * Without a channel the stream writes into a caller-supplied array instead.
  */
 public class BitOutputStream implements AutoCloseable {
     
-    private FileOutputStream output;
-    private boolean[] buffer = new boolean[8];
+    /** Size of the blocks written to the underlying channel. */
+    public static final int BLOCK_SIZE = 1 << 20;
+    
+    private WritableByteChannel output;
+    private byte[] block;
+    private int blockPosition = 0;
+    private long flushedBytes = 0;
+    private long bitBuffer = 0;
     private int bitCount = 0;
 
     /**
      * Creates a new bit output stream.
      * 
-     * @param output The underlying file output stream
+     * @param output The underlying output channel
+     */
+    public BitOutputStream(WritableByteChannel output) {
+        this.output = output;
+        this.block = new byte[BLOCK_SIZE];
+    }
+
+    /**
+     * Creates a bit output stream that writes into the given array.
+     * 
+     * @param target The destination array, large enough for everything that will be written
+     */
+    public BitOutputStream(byte[] target) {
+        this(target, 0);
+    }
+
+    /**
+     * Creates a bit output stream that writes into the given array from an offset.
+     * {@link #getPosition()} then counts from the start of the array.
+     * 
+     * @param target The destination array, large enough for everything that will be written
+     * @param offset Position of the first byte to write
+     */
+    public BitOutputStream(byte[] target, int offset) {
+        this.output = null;
+        this.block = target;
+        this.blockPosition = offset;
+    }
+
+    /**
+     * Points the stream at another channel so that it can be reused without allocating a new block buffer.
+     * Bits not yet flushed are discarded.
+     * 
+     * @param output The underlying output channel
      */
-    public BitOutputStream(FileOutputStream output) {
+    public void reset(WritableByteChannel output) {
+        if (this.output == null) {
+            // The block was the caller's array
+            this.block = new byte[BLOCK_SIZE];
+        }
         this.output = output;
+        clear(0);
+    }
+
+    /**
+     * Points the stream at another array so that it can be reused. Bits not yet flushed are discarded.
+     * Unlike with {@link #BitOutputStream(byte[], int)}, {@link #getPosition()} then counts from the offset,
+     * so positions are relative to the first byte written.
+     * 
+     * @param target The destination array, large enough for everything that will be written
+     * @param offset Position of the first byte to write
+     */
+    public void reset(byte[] target, int offset) {
+        this.output = null;
+        this.block = target;
+        clear(offset);
+    }
+
+    private void clear(int offset) {
+        blockPosition = offset;
+        flushedBytes = -offset;
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    /**
+     * Returns the number of bytes written so far, counting a partially filled last byte as a whole byte.
+     * 
+     * @return The stream position in bytes
+     */
+    public long getPosition() {
+        return flushedBytes + blockPosition + (bitCount + 7) / 8;
     }
 
     /**
-     * Writes a single bit to the stream.
+     * Writes a code to the stream.
      * 
-     * @param bit The bit to write ('0' or '1')
+     * @param code The code bits, right-aligned
+     * @param length Number of bits in the code, between 1 and 32
      * @throws IOException If an I/O error occurs
      */
-    public void write(char bit) throws IOException {
-        buffer[bitCount] = (bit == '1');
-        bitCount++;
-        
-        if (bitCount == 8) {
-            flush();
+    public void write(int code, int length) throws IOException {
+        long bits = code & 0xFFFFFFFFL;
+        int free = 64 - bitCount;
+        if (length < free) {
+            bitBuffer |= bits << (free - length);
+            bitCount += length;
+        } else {
+            int overflow = length - free;
+            bitBuffer |= bits >>> overflow;
+            spill();
+            bitBuffer = overflow == 0 ? 0 : bits << (64 - overflow);
+            bitCount = overflow;
         }
     }
 
     /**
-     * Flushes the current buffer to the output stream.
+     * Writes whole bytes to the stream. The stream must be at a byte boundary.
      * 
+     * @param bytes The bytes to write
+     * @param offset Offset of the first byte
+     * @param length Number of bytes to write
      * @throws IOException If an I/O error occurs
      */
-    private void flush() throws IOException {
-        int byteValue = 0;
-        for (int index = 0; index < 8; index++) {
-            byteValue = 2 * byteValue + (buffer[index] ? 1 : 0);
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if ((bitCount & 7) != 0) {
+            throw new IllegalStateException("Stream is not byte aligned");
+        }
+        drainRegister();
+        while (length > 0) {
+            if (blockPosition == block.length) {
+                writeBlock();
+            }
+            int count = Math.min(length, block.length - blockPosition);
+            System.arraycopy(bytes, offset, block, blockPosition, count);
+            blockPosition += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Moves the full 64-bit register into the block buffer.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    private void spill() throws IOException {
+        if (blockPosition + 8 > block.length) {
+            writeBlock();
+        }
+        long value = bitBuffer;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            block[blockPosition++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * Moves the pending bits of the register into the block buffer, padding the last byte with zeros.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    private void drainRegister() throws IOException {
+        while (bitCount > 0) {
+            if (blockPosition == block.length) {
+                writeBlock();
+            }
+            block[blockPosition++] = (byte) (bitBuffer >>> 56);
+            bitBuffer <<= 8;
+            bitCount = Math.max(0, bitCount - 8);
+        }
+        bitBuffer = 0;
+    }
+
+    /**
+     * Writes the gathered block to the channel.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeBlock() throws IOException {
+        if (output == null) {
+            throw new IOException("Output array is full");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(block, 0, blockPosition);
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        flushedBytes += blockPosition;
+        blockPosition = 0;
+    }
+
+    /**
+     * Writes everything written so far to the channel, padding a partial last byte with zeros.
+     * 
+     * @throws IOException If an I/O error occurs
+     */
+    public void flush() throws IOException {
+        drainRegister();
+        if (output != null) {
+            writeBlock();
         }
-        output.write(byteValue);
-        bitCount = 0;
     }
 
     /**
@@ -56,13 +214,10 @@ public class BitOutputStream implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
-        // Flush remaining bits (padded with zeros)
-        int byteValue = 0;
-        for (int index = 0; index < 8; index++) {
-            byteValue = 2 * byteValue + (buffer[index] ? 1 : 0);
+        drainRegister();
+        if (output != null) {
+            writeBlock();
+            output.close();
         }
-        output.write(byteValue);
-        output.close();
     }
 }
-
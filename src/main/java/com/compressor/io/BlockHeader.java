@@ -0,0 +1,322 @@
+package com.compressor.io;
+
+import java.io.IOException;
+
+/**
+ * Header of one block frame in the compressed container.
+ * <p>
+ * Layout: a block type byte, the uncompressed length and the payload length in bytes as
+ * variable-length integers, the CRC32 of the uncompressed block, and, for blocks of type
+ * {@link #TYPE_OWN_TABLE}, the block's own code-length table. Blocks of type {@link #TYPE_PREVIOUS_TABLE}
+ * instead give the distance back, in blocks, to the block whose table they reuse, as a variable-length integer.
+ * Blocks of type {@link #TYPE_CONTEXT_TABLES} store a group count, the group of every preceding byte value
+ * as {@value #CONTEXT_COUNT} nibbles, and the code-length table of every group.
+ * Blocks of type {@link #TYPE_STORED} and {@link #TYPE_RUN} are not Huffman coded and add nothing to the header.
+ * When the type byte has the {@link #FLAG_INTERLEAVED} bit set, the payload is made of {@link #STREAM_COUNT}
+ * byte-aligned sub-streams that code consecutive quarters of the block, the last quarter taking the remainder,
+ * and the header ends with the byte lengths of all sub-streams but the last.
+ * The byte-aligned payload follows.
+ * A type byte of {@link #TYPE_END} marks the end of the blocks and the start of the {@link BlockIndex}.
+ */
+public class BlockHeader {
+
+    /** Block coded with its own table, stored in the block header. */
+    public static final int TYPE_OWN_TABLE = 0;
+
+    /** Block coded with the shared table from the container header. */
+    public static final int TYPE_SHARED_TABLE = 1;
+
+    /** Block coded with the own table of an earlier block. */
+    public static final int TYPE_PREVIOUS_TABLE = 2;
+
+    /**
+     * Block coded with order-1 context tables, stored in the block header: every byte is coded with the table
+     * of the group its preceding byte belongs to, the first byte of the block or sub-stream with that of
+     * byte value 0.
+     */
+    public static final int TYPE_CONTEXT_TABLES = 3;
+
+    /** Block stored as is: the payload is the uncompressed block. */
+    public static final int TYPE_STORED = 4;
+
+    /** Block made of one byte value repeated: the payload is that single byte. */
+    public static final int TYPE_RUN = 5;
+
+    /** End-of-blocks marker. */
+    public static final int TYPE_END = 0xFF;
+
+    /** Type flag of blocks whose payload is split into interleaved sub-streams. */
+    public static final int FLAG_INTERLEAVED = 0x10;
+
+    /** Number of sub-streams of an interleaved block. */
+    public static final int STREAM_COUNT = 4;
+
+    /** Number of contexts of a {@link #TYPE_CONTEXT_TABLES} block: one per preceding byte value. */
+    public static final int CONTEXT_COUNT = 256;
+
+    /** Largest number of context groups, and so of tables, in a {@link #TYPE_CONTEXT_TABLES} block. */
+    public static final int MAX_CONTEXT_GROUPS = 16;
+
+    /** Largest serialized size of a block header other than {@link #TYPE_CONTEXT_TABLES}. */
+    public static final int MAX_HEADER_SIZE = 1 + 10 + 10 + 4 + ContainerHeader.MAX_TABLE_SIZE + (STREAM_COUNT - 1) * 5;
+
+    /** Largest serialized size of a block header of any type. */
+    public static final int MAX_CONTEXT_HEADER_SIZE = 1 + 10 + 10 + 4 + 1 + CONTEXT_COUNT / 2
+            + MAX_CONTEXT_GROUPS * ContainerHeader.MAX_TABLE_SIZE + (STREAM_COUNT - 1) * 5;
+
+    private int type;
+    private int uncompressedLength;
+    private long payloadLength;
+    private int checksum;
+    private byte[] codeLengths;
+    private int tableDistance;
+    private int[] streamLengths;
+    private byte[] contextGroups;
+    private byte[][] groupCodeLengths;
+
+    /**
+     * Creates a new block header.
+     *
+     * @param type The block type
+     * @param uncompressedLength Number of bytes in the uncompressed block
+     * @param payloadLength Number of bytes in the payload that follows the header
+     * @param checksum CRC32 of the uncompressed block
+     * @param codeLengths The block's own code lengths, or null for other block types
+     */
+    public BlockHeader(int type, int uncompressedLength, long payloadLength, int checksum, byte[] codeLengths) {
+        this(type, uncompressedLength, payloadLength, checksum, codeLengths, 0);
+    }
+
+    /**
+     * Creates a new block header.
+     *
+     * @param type The block type
+     * @param uncompressedLength Number of bytes in the uncompressed block
+     * @param payloadLength Number of bytes in the payload that follows the header
+     * @param checksum CRC32 of the uncompressed block
+     * @param codeLengths The block's own code lengths, or null for other block types
+     * @param tableDistance For {@link #TYPE_PREVIOUS_TABLE}, how many blocks back the reused table is stored, otherwise 0
+     */
+    public BlockHeader(int type, int uncompressedLength, long payloadLength, int checksum, byte[] codeLengths,
+                       int tableDistance) {
+        this(type, uncompressedLength, payloadLength, checksum, codeLengths, tableDistance, null);
+    }
+
+    /**
+     * Creates a new block header.
+     *
+     * @param type The block type
+     * @param uncompressedLength Number of bytes in the uncompressed block
+     * @param payloadLength Number of bytes in the payload that follows the header
+     * @param checksum CRC32 of the uncompressed block
+     * @param codeLengths The block's own code lengths, or null for other block types
+     * @param tableDistance For {@link #TYPE_PREVIOUS_TABLE}, how many blocks back the reused table is stored, otherwise 0
+     * @param streamLengths Byte length of each of the {@link #STREAM_COUNT} sub-streams, or null for a single stream
+     */
+    public BlockHeader(int type, int uncompressedLength, long payloadLength, int checksum, byte[] codeLengths,
+                       int tableDistance, int[] streamLengths) {
+        this.type = type;
+        this.uncompressedLength = uncompressedLength;
+        this.payloadLength = payloadLength;
+        this.checksum = checksum;
+        this.codeLengths = codeLengths;
+        this.tableDistance = tableDistance;
+        this.streamLengths = streamLengths;
+    }
+
+    /**
+     * Creates a header for a block coded with order-1 context tables.
+     *
+     * @param uncompressedLength Number of bytes in the uncompressed block
+     * @param payloadLength Number of bytes in the payload that follows the header
+     * @param checksum CRC32 of the uncompressed block
+     * @param contextGroups Group of every preceding byte value, {@value #CONTEXT_COUNT} entries
+     * @param groupCodeLengths Code lengths of every group, at most {@value #MAX_CONTEXT_GROUPS} tables
+     * @param streamLengths Byte length of each of the {@link #STREAM_COUNT} sub-streams, or null for a single stream
+     */
+    public BlockHeader(int uncompressedLength, long payloadLength, int checksum, byte[] contextGroups,
+                       byte[][] groupCodeLengths, int[] streamLengths) {
+        this(TYPE_CONTEXT_TABLES, uncompressedLength, payloadLength, checksum, null, 0, streamLengths);
+        this.contextGroups = contextGroups;
+        this.groupCodeLengths = groupCodeLengths;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    public long getPayloadLength() {
+        return payloadLength;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public byte[] getCodeLengths() {
+        return codeLengths;
+    }
+
+    public int getTableDistance() {
+        return tableDistance;
+    }
+
+    /**
+     * Returns the context groups of a block coded with context tables.
+     *
+     * @return Group of every preceding byte value, or null for other block types
+     */
+    public byte[] getContextGroups() {
+        return contextGroups;
+    }
+
+    /**
+     * Returns the tables of a block coded with context tables.
+     *
+     * @return Code lengths of every group, or null for other block types
+     */
+    public byte[][] getGroupCodeLengths() {
+        return groupCodeLengths;
+    }
+
+    /**
+     * Returns the byte lengths of the sub-streams of an interleaved block.
+     *
+     * @return The length of each of the {@link #STREAM_COUNT} sub-streams, or null if the payload is a single stream
+     */
+    public int[] getStreamLengths() {
+        return streamLengths;
+    }
+
+    /**
+     * Writes the block header.
+     *
+     * @param output The bit stream, at a byte boundary
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(BitOutputStream output) throws IOException {
+        write(output, new byte[type == TYPE_CONTEXT_TABLES ? MAX_CONTEXT_HEADER_SIZE : MAX_HEADER_SIZE]);
+    }
+
+    /**
+     * Writes the block header through a caller-supplied scratch array, so that repeated writes allocate nothing.
+     *
+     * @param output The bit stream, at a byte boundary
+     * @param header Scratch array of at least {@link #MAX_HEADER_SIZE} bytes, or {@link #MAX_CONTEXT_HEADER_SIZE}
+     *               for a block coded with context tables
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(BitOutputStream output, byte[] header) throws IOException {
+        int position = 0;
+        header[position++] = (byte) (streamLengths != null ? type | FLAG_INTERLEAVED : type);
+        position = ContainerHeader.writeVarLong(uncompressedLength, header, position);
+        position = ContainerHeader.writeVarLong(payloadLength, header, position);
+        header[position++] = (byte) (checksum >>> 24);
+        header[position++] = (byte) (checksum >>> 16);
+        header[position++] = (byte) (checksum >>> 8);
+        header[position++] = (byte) checksum;
+        if (type == TYPE_OWN_TABLE) {
+            position = ContainerHeader.writeCodeLengths(codeLengths, header, position);
+        } else if (type == TYPE_PREVIOUS_TABLE) {
+            position = ContainerHeader.writeVarLong(tableDistance, header, position);
+        } else if (type == TYPE_CONTEXT_TABLES) {
+            header[position++] = (byte) groupCodeLengths.length;
+            for (int context = 0; context < CONTEXT_COUNT; context += 2) {
+                header[position++] = (byte) ((contextGroups[context] << 4) | contextGroups[context + 1]);
+            }
+            for (byte[] codeLengths : groupCodeLengths) {
+                position = ContainerHeader.writeCodeLengths(codeLengths, header, position);
+            }
+        }
+        if (streamLengths != null) {
+            for (int stream = 0; stream < STREAM_COUNT - 1; stream++) {
+                position = ContainerHeader.writeVarLong(streamLengths[stream], header, position);
+            }
+        }
+        output.writeBytes(header, 0, position);
+    }
+
+    /**
+     * Reads the next block header.
+     *
+     * @param input The bit stream, at a byte boundary
+     * @return The block header, or null if the end-of-blocks marker was read
+     * @throws IOException If the header is malformed or an I/O error occurs
+     */
+    public static BlockHeader read(BitInputStream input) throws IOException {
+        int type = input.readBits(8);
+        if (type == TYPE_END) {
+            return null;
+        }
+        boolean interleaved = (type & FLAG_INTERLEAVED) != 0;
+        type &= ~FLAG_INTERLEAVED;
+        if (type != TYPE_OWN_TABLE && type != TYPE_SHARED_TABLE && type != TYPE_PREVIOUS_TABLE
+                && type != TYPE_CONTEXT_TABLES && type != TYPE_STORED && type != TYPE_RUN) {
+            throw new CorruptDataException("Unknown block type " + type);
+        }
+        if (interleaved && (type == TYPE_STORED || type == TYPE_RUN)) {
+            throw new CorruptDataException("Corrupt block type " + type);
+        }
+        long uncompressedLength = ContainerHeader.readVarLong(input);
+        if (uncompressedLength > Integer.MAX_VALUE) {
+            throw new CorruptDataException("Corrupt block length");
+        }
+        long payloadLength = ContainerHeader.readVarLong(input);
+        int checksum = input.readBits(32);
+        byte[] codeLengths = type == TYPE_OWN_TABLE ? ContainerHeader.readCodeLengths(input) : null;
+        long tableDistance = 0;
+        if (type == TYPE_PREVIOUS_TABLE) {
+            tableDistance = ContainerHeader.readVarLong(input);
+            if (tableDistance < 1 || tableDistance > Integer.MAX_VALUE) {
+                throw new CorruptDataException("Corrupt table reference");
+            }
+        }
+        byte[] contextGroups = null;
+        byte[][] groupCodeLengths = null;
+        if (type == TYPE_CONTEXT_TABLES) {
+            int groupCount = input.readBits(8);
+            if (groupCount < 1 || groupCount > MAX_CONTEXT_GROUPS) {
+                throw new CorruptDataException("Corrupt context group count");
+            }
+            contextGroups = new byte[CONTEXT_COUNT];
+            for (int context = 0; context < CONTEXT_COUNT; context += 2) {
+                int value = input.readBits(8);
+                contextGroups[context] = (byte) (value >>> 4);
+                contextGroups[context + 1] = (byte) (value & 0x0F);
+                if (contextGroups[context] >= groupCount || contextGroups[context + 1] >= groupCount) {
+                    throw new CorruptDataException("Corrupt context group");
+                }
+            }
+            groupCodeLengths = new byte[groupCount][];
+            for (int group = 0; group < groupCount; group++) {
+                groupCodeLengths[group] = ContainerHeader.readCodeLengths(input);
+            }
+        }
+        int[] streamLengths = null;
+        if (interleaved) {
+            streamLengths = new int[STREAM_COUNT];
+            long remaining = payloadLength;
+            for (int stream = 0; stream < STREAM_COUNT - 1; stream++) {
+                long streamLength = ContainerHeader.readVarLong(input);
+                if (streamLength > remaining) {
+                    throw new CorruptDataException("Corrupt sub-stream length");
+                }
+                streamLengths[stream] = (int) streamLength;
+                remaining -= streamLength;
+            }
+            if (remaining > Integer.MAX_VALUE) {
+                throw new CorruptDataException("Corrupt sub-stream length");
+            }
+            streamLengths[STREAM_COUNT - 1] = (int) remaining;
+        }
+        BlockHeader header = new BlockHeader(type, (int) uncompressedLength, payloadLength, checksum, codeLengths,
+                (int) tableDistance, streamLengths);
+        header.contextGroups = contextGroups;
+        header.groupCodeLengths = groupCodeLengths;
+        return header;
+    }
+}
@@ -0,0 +1,202 @@
+package com.compressor.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Index of the block frames in a compressed container.
+ * <p>
+ * The index is written after the end-of-blocks marker. Every entry holds the file offset of the block
+ * frame (8 bytes), the payload length in bits (8 bytes) and the uncompressed length (4 bytes).
+ * A fixed {@value #FOOTER_SIZE}-byte footer at the very end of the file holds the offset of the
+ * end-of-blocks marker, the block count and the magic bytes "HUFI", so readers can find the index by seeking.
+ */
+public class BlockIndex {
+
+    /** Size of the footer at the end of the container. */
+    public static final int FOOTER_SIZE = 16;
+
+    /** Size of the index entry of one block. */
+    public static final int ENTRY_SIZE = 20;
+    private static final int FOOTER_MAGIC = ('H' << 24) | ('U' << 16) | ('F' << 8) | 'I';
+
+    private int blockCount = 0;
+    private long[] offsets = new long[16];
+    private long[] bitLengths = new long[16];
+    private int[] uncompressedLengths = new int[16];
+    private long[] uncompressedOffsets = new long[17];
+    private long indexOffset = -1;
+
+    /**
+     * Appends the entry of the next block.
+     *
+     * @param offset File offset of the block frame
+     * @param bitLength Length of the block payload in bits
+     * @param uncompressedLength Number of bytes in the uncompressed block
+     */
+    public void add(long offset, long bitLength, int uncompressedLength) {
+        if (blockCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, blockCount * 2);
+            bitLengths = Arrays.copyOf(bitLengths, blockCount * 2);
+            uncompressedLengths = Arrays.copyOf(uncompressedLengths, blockCount * 2);
+            uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, blockCount * 2 + 1);
+        }
+        offsets[blockCount] = offset;
+        bitLengths[blockCount] = bitLength;
+        uncompressedLengths[blockCount] = uncompressedLength;
+        uncompressedOffsets[blockCount + 1] = uncompressedOffsets[blockCount] + uncompressedLength;
+        blockCount++;
+    }
+
+    /**
+     * Removes all entries so that the index can be reused for another container.
+     */
+    public void clear() {
+        blockCount = 0;
+        indexOffset = -1;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getOffset(int block) {
+        return offsets[block];
+    }
+
+    public long getBitLength(int block) {
+        return bitLengths[block];
+    }
+
+    public int getUncompressedLength(int block) {
+        return uncompressedLengths[block];
+    }
+
+    /**
+     * Returns the position of a block in the original data.
+     *
+     * @param block The block number
+     * @return Number of original bytes before the block
+     */
+    public long getUncompressedOffset(int block) {
+        return uncompressedOffsets[block];
+    }
+
+    /**
+     * Finds the block that holds a position of the original data.
+     *
+     * @param position Offset in the original data, less than {@link #getUncompressedLength()}
+     * @return The block number
+     */
+    public int findBlock(long position) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (uncompressedOffsets[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the number of bytes in the original data.
+     *
+     * @return The total uncompressed length of all blocks
+     */
+    public long getUncompressedLength() {
+        return uncompressedOffsets[blockCount];
+    }
+
+    /**
+     * Returns the number of bytes in the frame of a block, header included.
+     *
+     * @param block The block number
+     * @return The frame length in bytes
+     */
+    public int getFrameLength(int block) {
+        long end = block + 1 < blockCount ? offsets[block + 1] : indexOffset;
+        return (int) (end - offsets[block]);
+    }
+
+    /**
+     * Reads the index from the end of a container file.
+     *
+     * @param file The container file
+     * @return The index
+     * @throws IOException If the index is missing or corrupt, or an I/O error occurs
+     */
+    public static BlockIndex read(FileChannel file) throws IOException {
+        long size = file.size();
+        if (size < FOOTER_SIZE + 1) {
+            throw new CorruptDataException("Compressed file has no block index");
+        }
+        ByteBuffer footer = readFully(file, size - FOOTER_SIZE, FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        int blockCount = footer.getInt();
+        if (footer.getInt() != FOOTER_MAGIC || blockCount < 0 || indexOffset < 0
+                || indexOffset + 1 + (long) blockCount * ENTRY_SIZE != size - FOOTER_SIZE) {
+            throw new CorruptDataException("Corrupt block index");
+        }
+
+        ByteBuffer entries = readFully(file, indexOffset, 1 + blockCount * ENTRY_SIZE);
+        if ((entries.get() & 0xFF) != BlockHeader.TYPE_END) {
+            throw new CorruptDataException("Corrupt block index");
+        }
+        BlockIndex index = new BlockIndex();
+        long previousOffset = -1;
+        for (int block = 0; block < blockCount; block++) {
+            long offset = entries.getLong();
+            long bitLength = entries.getLong();
+            int uncompressedLength = entries.getInt();
+            if (offset <= previousOffset || offset >= indexOffset || bitLength < 0 || uncompressedLength < 0) {
+                throw new CorruptDataException("Corrupt block index");
+            }
+            index.add(offset, bitLength, uncompressedLength);
+            previousOffset = offset;
+        }
+        index.indexOffset = indexOffset;
+        return index;
+    }
+
+    private static ByteBuffer readFully(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new CorruptDataException("Unexpected end of compressed file");
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the end-of-blocks marker, the index entries and the footer.
+     *
+     * @param output The bit stream, at a byte boundary after the last block
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(BitOutputStream output) throws IOException {
+        indexOffset = output.getPosition();
+        output.write(BlockHeader.TYPE_END, 8);
+        for (int block = 0; block < blockCount; block++) {
+            writeLong(output, offsets[block]);
+            writeLong(output, bitLengths[block]);
+            output.write(uncompressedLengths[block], 32);
+        }
+        writeLong(output, indexOffset);
+        output.write(blockCount, 32);
+        output.write(FOOTER_MAGIC, 32);
+    }
+
+    private static void writeLong(BitOutputStream output, long value) throws IOException {
+        output.write((int) (value >>> 32), 32);
+        output.write((int) value, 32);
+    }
+}
@@ -0,0 +1,418 @@
+package com.compressor.io;
+
+import java.io.IOException;
+
+/**
+ * Header of the compressed container format.
+ * <p>
+ * Layout: the magic bytes "HUF", a version byte, a flags byte, the original length and the block size
+ * as unsigned variable-length integers (7 bits per byte, low bits first), and, when the shared-table flag
+ * is set, the canonical code-length table shared by blocks that do not carry their own.
+ * Streams whose length is not known up front set the unknown-length flag and omit the original length;
+ * the length is then given by the blocks and the block index.
+ * Containers written with a pre-trained dictionary set the dictionary flag and store the dictionary's ID as a
+ * variable-length integer in place of the shared table; the dictionary's table then serves as the shared table.
+ * Code-length tables are stored either as run-length coded bytes (a byte with the high bit set is a run
+ * of up to 128 unused symbols, any other byte is a length) or as 256 packed nibbles, whichever is shorter.
+ * The header is followed by the block frames described in {@link BlockHeader} and the {@link BlockIndex}.
+ * <p>
+ * Data that fits in one block can instead be written as a compact frame for small messages: the byte "h", a byte
+ * holding the compact format version in its high 4 bits and the dictionary flag, the original length as a
+ * variable-length integer and, with the flag, the dictionary's ID. Exactly one block frame of that length follows,
+ * or none for empty data, without an end marker or block index. The length also serves as the block size.
+ */
+public class ContainerHeader {
+
+    /** Format version written by this implementation. */
+    public static final int VERSION = 2;
+
+    /** Number of symbols described by the code-length table. */
+    public static final int TABLE_SIZE = 256;
+
+    /** Largest serialized size of a code-length table. */
+    public static final int MAX_TABLE_SIZE = 1 + TABLE_SIZE;
+
+    /** Largest serialized size of a container header. */
+    public static final int MAX_HEADER_SIZE = 5 + 10 + 10 + 5 + MAX_TABLE_SIZE;
+
+    private static final int MAGIC = ('H' << 16) | ('U' << 8) | 'F';
+    private static final int COMPACT_MAGIC = 'h';
+    private static final int COMPACT_VERSION = 1;
+    private static final int FLAG_SHARED_TABLE = 1;
+    private static final int FLAG_UNKNOWN_LENGTH = 2;
+    private static final int FLAG_DICTIONARY = 4;
+    private static final int TABLE_RLE = 0;
+    private static final int TABLE_NIBBLES = 1;
+
+    private long originalLength;
+    private int blockSize;
+    private byte[] sharedCodeLengths;
+    private int dictionaryId;
+    private boolean compact;
+
+    /**
+     * Creates a new header.
+     *
+     * @param originalLength Number of bytes in the original data, or -1 if it is not known up front
+     * @param blockSize Uncompressed size of every block except the last
+     * @param sharedCodeLengths Code lengths of the shared table, or null if there is none
+     */
+    public ContainerHeader(long originalLength, int blockSize, byte[] sharedCodeLengths) {
+        this(originalLength, blockSize, sharedCodeLengths, -1);
+    }
+
+    /**
+     * Creates a new header.
+     *
+     * @param originalLength Number of bytes in the original data, or -1 if it is not known up front
+     * @param blockSize Uncompressed size of every block except the last
+     * @param sharedCodeLengths Code lengths of the shared table, or null if there is none or it comes from a dictionary
+     * @param dictionaryId ID of the dictionary whose table is the shared table, or -1 if there is none
+     */
+    public ContainerHeader(long originalLength, int blockSize, byte[] sharedCodeLengths, int dictionaryId) {
+        this.originalLength = originalLength;
+        this.blockSize = blockSize;
+        this.sharedCodeLengths = sharedCodeLengths;
+        this.dictionaryId = dictionaryId;
+    }
+
+    /**
+     * Creates the header of a compact frame.
+     *
+     * @param originalLength Number of bytes in the original data, which the frame codes as a single block
+     * @param dictionaryId ID of the dictionary whose table is the shared table, or -1 if there is none
+     * @return The header
+     */
+    public static ContainerHeader compact(int originalLength, int dictionaryId) {
+        ContainerHeader header = new ContainerHeader(originalLength, Math.max(1, originalLength), null, dictionaryId);
+        header.compact = true;
+        return header;
+    }
+
+    public long getOriginalLength() {
+        return originalLength;
+    }
+
+    /**
+     * Tells whether the header records the original length.
+     *
+     * @return true if the length is known, false for streams written without knowing their length
+     */
+    public boolean hasOriginalLength() {
+        return originalLength >= 0;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public byte[] getSharedCodeLengths() {
+        return sharedCodeLengths;
+    }
+
+    /**
+     * Tells whether the shared table comes from a pre-trained dictionary.
+     *
+     * @return true if the container refers to a dictionary
+     */
+    public boolean hasDictionary() {
+        return dictionaryId >= 0;
+    }
+
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    /**
+     * Tells whether the header starts a compact frame, holding one block and no block index.
+     *
+     * @return true for a compact frame
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Writes the header to the start of a compressed stream.
+     *
+     * @param output The bit stream, at a byte boundary
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(BitOutputStream output) throws IOException {
+        write(output, new byte[MAX_HEADER_SIZE]);
+    }
+
+    /**
+     * Writes the header through a caller-supplied scratch array, so that repeated writes allocate nothing.
+     *
+     * @param output The bit stream, at a byte boundary
+     * @param header Scratch array of at least {@link #MAX_HEADER_SIZE} bytes
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(BitOutputStream output, byte[] header) throws IOException {
+        int position = 0;
+        if (compact) {
+            header[position++] = (byte) COMPACT_MAGIC;
+            header[position++] = (byte) ((COMPACT_VERSION << 4) | (dictionaryId >= 0 ? FLAG_DICTIONARY : 0));
+            position = writeVarLong(originalLength, header, position);
+            if (dictionaryId >= 0) {
+                position = writeVarLong(dictionaryId, header, position);
+            }
+            output.writeBytes(header, 0, position);
+            return;
+        }
+        header[position++] = (byte) (MAGIC >>> 16);
+        header[position++] = (byte) (MAGIC >>> 8);
+        header[position++] = (byte) MAGIC;
+        header[position++] = (byte) VERSION;
+        int flags = (sharedCodeLengths != null ? FLAG_SHARED_TABLE : 0) | (originalLength < 0 ? FLAG_UNKNOWN_LENGTH : 0)
+                | (dictionaryId >= 0 ? FLAG_DICTIONARY : 0);
+        header[position++] = (byte) flags;
+        if (originalLength >= 0) {
+            position = writeVarLong(originalLength, header, position);
+        }
+        position = writeVarLong(blockSize, header, position);
+        if (dictionaryId >= 0) {
+            position = writeVarLong(dictionaryId, header, position);
+        } else if (sharedCodeLengths != null) {
+            position = writeCodeLengths(sharedCodeLengths, header, position);
+        }
+        output.writeBytes(header, 0, position);
+    }
+
+    /**
+     * Reads and validates a header from the start of a compressed stream.
+     *
+     * @param input The bit stream positioned at the start of the container
+     * @return The parsed header
+     * @throws IOException If the stream is not a supported container or an I/O error occurs
+     */
+    public static ContainerHeader read(BitInputStream input) throws IOException {
+        int first = input.readBits(8);
+        if (first == COMPACT_MAGIC) {
+            return readCompact(input);
+        }
+        if ((first << 16 | input.readBits(16)) != MAGIC) {
+            throw new CorruptDataException("Not a compressed file");
+        }
+        int version = input.readBits(8);
+        if (version != VERSION) {
+            throw new CorruptDataException("Unsupported format version " + version);
+        }
+        int flags = input.readBits(8);
+        long originalLength = (flags & FLAG_UNKNOWN_LENGTH) != 0 ? -1 : readVarLong(input);
+        if (originalLength < -1) {
+            throw new CorruptDataException("Corrupt original length");
+        }
+        long blockSize = readVarLong(input);
+        if (blockSize <= 0 || blockSize > Integer.MAX_VALUE) {
+            throw new CorruptDataException("Corrupt block size");
+        }
+        if ((flags & FLAG_DICTIONARY) != 0) {
+            long dictionaryId = readVarLong(input);
+            if (dictionaryId > Integer.MAX_VALUE || (flags & FLAG_SHARED_TABLE) != 0) {
+                throw new CorruptDataException("Corrupt dictionary reference");
+            }
+            return new ContainerHeader(originalLength, (int) blockSize, null, (int) dictionaryId);
+        }
+        byte[] sharedCodeLengths = (flags & FLAG_SHARED_TABLE) != 0 ? readCodeLengths(input) : null;
+        return new ContainerHeader(originalLength, (int) blockSize, sharedCodeLengths);
+    }
+
+    /**
+     * Reads the rest of a compact frame header, after its first byte.
+     *
+     * @param input The bit stream positioned after the "h"
+     * @return The parsed header
+     * @throws IOException If the header is corrupt or an I/O error occurs
+     */
+    private static ContainerHeader readCompact(BitInputStream input) throws IOException {
+        int versionAndFlags = input.readBits(8);
+        if (versionAndFlags >>> 4 != COMPACT_VERSION) {
+            throw new CorruptDataException("Unsupported compact format version " + (versionAndFlags >>> 4));
+        }
+        long originalLength = readVarLong(input);
+        if (originalLength < 0 || originalLength > Integer.MAX_VALUE) {
+            throw new CorruptDataException("Corrupt original length");
+        }
+        int dictionaryId = -1;
+        if ((versionAndFlags & FLAG_DICTIONARY) != 0) {
+            long id = readVarLong(input);
+            if (id < 0 || id > Integer.MAX_VALUE) {
+                throw new CorruptDataException("Corrupt dictionary reference");
+            }
+            dictionaryId = (int) id;
+        }
+        return compact((int) originalLength, dictionaryId);
+    }
+
+    /**
+     * Serializes an unsigned variable-length integer, 7 bits per byte, low bits first.
+     *
+     * @param value The non-negative value
+     * @param buffer Destination buffer with room for 10 bytes
+     * @param position Position in the buffer to start writing at
+     * @return The position after the last byte written
+     */
+    public static int writeVarLong(long value, byte[] buffer, int position) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeVarLong(long, byte[], int)} takes for a value.
+     *
+     * @param value The non-negative value
+     * @return The serialized size, between 1 and 10 bytes
+     */
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Reads an unsigned variable-length integer written by {@link #writeVarLong(long, byte[], int)}.
+     *
+     * @param input The bit stream, at a byte boundary
+     * @return The value
+     * @throws IOException If the value is malformed or an I/O error occurs
+     */
+    public static long readVarLong(BitInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 63) {
+                throw new CorruptDataException("Corrupt variable-length integer");
+            }
+            int part = input.readBits(8);
+            value |= (long) (part & 0x7F) << shift;
+            if ((part & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes a code-length table takes when serialized.
+     *
+     * @param codeLengths Code length per byte value
+     * @return The serialized size in bytes
+     */
+    public static int codeLengthsSize(byte[] codeLengths) {
+        int rleSize = rleSize(codeLengths);
+        return 1 + (useNibbles(codeLengths, rleSize) ? TABLE_SIZE / 2 : rleSize);
+    }
+
+    /**
+     * Returns the number of bytes of the run-length coded form of a table.
+     *
+     * @param codeLengths Code length per byte value
+     * @return The size without the encoding byte
+     */
+    private static int rleSize(byte[] codeLengths) {
+        int rleSize = 0;
+        for (int symbol = 0; symbol < TABLE_SIZE; ) {
+            if (codeLengths[symbol] == 0) {
+                int run = 1;
+                while (symbol + run < TABLE_SIZE && run < 128 && codeLengths[symbol + run] == 0) {
+                    run++;
+                }
+                symbol += run;
+            } else {
+                symbol++;
+            }
+            rleSize++;
+        }
+        return rleSize;
+    }
+
+    /**
+     * Decides whether the packed nibble form is the shorter encoding of a table.
+     *
+     * @param codeLengths Code length per byte value
+     * @param rleSize Size of the run-length coded form
+     * @return true if the table should be stored as nibbles
+     */
+    private static boolean useNibbles(byte[] codeLengths, int rleSize) {
+        if (rleSize <= TABLE_SIZE / 2) {
+            return false;
+        }
+        for (byte length : codeLengths) {
+            if (length > 15) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serializes a code-length table into the given buffer.
+     *
+     * @param codeLengths Code length per byte value
+     * @param buffer Destination buffer with room for at least 257 bytes
+     * @param position Position in the buffer to start writing at
+     * @return The position after the last byte written
+     */
+    public static int writeCodeLengths(byte[] codeLengths, byte[] buffer, int position) {
+        if (useNibbles(codeLengths, rleSize(codeLengths))) {
+            buffer[position++] = (byte) TABLE_NIBBLES;
+            for (int symbol = 0; symbol < TABLE_SIZE; symbol += 2) {
+                buffer[position++] = (byte) ((codeLengths[symbol] << 4) | codeLengths[symbol + 1]);
+            }
+            return position;
+        }
+
+        buffer[position++] = (byte) TABLE_RLE;
+        for (int symbol = 0; symbol < TABLE_SIZE; ) {
+            if (codeLengths[symbol] == 0) {
+                int run = 1;
+                while (symbol + run < TABLE_SIZE && run < 128 && codeLengths[symbol + run] == 0) {
+                    run++;
+                }
+                buffer[position++] = (byte) (0x80 | (run - 1));
+                symbol += run;
+            } else {
+                buffer[position++] = codeLengths[symbol++];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Reads a code-length table written by {@link #writeCodeLengths(byte[], byte[], int)}.
+     *
+     * @param input The bit stream positioned at the start of the table
+     * @return Code length per byte value
+     * @throws IOException If the table is malformed or an I/O error occurs
+     */
+    public static byte[] readCodeLengths(BitInputStream input) throws IOException {
+        byte[] codeLengths = new byte[TABLE_SIZE];
+        int kind = input.readBits(8);
+        if (kind == TABLE_NIBBLES) {
+            for (int symbol = 0; symbol < TABLE_SIZE; symbol += 2) {
+                int value = input.readBits(8);
+                codeLengths[symbol] = (byte) (value >>> 4);
+                codeLengths[symbol + 1] = (byte) (value & 0x0F);
+            }
+        } else if (kind == TABLE_RLE) {
+            for (int symbol = 0; symbol < TABLE_SIZE; ) {
+                int value = input.readBits(8);
+                if ((value & 0x80) != 0) {
+                    symbol += (value & 0x7F) + 1;
+                } else {
+                    codeLengths[symbol++] = (byte) value;
+                }
+            }
+        } else {
+            throw new CorruptDataException("Unknown code table encoding " + kind);
+        }
+        return codeLengths;
+    }
+}
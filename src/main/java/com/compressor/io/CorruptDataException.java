@@ -0,0 +1,33 @@
+package com.compressor.io;
+
+import java.io.IOException;
+
+/**
+ * Signals compressed data that cannot be decoded: a malformed container, archive or dictionary, truncated
+ * data, a checksum mismatch, or data written with a dictionary that was not supplied.
+ * <p>
+ * Other {@link IOException}s from the same operations are failures to read or write the files themselves.
+ */
+public class CorruptDataException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an exception with a message.
+     *
+     * @param message What is wrong with the data
+     */
+    public CorruptDataException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates an exception with a message and a cause.
+     *
+     * @param message What is wrong with the data
+     * @param cause The error raised while decoding
+     */
+    public CorruptDataException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,357 @@
+package com.compressor.io;
+
+import java.io.IOException;
+
+/**
+ * Table-driven decoder for canonical Huffman codes.
+ * A primary table indexed by the next {@value #PRIMARY_BITS} bits resolves short codes in one lookup,
+ * and longer codes go through a secondary table selected by their primary prefix.
+ * Codes too long for the secondary tables fall back to a canonical bit-by-bit walk.
+ */
+public class HuffmanDecoder {
+
+    /** Number of bits resolved by the primary table. */
+    public static final int PRIMARY_BITS = 10;
+
+    private static final int MAX_SECONDARY_BITS = 8;
+
+    // Table entries: symbol << 8 | code length, or a link / slow-path marker for long codes
+    private static final int LINK_FLAG = 1 << 30;
+    private static final int SLOW_PATH = -1;
+    private static final int INVALID = 0;
+
+    private final int primaryBits;
+    private final int[] table;
+    private final boolean hasSlowPath;
+
+    // Canonical description used by the slow path
+    private final int[] lengthCount;
+    private final int[] sortedSymbols;
+    private final int maxLength;
+
+    /**
+     * Builds the decoding tables from canonical code lengths.
+     *
+     * @param lengths Code length per symbol, 0 for unused symbols
+     * @param codes Canonical code per symbol, as produced from the same lengths
+     */
+    public HuffmanDecoder(byte[] lengths, int[] codes) {
+        int longest = 0;
+        for (byte length : lengths) {
+            longest = Math.max(longest, length);
+        }
+        this.maxLength = longest;
+        this.primaryBits = Math.max(1, Math.min(longest, PRIMARY_BITS));
+
+        // Symbols in canonical order: by length, then by symbol
+        lengthCount = new int[longest + 1];
+        for (byte length : lengths) {
+            lengthCount[length]++;
+        }
+        lengthCount[0] = 0;
+        int[] offsets = new int[longest + 2];
+        for (int length = 1; length <= longest; length++) {
+            offsets[length + 1] = offsets[length] + lengthCount[length];
+        }
+        sortedSymbols = new int[offsets[longest + 1]];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] != 0) {
+                sortedSymbols[offsets[lengths[symbol]]++] = symbol;
+            }
+        }
+
+        // Width of the secondary table needed under every primary prefix
+        int primarySize = 1 << primaryBits;
+        int[] secondaryBits = new int[primarySize];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length > primaryBits) {
+                int prefix = codes[symbol] >>> (length - primaryBits);
+                secondaryBits[prefix] = Math.max(secondaryBits[prefix], length - primaryBits);
+            }
+        }
+        int tableSize = primarySize;
+        for (int prefix = 0; prefix < primarySize; prefix++) {
+            if (secondaryBits[prefix] > MAX_SECONDARY_BITS) {
+                secondaryBits[prefix] = -1;
+            } else if (secondaryBits[prefix] > 0) {
+                tableSize += 1 << secondaryBits[prefix];
+            }
+        }
+
+        table = new int[tableSize];
+        int nextOffset = primarySize;
+        boolean slowPath = false;
+        for (int prefix = 0; prefix < primarySize; prefix++) {
+            if (secondaryBits[prefix] < 0) {
+                table[prefix] = SLOW_PATH;
+                slowPath = true;
+            } else if (secondaryBits[prefix] > 0) {
+                table[prefix] = LINK_FLAG | (nextOffset << 8) | secondaryBits[prefix];
+                nextOffset += 1 << secondaryBits[prefix];
+            }
+        }
+        this.hasSlowPath = slowPath;
+
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length == 0) {
+                continue;
+            }
+            int entry = (symbol << 8) | length;
+            if (length <= primaryBits) {
+                int start = codes[symbol] << (primaryBits - length);
+                int end = start + (1 << (primaryBits - length));
+                for (int index = start; index < end; index++) {
+                    table[index] = entry;
+                }
+            } else {
+                int prefix = codes[symbol] >>> (length - primaryBits);
+                int link = table[prefix];
+                if (link == SLOW_PATH) {
+                    continue;
+                }
+                int subBits = link & 0xFF;
+                int offset = (link & ~LINK_FLAG) >>> 8;
+                int suffixLength = length - primaryBits;
+                int suffix = codes[symbol] & ((1 << suffixLength) - 1);
+                int start = offset + (suffix << (subBits - suffixLength));
+                int end = start + (1 << (subBits - suffixLength));
+                for (int index = start; index < end; index++) {
+                    table[index] = entry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the next symbol from the bit stream.
+     *
+     * @param input The bit stream positioned at the start of a code
+     * @return The decoded symbol
+     * @throws IOException If the data does not form a valid code or an I/O error occurs
+     */
+    public int decodeSymbol(BitInputStream input) throws IOException {
+        int entry = table[input.peekBits(primaryBits)];
+        if (entry == SLOW_PATH) {
+            return decodeSlow(input);
+        }
+        if ((entry & LINK_FLAG) != 0) {
+            int subBits = entry & 0xFF;
+            int offset = (entry & ~LINK_FLAG) >>> 8;
+            int bits = input.peekBits(primaryBits + subBits);
+            entry = table[offset + (bits & ((1 << subBits) - 1))];
+        }
+        if (entry == INVALID) {
+            throw new CorruptDataException("Invalid Huffman code in compressed data");
+        }
+        input.skipBits(entry & 0xFF);
+        return entry >>> 8;
+    }
+
+    /**
+     * Decodes the interleaved sub-streams of a block, one symbol from every sub-stream per iteration.
+     * Sub-stream {@code i} codes the {@code i}-th quarter of the output, the last one taking the remainder.
+     * The readers work directly on the payload array, so the four dependency chains share no state.
+     *
+     * @param payload The sub-streams, one after the other
+     * @param streamLengths Byte length of every sub-stream
+     * @param output Array that receives the decoded bytes
+     * @param length Number of bytes to decode
+     * @throws IOException If the data does not form a valid code
+     */
+    public void decodeInterleaved(byte[] payload, int[] streamLengths, byte[] output, int length) throws IOException {
+        Cursor[] cursors = new Cursor[streamLengths.length];
+        int offset = 0;
+        for (int stream = 0; stream < cursors.length; stream++) {
+            cursors[stream] = new Cursor(payload, offset, streamLengths[stream]);
+            offset += streamLengths[stream];
+        }
+        int quarter = length / cursors.length;
+        if (cursors.length != 4 || hasSlowPath) {
+            // Long codes need the bit-by-bit walk, so decode the sub-streams one after the other
+            for (int stream = 0; stream < cursors.length; stream++) {
+                BitInputStream input = new BitInputStream(payload, cursors[stream].position, streamLengths[stream]);
+                int end = stream == cursors.length - 1 ? length : (stream + 1) * quarter;
+                for (int index = stream * quarter; index < end; index++) {
+                    output[index] = (byte) decodeSymbol(input);
+                }
+            }
+            return;
+        }
+
+        Cursor cursor0 = cursors[0];
+        Cursor cursor1 = cursors[1];
+        Cursor cursor2 = cursors[2];
+        Cursor cursor3 = cursors[3];
+        for (int index = 0; index < quarter; index++) {
+            output[index] = (byte) decodeSymbol(cursor0);
+            output[quarter + index] = (byte) decodeSymbol(cursor1);
+            output[2 * quarter + index] = (byte) decodeSymbol(cursor2);
+            output[3 * quarter + index] = (byte) decodeSymbol(cursor3);
+        }
+        for (int index = 4 * quarter; index < length; index++) {
+            output[index] = (byte) decodeSymbol(cursor3);
+        }
+    }
+
+    /**
+     * Decodes a payload coded with order-1 context tables: every symbol with the decoder selected by the
+     * symbol before it in its sub-stream, the first one of every sub-stream with the decoder of symbol 0.
+     * Sub-stream {@code i} codes the {@code i}-th part of the output, the last one taking the remainder; four
+     * sub-streams are decoded one symbol from each per iteration, like {@link #decodeInterleaved}.
+     *
+     * @param contextDecoders Decoder for every preceding symbol
+     * @param payload The sub-streams, one after the other
+     * @param streamLengths Byte length of every sub-stream
+     * @param output Array that receives the decoded bytes
+     * @param length Number of bytes to decode
+     * @throws IOException If the data does not form a valid code
+     */
+    public static void decodeContexts(HuffmanDecoder[] contextDecoders, byte[] payload, int[] streamLengths,
+                                      byte[] output, int length) throws IOException {
+        boolean slowPath = false;
+        for (HuffmanDecoder decoder : contextDecoders) {
+            slowPath |= decoder.hasSlowPath;
+        }
+        Cursor[] cursors = new Cursor[streamLengths.length];
+        int offset = 0;
+        for (int stream = 0; stream < cursors.length; stream++) {
+            cursors[stream] = new Cursor(payload, offset, streamLengths[stream]);
+            offset += streamLengths[stream];
+        }
+        int part = length / cursors.length;
+        if (cursors.length != 4 || slowPath) {
+            for (int stream = 0; stream < cursors.length; stream++) {
+                // Long codes need the bit-by-bit walk of the bit stream reader
+                BitInputStream input = slowPath
+                        ? new BitInputStream(payload, cursors[stream].position, streamLengths[stream]) : null;
+                int end = stream == cursors.length - 1 ? length : (stream + 1) * part;
+                int previous = 0;
+                for (int index = stream * part; index < end; index++) {
+                    previous = slowPath ? contextDecoders[previous].decodeSymbol(input)
+                            : contextDecoders[previous].decodeSymbol(cursors[stream]);
+                    output[index] = (byte) previous;
+                }
+            }
+            return;
+        }
+
+        Cursor cursor0 = cursors[0];
+        Cursor cursor1 = cursors[1];
+        Cursor cursor2 = cursors[2];
+        Cursor cursor3 = cursors[3];
+        int previous0 = 0;
+        int previous1 = 0;
+        int previous2 = 0;
+        int previous3 = 0;
+        for (int index = 0; index < part; index++) {
+            previous0 = contextDecoders[previous0].decodeSymbol(cursor0);
+            previous1 = contextDecoders[previous1].decodeSymbol(cursor1);
+            previous2 = contextDecoders[previous2].decodeSymbol(cursor2);
+            previous3 = contextDecoders[previous3].decodeSymbol(cursor3);
+            output[index] = (byte) previous0;
+            output[part + index] = (byte) previous1;
+            output[2 * part + index] = (byte) previous2;
+            output[3 * part + index] = (byte) previous3;
+        }
+        for (int index = 4 * part; index < length; index++) {
+            previous3 = contextDecoders[previous3].decodeSymbol(cursor3);
+            output[index] = (byte) previous3;
+        }
+    }
+
+    /**
+     * Decodes the next symbol of a sub-stream through the lookup tables.
+     *
+     * @param cursor The sub-stream reader
+     * @return The decoded symbol
+     * @throws IOException If the data does not form a valid code
+     */
+    private int decodeSymbol(Cursor cursor) throws IOException {
+        if (cursor.bitCount < 32) {
+            cursor.refill();
+        }
+        int entry = table[cursor.peek(primaryBits)];
+        if ((entry & LINK_FLAG) != 0) {
+            int subBits = entry & 0xFF;
+            int offset = (entry & ~LINK_FLAG) >>> 8;
+            entry = table[offset + (cursor.peek(primaryBits + subBits) & ((1 << subBits) - 1))];
+        }
+        int length = entry & 0xFF;
+        if (entry == INVALID || length > cursor.bitCount) {
+            throw new CorruptDataException("Invalid Huffman code in compressed data");
+        }
+        cursor.bitCount -= length;
+        return entry >>> 8;
+    }
+
+    /**
+     * Decodes one symbol bit by bit using the canonical length counts.
+     *
+     * @param input The bit stream positioned at the start of a code
+     * @return The decoded symbol
+     * @throws IOException If the data does not form a valid code or an I/O error occurs
+     */
+    private int decodeSlow(BitInputStream input) throws IOException {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code |= input.readBit();
+            int count = lengthCount[length];
+            if (code - first < count) {
+                return sortedSymbols[index + code - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new CorruptDataException("Invalid Huffman code in compressed data");
+    }
+
+    /**
+     * Minimal bit reader over one sub-stream of a payload array.
+     */
+    private static final class Cursor {
+
+        private final byte[] data;
+        private int position;
+        private final int end;
+        private long bitBuffer;
+        private int bitCount;
+
+        Cursor(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        /**
+         * Loads bytes until at least 32 bits are buffered or the sub-stream is exhausted.
+         */
+        void refill() {
+            if (end - position >= 4) {
+                bitBuffer = (bitBuffer << 32) | ((data[position] & 0xFFL) << 24) | ((data[position + 1] & 0xFF) << 16)
+                        | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+                position += 4;
+                bitCount += 32;
+                return;
+            }
+            while (bitCount <= 56 && position < end) {
+                bitBuffer = (bitBuffer << 8) | (data[position++] & 0xFF);
+                bitCount += 8;
+            }
+        }
+
+        /**
+         * Returns the next bits without consuming them, reading zeros past the end of the sub-stream.
+         */
+        int peek(int count) {
+            if (bitCount >= count) {
+                return (int) (bitBuffer >>> (bitCount - count)) & ((1 << count) - 1);
+            }
+            return (int) (bitBuffer << (count - bitCount)) & ((1 << count) - 1);
+        }
+    }
+}
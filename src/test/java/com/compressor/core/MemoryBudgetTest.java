@@ -0,0 +1,160 @@
+package com.compressor.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Round trips through every API under the smallest memory budgets, with the same options on both sides.
+ * The multi-GB variant under a small heap is {@code MemoryBudgetCheck} in the benchmarks module.
+ */
+class MemoryBudgetTest {
+
+    private static final int[] LENGTHS = { 0, 17, 3 << 20 };
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(longs = { 4 << 20, 5 << 20 })
+    void arraysRoundTripWithinBudget(long budget) throws IOException {
+        CompressionOptions options = budgetOptions(budget);
+        EncoderContext encoder = new EncoderContext(options);
+        DecoderContext decoder = new DecoderContext(options);
+        for (int length : LENGTHS) {
+            byte[] data = mixed(length);
+            byte[] compressed = new byte[encoder.maxCompressedLength(length)];
+            int size = encoder.compress(data, 0, length, compressed, 0);
+            byte[] restored = new byte[length];
+            assertEquals(length, decoder.decompress(compressed, 0, size, restored, 0));
+            assertArrayEquals(data, restored);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = { 4 << 20, 5 << 20 })
+    void streamsRoundTripWithinBudget(long budget) throws IOException {
+        CompressionOptions options = budgetOptions(budget);
+        for (int length : LENGTHS) {
+            byte[] data = mixed(length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new HuffmanOutputStream(compressed, options)) {
+                out.write(data);
+            }
+            assertArrayEquals(data, readAll(new HuffmanInputStream(
+                    new ByteArrayInputStream(compressed.toByteArray()), options)));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = { 4 << 20, 5 << 20 })
+    void contextStreamsRoundTripWithinBudget(long budget) throws IOException {
+        CompressionOptions options = budgetOptions(budget);
+        for (int length : LENGTHS) {
+            byte[] data = mixed(length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new HuffmanOutputStream(compressed, EncoderContext.forCurrentThread(options))) {
+                out.write(data);
+            }
+            assertArrayEquals(data, readAll(new HuffmanInputStream(
+                    new ByteArrayInputStream(compressed.toByteArray()), DecoderContext.forCurrentThread(options))));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = { 4 << 20, 5 << 20 })
+    void filesRoundTripWithinBudget(long budget) throws IOException {
+        HuffmanCompressor compressor = new HuffmanCompressor(budgetOptions(budget));
+        for (int length : LENGTHS) {
+            byte[] data = mixed(length);
+            Path input = Files.write(directory.resolve("input-" + length), data);
+            Path compressed = directory.resolve("input-" + length + ".huf");
+            Path restored = directory.resolve("restored-" + length);
+            compressor.compress(input, compressed, null);
+            compressor.decompress(compressed, restored, null);
+            assertArrayEquals(data, Files.readAllBytes(restored));
+        }
+    }
+
+    @Test
+    void shortDataWrittenWithoutBudgetDecodesWithinBudget() throws IOException {
+        byte[] data = mixed(17);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new HuffmanOutputStream(compressed, new CompressionOptions())) {
+            out.write(data);
+        }
+        CompressionOptions options = budgetOptions(CompressionOptions.MIN_MEMORY_BUDGET);
+        assertArrayEquals(data, readAll(new HuffmanInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()), options)));
+    }
+
+    @Test
+    void blocksLargerThanBudgetAreRejected() throws IOException {
+        byte[] data = mixed(2 << 20);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new HuffmanOutputStream(compressed, new CompressionOptions())) {
+            out.write(data);
+        }
+        CompressionOptions options = budgetOptions(CompressionOptions.MIN_MEMORY_BUDGET);
+        assertThrows(IOException.class, () -> readAll(new HuffmanInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()), options)));
+    }
+
+    private static CompressionOptions budgetOptions(long budget) {
+        CompressionOptions options = new CompressionOptions();
+        options.setMemoryBudget(budget);
+        return options;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Returns text, random bytes and runs of one byte value in 64 KB pieces, from a fixed seed.
+     */
+    private static byte[] mixed(int length) {
+        Random random = new Random(length);
+        byte[] text = "the quick brown fox jumps over the lazy dog 0123456789\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[length];
+        for (int position = 0; position < length; position += 1 << 16) {
+            int end = Math.min(length, position + (1 << 16));
+            int kind = random.nextInt(10);
+            if (kind < 7) {
+                for (int i = position; i < end; i++) {
+                    data[i] = text[(i + kind) % text.length];
+                }
+            } else if (kind < 9) {
+                byte[] noise = new byte[end - position];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, data, position, noise.length);
+            } else {
+                Arrays.fill(data, position, end, (byte) 'a');
+            }
+        }
+        return data;
+    }
+}
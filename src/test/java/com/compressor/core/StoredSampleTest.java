@@ -0,0 +1,57 @@
+package com.compressor.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that the sample that stores incompressible blocks without a full count is not fooled by data whose
+ * period lines up with the sampling stride.
+ */
+class StoredSampleTest {
+
+    private static final int BLOCK = 1 << 20;
+
+    private static final int STRIDE = 16 * Histogram.SAMPLE_CHUNK;
+
+    @ParameterizedTest
+    @ValueSource(ints = { STRIDE / 2, STRIDE, 2 * STRIDE, 4 * STRIDE })
+    void periodicDataAlignedWithStrideIsCoded(int period) throws IOException {
+        // One random chunk at the start of every period, a repeated byte value in the rest
+        byte[] data = new byte[BLOCK];
+        Arrays.fill(data, (byte) 'a');
+        Random random = new Random(period);
+        byte[] noise = new byte[Histogram.SAMPLE_CHUNK];
+        for (int start = 0; start < BLOCK; start += period) {
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, data, start, noise.length);
+        }
+
+        CompressionOptions options = new CompressionOptions();
+        long[] histogram = new long[CanonicalCode.ALPHABET_SIZE];
+        assertFalse(BlockCompressor.isStoredBySample(options, data, 0, BLOCK, histogram));
+
+        EncoderContext encoder = new EncoderContext(options);
+        byte[] compressed = new byte[encoder.maxCompressedLength(BLOCK)];
+        int size = encoder.compress(data, 0, BLOCK, compressed, 0);
+        assertTrue(size < BLOCK / 2, "compressed to " + size + " bytes");
+        byte[] restored = new byte[BLOCK];
+        new DecoderContext(options).decompress(compressed, 0, size, restored, 0);
+        assertArrayEquals(data, restored);
+    }
+
+    @Test
+    void randomDataIsStoredBySample() {
+        byte[] data = new byte[BLOCK];
+        new Random(1).nextBytes(data);
+        long[] histogram = new long[CanonicalCode.ALPHABET_SIZE];
+        assertTrue(BlockCompressor.isStoredBySample(new CompressionOptions(), data, 0, BLOCK, histogram));
+    }
+}